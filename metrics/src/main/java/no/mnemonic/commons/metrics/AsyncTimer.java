@@ -0,0 +1,202 @@
+package no.mnemonic.commons.metrics;
+
+import no.mnemonic.commons.logging.Logger;
+import no.mnemonic.commons.logging.Logging;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * An async timer registers timing metrics for asynchronous operations, measuring the time from when the operation
+ * is started until its {@link CompletionStage} completes, where a {@link TimerContext} would only measure the time
+ * until the block starting the operation exits.
+ *
+ * Example:
+ * <code>
+ *   private final PerformanceMonitor lookups = new PerformanceMonitor(TimeUnit.MINUTES, 10, 1);
+ *   private final PerformanceMonitor failedLookups = new PerformanceMonitor(TimeUnit.MINUTES, 10, 1);
+ *   private final AsyncTimer lookupTimer = AsyncTimer.builder()
+ *           .setSuccessMonitor(lookups)
+ *           .setFailureMonitor(failedLookups)
+ *           .build();
+ *
+ *   CompletableFuture&lt;Result&gt; lookup(String key) {
+ *     return lookupTimer.time(client.lookupAsync(key));
+ *   }
+ * </code>
+ *
+ * Operations completing normally are registered as successes, and operations completing exceptionally
+ * (including cancelled operations) are registered as failures. Each outcome can be registered into a
+ * {@link PerformanceMonitor} (in milliseconds) and a {@link Histogram} (in the configured histogram time unit),
+ * and the timer itself counts operations succeeded, failed and still pending.
+ *
+ * The completion is registered using {@link CompletionStage#whenComplete(BiConsumer)}, so it runs in the thread
+ * completing the stage, without passing through an executor. Each timed operation allocates a completion object
+ * holding the start time, which is the callback registered on the stage, and <code>whenComplete</code> allocates
+ * the dependent stage it returns and the node registering the callback on the timed stage.
+ * The timed stage is returned as is, so the registration does not affect the result seen by the caller.
+ */
+public class AsyncTimer implements MetricAspect {
+
+  private static final Logger LOGGER = Logging.getLogger(AsyncTimer.class);
+
+  private final PerformanceMonitor successMonitor;
+  private final PerformanceMonitor failureMonitor;
+  private final Histogram successHistogram;
+  private final Histogram failureHistogram;
+  private final TimeUnit histogramTimeUnit;
+  private final LongAdder started = new LongAdder();
+  private final LongAdder succeeded = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+
+  private AsyncTimer(Builder builder) {
+    if (builder.histogramTimeUnit == null) throw new IllegalArgumentException("Histogram timeUnit not set");
+    this.successMonitor = builder.successMonitor;
+    this.failureMonitor = builder.failureMonitor;
+    this.successHistogram = builder.successHistogram;
+    this.failureHistogram = builder.failureHistogram;
+    this.histogramTimeUnit = builder.histogramTimeUnit;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  //interface methods
+
+  /**
+   * @return the number of operations succeeded, failed and still pending
+   */
+  @Override
+  public Metrics getMetrics() throws MetricException {
+    long succeeded = this.succeeded.sum();
+    long failed = this.failed.sum();
+    return PrimitiveMetricsData.builder()
+            .addData("succeeded", succeeded)
+            .addData("failed", failed)
+            .addData("pending", Math.max(0, started.sum() - succeeded - failed))
+            .build();
+  }
+
+  //public methods
+
+  /**
+   * Time an operation, from now until the given stage completes
+   *
+   * @param stage the stage of the started operation
+   * @param <T>   the result type of the stage
+   * @param <S>   the type of the stage
+   * @return the given stage
+   */
+  public <T, S extends CompletionStage<T>> S time(S stage) {
+    if (stage == null) throw new IllegalArgumentException("Stage not set");
+    started.increment();
+    stage.whenComplete(new Completion(this, TimerContext.nanoTime()));
+    return stage;
+  }
+
+  public long getSucceeded() {
+    return succeeded.sum();
+  }
+
+  public long getFailed() {
+    return failed.sum();
+  }
+
+  //private methods
+
+  private void completed(long elapsedNanos, boolean success) {
+    (success ? succeeded : failed).increment();
+    PerformanceMonitor monitor = success ? successMonitor : failureMonitor;
+    Histogram histogram = success ? successHistogram : failureHistogram;
+    try {
+      if (monitor != null) monitor.invoked(TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+      if (histogram != null) histogram.record(histogramTimeUnit.convert(elapsedNanos, TimeUnit.NANOSECONDS));
+    } catch (Throwable e) {
+      LOGGER.warning(e, "Error updating async timer metric");
+    }
+  }
+
+  /**
+   * Callback registered on each timed stage, holding the start time of the operation
+   */
+  private static class Completion implements BiConsumer<Object, Throwable> {
+    private final AsyncTimer timer;
+    private final long startTime;
+
+    private Completion(AsyncTimer timer, long startTime) {
+      this.timer = timer;
+      this.startTime = startTime;
+    }
+
+    @Override
+    public void accept(Object result, Throwable error) {
+      timer.completed(TimerContext.nanoTime() - startTime, error == null);
+    }
+  }
+
+  /**
+   * Builder for creating an {@link AsyncTimer}
+   */
+  public static class Builder {
+    private PerformanceMonitor successMonitor;
+    private PerformanceMonitor failureMonitor;
+    private Histogram successHistogram;
+    private Histogram failureHistogram;
+    private TimeUnit histogramTimeUnit = TimeUnit.MILLISECONDS;
+
+    private Builder() {
+    }
+
+    public AsyncTimer build() {
+      return new AsyncTimer(this);
+    }
+
+    /**
+     * @param successMonitor monitor to register operations completing normally to
+     * @return builder
+     */
+    public Builder setSuccessMonitor(PerformanceMonitor successMonitor) {
+      this.successMonitor = successMonitor;
+      return this;
+    }
+
+    /**
+     * @param failureMonitor monitor to register operations completing exceptionally to
+     * @return builder
+     */
+    public Builder setFailureMonitor(PerformanceMonitor failureMonitor) {
+      this.failureMonitor = failureMonitor;
+      return this;
+    }
+
+    /**
+     * @param successHistogram histogram to record the duration of operations completing normally in
+     * @return builder
+     */
+    public Builder setSuccessHistogram(Histogram successHistogram) {
+      this.successHistogram = successHistogram;
+      return this;
+    }
+
+    /**
+     * @param failureHistogram histogram to record the duration of operations completing exceptionally in
+     * @return builder
+     */
+    public Builder setFailureHistogram(Histogram failureHistogram) {
+      this.failureHistogram = failureHistogram;
+      return this;
+    }
+
+    /**
+     * @param histogramTimeUnit the time unit of durations recorded in histograms, defaults to milliseconds
+     * @return builder
+     */
+    public Builder setHistogramTimeUnit(TimeUnit histogramTimeUnit) {
+      this.histogramTimeUnit = histogramTimeUnit;
+      return this;
+    }
+  }
+}
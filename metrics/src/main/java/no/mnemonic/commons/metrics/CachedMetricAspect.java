@@ -0,0 +1,199 @@
+package no.mnemonic.commons.metrics;
+
+import no.mnemonic.commons.logging.Logger;
+import no.mnemonic.commons.logging.Logging;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Decorator of a {@link MetricAspect} with expensive metrics, such as metrics computed by scanning a queue
+ * or querying storage, serving the last computed metrics for a time to live.
+ *
+ * Example:
+ * <code>
+ *   MetricAspect cached = CachedMetricAspect.builder()
+ *           .setAspect(queueScanner)
+ *           .setTimeToLiveMillis(30000)
+ *           .build();
+ * </code>
+ *
+ * When the cached metrics are older than the time to live, they are still returned, while the metrics are refreshed
+ * asynchronously using the executor (stale-while-revalidate), so callers never wait for a refresh once the first
+ * metrics have been computed. The first computation is done by the first caller, while concurrent callers wait for it.
+ * Only one computation runs at a time, so any number of concurrent callers cause at most one computation
+ * per time to live. If a refresh fails, the failure is logged and the previous metrics are served for another
+ * time to live before the refresh is retried, so a failing aspect is not called more often than a working one.
+ * If the first computation fails, the waiting callers get the exception and the next call retries.
+ * By default, refreshes run on a shared pool of daemon threads, as computing expensive metrics usually blocks.
+ * Time is measured using the monotonic ticker of {@link TimerContext}.
+ */
+public class CachedMetricAspect implements MetricAspect {
+
+  public static final long DEFAULT_TIME_TO_LIVE_MILLIS = 10000;
+
+  private static final Logger LOGGER = Logging.getLogger(CachedMetricAspect.class);
+
+  private final MetricAspect aspect;
+  private final long timeToLive;
+  private final Executor executor;
+  private final AtomicReference<CompletableFuture<Metrics>> computing = new AtomicReference<>();
+  private volatile Entry entry;
+
+  private CachedMetricAspect(Builder builder) {
+    if (builder.aspect == null) throw new IllegalArgumentException("Aspect not set");
+    if (builder.timeToLiveMillis < 0) throw new IllegalArgumentException("Time to live cannot be negative");
+    this.aspect = builder.aspect;
+    this.timeToLive = TimeUnit.MILLISECONDS.toNanos(builder.timeToLiveMillis);
+    this.executor = builder.executor != null ? builder.executor : DefaultExecutor.EXECUTOR;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  //interface methods
+
+  @Override
+  public Metrics getMetrics() throws MetricException {
+    Entry current = entry;
+    if (current != null) {
+      if (TimerContext.nanoTime() - current.refreshed >= timeToLive) compute(true);
+      return current.metrics;
+    }
+    try {
+      return compute(false).get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof MetricException) throw (MetricException) e.getCause();
+      if (e.getCause() instanceof Error) throw (Error) e.getCause();
+      throw new MetricException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MetricException(e);
+    }
+  }
+
+  //private methods
+
+  /**
+   * Start computing the metrics, unless a computation is already running
+   *
+   * @param async true to compute using the executor, false to compute in the calling thread
+   * @return the running computation
+   */
+  private CompletableFuture<Metrics> compute(boolean async) {
+    while (true) {
+      CompletableFuture<Metrics> running = computing.get();
+      if (running != null) return running;
+      CompletableFuture<Metrics> future = new CompletableFuture<>();
+      if (!computing.compareAndSet(null, future)) continue;
+      if (!async) {
+        run(future);
+        return future;
+      }
+      try {
+        executor.execute(() -> run(future));
+      } catch (RejectedExecutionException e) {
+        LOGGER.warning(e, "Could not refresh metrics");
+        computing.set(null);
+        future.completeExceptionally(e);
+      }
+      return future;
+    }
+  }
+
+  private void run(CompletableFuture<Metrics> future) {
+    try {
+      Metrics metrics = aspect.getMetrics();
+      if (metrics == null) throw new MetricException("Aspect returned no metrics");
+      entry = new Entry(metrics, TimerContext.nanoTime());
+      future.complete(metrics);
+    } catch (Throwable e) {
+      Entry current = entry;
+      if (current != null) {
+        LOGGER.warning(e, "Could not refresh metrics, serving stale metrics");
+        //back off for a time to live before retrying
+        entry = new Entry(current.metrics, TimerContext.nanoTime());
+      }
+      future.completeExceptionally(e);
+    } finally {
+      //cleared after setting the entry, so callers do not start another computation
+      computing.set(null);
+    }
+  }
+
+  private static class Entry {
+    private final Metrics metrics;
+    //the time of the last computation or failed refresh
+    private final long refreshed;
+
+    private Entry(Metrics metrics, long refreshed) {
+      this.metrics = metrics;
+      this.refreshed = refreshed;
+    }
+  }
+
+  /**
+   * Holder of the default executor, so its threads are only created when used
+   */
+  private static class DefaultExecutor {
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+    //at most one refresh runs per aspect, and idle threads are released
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(r -> {
+      Thread thread = new Thread(r, "cached-metric-aspect-" + THREAD_NUMBER.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Builder for creating a {@link CachedMetricAspect}
+   */
+  public static class Builder {
+    private MetricAspect aspect;
+    private long timeToLiveMillis = DEFAULT_TIME_TO_LIVE_MILLIS;
+    private Executor executor;
+
+    private Builder() {
+    }
+
+    public CachedMetricAspect build() {
+      return new CachedMetricAspect(this);
+    }
+
+    /**
+     * @param aspect the aspect to cache the metrics of
+     * @return builder
+     */
+    public Builder setAspect(MetricAspect aspect) {
+      this.aspect = aspect;
+      return this;
+    }
+
+    /**
+     * @param timeToLiveMillis the age in milliseconds after which cached metrics are refreshed,
+     *                         defaults to {@value CachedMetricAspect#DEFAULT_TIME_TO_LIVE_MILLIS}
+     * @return builder
+     */
+    public Builder setTimeToLiveMillis(long timeToLiveMillis) {
+      this.timeToLiveMillis = timeToLiveMillis;
+      return this;
+    }
+
+    /**
+     * @param executor executor to refresh the metrics with, defaults to a shared pool of daemon threads
+     * @return builder
+     */
+    public Builder setExecutor(Executor executor) {
+      this.executor = executor;
+      return this;
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package no.mnemonic.commons.metrics;
+
+import java.io.PrintStream;
+import java.time.Instant;
+
+/**
+ * Sink printing each snapshot to a stream, such as the console, with one line per value:
+ * <code>
+ *   metrics 2020-01-01T00:00:00Z
+ *     service.requests=10
+ *     service.load=0.5
+ * </code>
+ * Each snapshot is formatted in a reused buffer and printed with a single write.
+ */
+public class ConsoleMetricsSink extends FlatMetricsSink {
+
+  private final PrintStream out;
+  private final StringBuilder buffer = new StringBuilder(4096);
+
+  /**
+   * Create a sink printing to standard output
+   */
+  public ConsoleMetricsSink() {
+    this(System.out);
+  }
+
+  /**
+   * @param out stream to print to
+   */
+  public ConsoleMetricsSink(PrintStream out) {
+    if (out == null) throw new IllegalArgumentException("Output not set");
+    this.out = out;
+  }
+
+  //protected methods
+
+  @Override
+  protected void begin(long timestamp) {
+    buffer.setLength(0);
+    buffer.append("metrics ").append(Instant.ofEpochMilli(timestamp)).append('\n');
+  }
+
+  @Override
+  protected void value(CharSequence path, long value) {
+    buffer.append("  ").append(path).append('=').append(value).append('\n');
+  }
+
+  @Override
+  protected void value(CharSequence path, double value) {
+    buffer.append("  ").append(path).append('=').append(value).append('\n');
+  }
+
+  @Override
+  protected void end() {
+    out.print(buffer);
+    out.flush();
+  }
+}
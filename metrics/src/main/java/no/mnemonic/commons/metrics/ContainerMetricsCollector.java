@@ -0,0 +1,288 @@
+package no.mnemonic.commons.metrics;
+
+import no.mnemonic.commons.container.ComponentContainer;
+import no.mnemonic.commons.container.ContainerAware;
+import no.mnemonic.commons.container.ContainerListener;
+import no.mnemonic.commons.container.plugins.ComponentContainerPlugin;
+import no.mnemonic.commons.logging.Logger;
+import no.mnemonic.commons.logging.Logging;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A collector of the metrics of all {@link MetricAspect} components in a {@link ComponentContainer}.
+ *
+ * Add the collector as a bean to the container, and it registers itself as a plugin to find all other
+ * {@link MetricAspect} beans. Reading the metrics of the collector calls {@link MetricAspect#getMetrics()}
+ * on all components concurrently, using a bounded pool of threads, and returns a {@link MetricsGroup}
+ * with the metrics of each component keyed by its bean name.
+ * If the collector is added to several containers, such as a parent and its child containers,
+ * it collects the components of all of them, and forgets the components of a container when it is destroyed.
+ * If several containers have a component with the same name, the component of the last container is collected,
+ * and when that container is destroyed, the component of another running container with the name is collected again.
+ *
+ * Components which do not return their metrics within the timeout, or which fail, do not block the collection.
+ * They are reported with the last metrics they returned, if any, and are listed in the submetrics
+ * {@value #COLLECTOR_METRICS}, which holds the following data:
+ * <ul>
+ *   <li>components: the number of components</li>
+ *   <li>collected: the number of components returning their metrics within the timeout</li>
+ *   <li>stale: the number of components which did not</li>
+ *   <li>stale.BEAN: the age in milliseconds of the metrics reported for the stale component BEAN, or -1 if none</li>
+ * </ul>
+ * A component which is still working on a previous call is not called again until that call returns,
+ * so a slow component occupies at most one thread of the pool.
+ * All components are called at the start of a collection and share the same deadline, so components which are
+ * queued waiting for a thread may be reported as stale when there are more slow components than threads.
+ */
+public class ContainerMetricsCollector implements MetricAspect, ComponentContainerPlugin, ContainerAware, ContainerListener {
+
+  public static final String COLLECTOR_METRICS = "_collector";
+  public static final int DEFAULT_THREADS = 4;
+  public static final long DEFAULT_TIMEOUT_MILLIS = 10000;
+
+  private static final Logger LOGGER = Logging.getLogger(ContainerMetricsCollector.class);
+  private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+  private final long timeoutMillis;
+  private final ExecutorService executor;
+  private final Map<String, Component> components = new ConcurrentHashMap<>();
+  private final Map<ComponentContainer, Map<String, Component>> containerComponents = new ConcurrentHashMap<>();
+  //the container currently registering plugins, which is made aware of its beans right before
+  private volatile ComponentContainer registeringContainer;
+
+  private ContainerMetricsCollector(Builder builder) {
+    if (builder.threads < 1) throw new IllegalArgumentException("Threads must be positive");
+    if (builder.timeoutMillis < 1) throw new IllegalArgumentException("Timeout must be positive");
+    this.timeoutMillis = builder.timeoutMillis;
+    String prefix = "metrics-collector-" + POOL_NUMBER.incrementAndGet() + "-";
+    AtomicInteger threadNumber = new AtomicInteger();
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(builder.threads, builder.threads, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), r -> {
+      Thread thread = new Thread(r, prefix + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    //do not keep threads between infrequent collections, so the collector needs no lifecycle
+    pool.allowCoreThreadTimeOut(true);
+    this.executor = pool;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  //interface methods
+
+  @Override
+  public Metrics getMetrics() throws MetricException {
+    long start = System.nanoTime();
+    for (Component component : components.values()) {
+      component.collect(executor);
+    }
+    long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    MetricsGroup result = new MetricsGroup();
+    MetricsData collector = new MetricsData();
+    int collected = 0;
+    int stale = 0;
+    for (Map.Entry<String, Component> e : components.entrySet()) {
+      Metrics metrics = e.getValue().await(e.getKey(), deadline);
+      if (metrics != null) {
+        collected++;
+      } else {
+        stale++;
+        metrics = e.getValue().metrics;
+        collector.addData("stale." + e.getKey(), metrics != null ? TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - e.getValue().updated) : -1);
+      }
+      if (metrics != null) result.addSubMetrics(e.getKey(), metrics);
+    }
+    collector.addData("components", collected + stale);
+    collector.addData("collected", collected);
+    collector.addData("stale", stale);
+    result.addSubMetrics(COLLECTOR_METRICS, collector);
+    return result;
+  }
+
+  @Override
+  public boolean appliesTo(Object obj) {
+    return obj instanceof MetricAspect && obj != this;
+  }
+
+  @Override
+  public void registerBeans(Map<String, Object> matchingBeans) {
+    ComponentContainer container = registeringContainer;
+    matchingBeans.forEach((name, bean) -> {
+      //a bean shared by several containers keeps its component
+      Component component = components.compute(name, (n, previous) -> {
+        if (previous != null && previous.aspect == bean) return previous;
+        if (previous != null) LOGGER.warning("Replacing metrics component %s with component from another container", name);
+        return new Component((MetricAspect) bean);
+      });
+      if (container != null) containerComponents.computeIfAbsent(container, c -> new ConcurrentHashMap<>()).put(name, component);
+    });
+  }
+
+  @Override
+  public void registerContainerAware(ComponentContainer parent) {
+    this.registeringContainer = parent;
+  }
+
+  @Override
+  public void notifyContainerStarted(ComponentContainer container) {
+    //do nothing
+  }
+
+  @Override
+  public void notifyContainerDestroying(ComponentContainer container) {
+    //do nothing
+  }
+
+  @Override
+  public void notifyContainerDestroyed(ComponentContainer container) {
+    Map<String, Component> removed = containerComponents.remove(container);
+    if (removed == null) return;
+    removed.forEach((name, component) -> {
+      //only forget the component if it was registered by this container
+      if (!components.remove(name, component)) return;
+      for (Map<String, Component> other : containerComponents.values()) {
+        Component replacement = other.get(name);
+        if (replacement != null) {
+          components.putIfAbsent(name, replacement);
+          return;
+        }
+      }
+    });
+  }
+
+  @Override
+  public void notifyInitializingSubcontainer(ComponentContainer parent, ComponentContainer subcontainer) {
+    //do nothing
+  }
+
+  //public methods
+
+  /**
+   * Register a component to collect metrics from, in addition to the components found in containers
+   *
+   * @param name   name of the component
+   * @param aspect the component
+   * @return the collector itself
+   */
+  public ContainerMetricsCollector addComponent(String name, MetricAspect aspect) {
+    if (name == null) throw new IllegalArgumentException("Name not set");
+    if (aspect == null) throw new IllegalArgumentException("Aspect not set");
+    components.put(name, new Component(aspect));
+    return this;
+  }
+
+  //private methods
+
+  /**
+   * State of the collection of a single component
+   */
+  private static class Component {
+    private final MetricAspect aspect;
+    private final AtomicReference<CompletableFuture<Metrics>> pending = new AtomicReference<>();
+    private volatile Metrics metrics;
+    private volatile long updated;
+
+    private Component(MetricAspect aspect) {
+      this.aspect = aspect;
+    }
+
+    /**
+     * Start collecting metrics from this component, unless a previous call is still running
+     */
+    private void collect(ExecutorService executor) {
+      CompletableFuture<Metrics> current = pending.get();
+      if (current != null && !current.isDone()) return;
+      //only the collection replacing the completed call starts a new call
+      CompletableFuture<Metrics> next = new CompletableFuture<>();
+      if (!pending.compareAndSet(current, next)) return;
+      try {
+        executor.execute(() -> {
+          try {
+            next.complete(call());
+          } catch (Throwable e) {
+            next.completeExceptionally(e);
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        next.completeExceptionally(e);
+      }
+    }
+
+    /**
+     * @return the metrics returned by the component before the deadline, or null if it did not return or failed
+     */
+    private Metrics await(String name, long deadline) {
+      CompletableFuture<Metrics> current = pending.get();
+      //component added while collecting
+      if (current == null) return null;
+      try {
+        return current.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+      } catch (TimeoutException e) {
+        LOGGER.warning("Timed out collecting metrics from %s", name);
+      } catch (ExecutionException e) {
+        LOGGER.warning(e.getCause(), "Error collecting metrics from %s", name);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return null;
+    }
+
+    private Metrics call() throws MetricException {
+      Metrics result = aspect.getMetrics();
+      if (result == null) throw new MetricException("Component returned no metrics");
+      metrics = result;
+      updated = System.nanoTime();
+      return result;
+    }
+  }
+
+  /**
+   * Builder for creating a {@link ContainerMetricsCollector}
+   */
+  public static class Builder {
+    private int threads = DEFAULT_THREADS;
+    private long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+
+    private Builder() {
+    }
+
+    public ContainerMetricsCollector build() {
+      return new ContainerMetricsCollector(this);
+    }
+
+    /**
+     * @param threads the maximum number of components to collect metrics from concurrently,
+     *                defaults to {@value ContainerMetricsCollector#DEFAULT_THREADS}
+     * @return builder
+     */
+    public Builder setThreads(int threads) {
+      this.threads = threads;
+      return this;
+    }
+
+    /**
+     * @param timeoutMillis the time to wait for the metrics of each component, before reporting it as stale.
+     *                      Defaults to {@value ContainerMetricsCollector#DEFAULT_TIMEOUT_MILLIS} milliseconds.
+     * @return builder
+     */
+    public Builder setTimeoutMillis(long timeoutMillis) {
+      this.timeoutMillis = timeoutMillis;
+      return this;
+    }
+  }
+}
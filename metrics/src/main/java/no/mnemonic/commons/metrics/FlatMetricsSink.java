@@ -0,0 +1,100 @@
+package no.mnemonic.commons.metrics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+
+/**
+ * Base class of sinks reporting each value of a snapshot with its path, which is the names of the groups
+ * on the path to the value, and its key, separated by dots.
+ * The path is built in a reused buffer, and values of a {@link PrimitiveMetricsData} are read without boxing.
+ * Extend this class to report snapshots to other flat formats. A sink reports one snapshot at a time,
+ * so implementations do not need to be thread-safe when used by a {@link MetricsReporter}.
+ */
+public abstract class FlatMetricsSink implements MetricsSink {
+
+  private final StringBuilder path = new StringBuilder(128);
+
+  //interface methods
+
+  @Override
+  public void report(long timestamp, Metrics metrics) throws IOException {
+    if (metrics == null) throw new IllegalArgumentException("Metrics not set");
+    path.setLength(0);
+    begin(timestamp);
+    try {
+      walk(metrics);
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    end();
+  }
+
+  //protected methods
+
+  /**
+   * Start reporting a snapshot
+   */
+  protected abstract void begin(long timestamp) throws IOException;
+
+  /**
+   * Report a value. The path is only valid during the call.
+   */
+  protected abstract void value(CharSequence path, long value) throws IOException;
+
+  /**
+   * Report a value. The path is only valid during the call.
+   */
+  protected abstract void value(CharSequence path, double value) throws IOException;
+
+  /**
+   * Finish reporting a snapshot
+   */
+  protected abstract void end() throws IOException;
+
+  //private methods
+
+  private void walk(Metrics metrics) throws IOException {
+    int length = path.length();
+    if (metrics instanceof PrimitiveMetricsData) {
+      PrimitiveMetricsData data = (PrimitiveMetricsData) metrics;
+      for (int i = 0; i < data.size(); i++) {
+        append(data.getKey(i));
+        if (data.isDouble(i)) {
+          value(path, data.getDouble(i));
+        } else {
+          value(path, data.getLong(i));
+        }
+        path.setLength(length);
+      }
+    } else if (metrics.hasData() && metrics.getData() != null) {
+      metrics.getData().forEach((key, value) -> {
+        if (value == null) return;
+        append(key);
+        try {
+          if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            value(path, value.longValue());
+          } else {
+            value(path, value.doubleValue());
+          }
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        path.setLength(length);
+      });
+    }
+    if (metrics.hasSubMetrics() && metrics.getSubMetrics() != null) {
+      for (Map.Entry<String, Metrics> e : metrics.getSubMetrics().entrySet()) {
+        if (e.getValue() == null) continue;
+        append(e.getKey());
+        walk(e.getValue());
+        path.setLength(length);
+      }
+    }
+  }
+
+  private void append(String name) {
+    if (path.length() > 0) path.append('.');
+    path.append(name);
+  }
+}
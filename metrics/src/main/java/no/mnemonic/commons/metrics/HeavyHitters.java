@@ -0,0 +1,327 @@
+package no.mnemonic.commons.metrics;
+
+import no.mnemonic.commons.utilities.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Heavy hitters tracks the most frequent keys of a stream of keys in bounded memory, such as the tenants,
+ * query types or keys generating most of the load, where keeping a counter (or a {@link PerformanceMonitor})
+ * per distinct key would be far too expensive.
+ *
+ * Example:
+ * <code>
+ *   private final HeavyHitters tenants = HeavyHitters.builder().setCapacity(1000).setTopK(20).build();
+ *
+ *   //.... component code
+ *   tenants.add(tenantID);
+ *
+ *   //.... metrics collection
+ *   metrics.addSubMetrics("topTenants", tenants.getMetrics());
+ * </code>
+ *
+ * Keys are counted using the Space-Saving algorithm, keeping at most <code>capacity</code> counters. When a key
+ * which is not tracked is added while all counters are in use, it takes over the counter with the lowest count,
+ * and inherits that count as its error. So the count of a tracked key is never lower than its true count,
+ * and at most <code>error</code> higher, and any key occurring more than <code>total / capacity</code> times
+ * is guaranteed to be tracked. Use a capacity of several times the number of top keys to report, to keep the
+ * errors of the top keys low.
+ * <p>
+ * Adding a key takes a lock, and updates a min-heap of the counters in logarithmic time. Once all counters are in use,
+ * a key taking over a counter reuses the counter, but is re-keyed in the key index, which allocates a map entry.
+ * For keys added by many threads concurrently, use {@link Builder#setShards(int)}
+ * to partition keys by hash over a number of independent sketches, each with its own lock and its share of the capacity.
+ */
+public class HeavyHitters implements MetricAspect {
+
+  public static final int DEFAULT_CAPACITY = 1000;
+  public static final int DEFAULT_TOP_K = 10;
+
+  private static final Comparator<Entry> BY_COUNT = Comparator.comparingLong(Entry::getCount).reversed()
+          .thenComparing(Entry::getKey);
+
+  private final Sketch[] sketches;
+  private final int topK;
+  private final LongAdder total = new LongAdder();
+
+  private HeavyHitters(Builder builder) {
+    if (builder.shards < 1) throw new IllegalArgumentException("Shards must be positive");
+    if (builder.capacity < builder.shards) throw new IllegalArgumentException("Capacity must be at least the number of shards");
+    if (builder.topK < 1) throw new IllegalArgumentException("TopK must be positive");
+    this.topK = builder.topK;
+    this.sketches = new Sketch[builder.shards];
+    //round up, so the total capacity is at least the configured capacity
+    int capacity = (builder.capacity + builder.shards - 1) / builder.shards;
+    for (int i = 0; i < sketches.length; i++) {
+      sketches[i] = new Sketch(capacity);
+    }
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  //interface methods
+
+  /**
+   * @return a group with a subgroup <code>summary</code> with the data <code>total</code> (total count of all keys added),
+   * <code>tracked</code> (number of keys tracked) and <code>maxError</code> (the highest count a key which is not tracked
+   * may have), and a subgroup <code>top</code> with the rank (starting at 1), count and error of each of the top keys
+   */
+  @Override
+  public Metrics getMetrics() throws MetricException {
+    List<Entry> entries = snapshot();
+    long maxError = 0;
+    for (Sketch sketch : sketches) {
+      maxError = Math.max(maxError, sketch.minCount());
+    }
+    MetricsGroup top = new MetricsGroup();
+    int rank = 0;
+    for (Entry entry : entries) {
+      if (rank == topK) break;
+      if (StringUtils.isBlank(entry.key)) continue;
+      top.addSubMetrics(entry.key, PrimitiveMetricsData.builder(3)
+              .addData("rank", ++rank)
+              .addData("count", entry.count)
+              .addData("error", entry.error)
+              .build());
+    }
+    return new MetricsGroup()
+            .addSubMetrics("summary", PrimitiveMetricsData.builder(3)
+                    .addData("total", total.sum())
+                    .addData("tracked", entries.size())
+                    .addData("maxError", maxError)
+                    .build())
+            .addSubMetrics("top", top);
+  }
+
+  //public methods
+
+  /**
+   * Count one occurrence of a key
+   *
+   * @param key key to count
+   */
+  public void add(String key) {
+    add(key, 1);
+  }
+
+  /**
+   * Count a number of occurrences of a key
+   *
+   * @param key   key to count
+   * @param count number of occurrences, ignored unless positive
+   */
+  public void add(String key, long count) {
+    if (key == null) throw new IllegalArgumentException("Key not set");
+    if (count < 1) return;
+    sketches[sketches.length == 1 ? 0 : shard(key)].add(key, count);
+    total.add(count);
+  }
+
+  /**
+   * @return the configured number of top keys reported in metrics
+   */
+  public int getTopK() {
+    return topK;
+  }
+
+  /**
+   * @param k the number of keys to return
+   * @return up to k tracked keys with the highest counts, ordered by descending count
+   */
+  public List<Entry> getTop(int k) {
+    List<Entry> entries = snapshot();
+    return entries.size() > k ? new ArrayList<>(entries.subList(0, k)) : entries;
+  }
+
+  /**
+   * @return the total count of all keys added
+   */
+  public long getTotal() {
+    return total.sum();
+  }
+
+  //private methods
+
+  private int shard(String key) {
+    int hash = key.hashCode();
+    return Math.floorMod(hash ^ (hash >>> 16), sketches.length);
+  }
+
+  private List<Entry> snapshot() {
+    List<Entry> entries = new ArrayList<>();
+    for (Sketch sketch : sketches) {
+      sketch.collect(entries);
+    }
+    entries.sort(BY_COUNT);
+    return entries;
+  }
+
+  /**
+   * A tracked key with its estimated count
+   */
+  public static class Entry {
+    private final String key;
+    private final long count;
+    private final long error;
+
+    private Entry(String key, long count, long error) {
+      this.key = key;
+      this.count = count;
+      this.error = error;
+    }
+
+    public String getKey() {
+      return key;
+    }
+
+    /**
+     * @return the estimated count, which is never lower than the true count of the key
+     */
+    public long getCount() {
+      return count;
+    }
+
+    /**
+     * @return the maximum overestimation of the count, so the true count is at least <code>count - error</code>
+     */
+    public long getError() {
+      return error;
+    }
+  }
+
+  private static class Counter {
+    private String key;
+    private long count;
+    private long error;
+    private int index;
+  }
+
+  /**
+   * A Space-Saving sketch, keeping its counters in a min-heap by count
+   */
+  private static class Sketch {
+    private final Map<String, Counter> counters;
+    private final Counter[] heap;
+    private int size;
+
+    private Sketch(int capacity) {
+      this.counters = new HashMap<>(capacity * 4 / 3 + 1);
+      this.heap = new Counter[capacity];
+    }
+
+    private synchronized void add(String key, long count) {
+      Counter counter = counters.get(key);
+      if (counter == null && size < heap.length) {
+        //append a new counter as a leaf, and move it up past any counters with higher counts
+        counter = new Counter();
+        counter.key = key;
+        counter.count = count;
+        counters.put(key, counter);
+        heap[size] = counter;
+        siftUp(size++);
+        return;
+      }
+      if (counter == null) {
+        //replace the key with the lowest count, which becomes the error of the new key
+        counter = heap[0];
+        counters.remove(counter.key);
+        counter.key = key;
+        counter.error = counter.count;
+        counters.put(key, counter);
+      }
+      //counts only grow, so the counter can only move down in the heap
+      counter.count += count;
+      siftDown(counter.index);
+    }
+
+    private synchronized long minCount() {
+      //while there are free counters, keys which are not tracked have not been seen at all
+      return size < heap.length ? 0 : heap[0].count;
+    }
+
+    private synchronized void collect(List<Entry> entries) {
+      for (int i = 0; i < size; i++) {
+        entries.add(new Entry(heap[i].key, heap[i].count, heap[i].error));
+      }
+    }
+
+    private void siftDown(int index) {
+      Counter counter = heap[index];
+      while (true) {
+        int child = 2 * index + 1;
+        if (child >= size) break;
+        if (child + 1 < size && heap[child + 1].count < heap[child].count) child++;
+        if (heap[child].count >= counter.count) break;
+        place(heap[child], index);
+        index = child;
+      }
+      place(counter, index);
+    }
+
+    private void siftUp(int index) {
+      Counter counter = heap[index];
+      while (index > 0) {
+        int parent = (index - 1) / 2;
+        if (heap[parent].count <= counter.count) break;
+        place(heap[parent], index);
+        index = parent;
+      }
+      place(counter, index);
+    }
+
+    private void place(Counter counter, int index) {
+      heap[index] = counter;
+      counter.index = index;
+    }
+  }
+
+  /**
+   * Builder for creating {@link HeavyHitters}
+   */
+  public static class Builder {
+    private int capacity = DEFAULT_CAPACITY;
+    private int topK = DEFAULT_TOP_K;
+    private int shards = 1;
+
+    private Builder() {
+    }
+
+    public HeavyHitters build() {
+      return new HeavyHitters(this);
+    }
+
+    /**
+     * @param capacity the number of keys to track, defaults to {@value HeavyHitters#DEFAULT_CAPACITY}
+     * @return builder
+     */
+    public Builder setCapacity(int capacity) {
+      this.capacity = capacity;
+      return this;
+    }
+
+    /**
+     * @param topK the number of top keys to report in metrics, defaults to {@value HeavyHitters#DEFAULT_TOP_K}
+     * @return builder
+     */
+    public Builder setTopK(int topK) {
+      this.topK = topK;
+      return this;
+    }
+
+    /**
+     * @param shards the number of independent sketches to partition keys over, defaults to 1
+     * @return builder
+     */
+    public Builder setShards(int shards) {
+      this.shards = shards;
+      return this;
+    }
+  }
+}
@@ -0,0 +1,269 @@
+package no.mnemonic.commons.metrics;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram records a distribution of values, such as latencies, and allows querying percentiles of the distribution.
+ *
+ * Values are counted in log-linear buckets: each power of two is divided into 2^precision linear sub-buckets, so
+ * the value reported for any percentile is within a relative error of 2^-precision of the recorded value.
+ * The bucket array is allocated up front, and its size is fixed by the precision and the highest trackable value,
+ * so memory use does not grow with the number of recorded values. Recording is lock-free.
+ *
+ * Example:
+ * <code>
+ *   Histogram latency = new Histogram();
+ *
+ *   try (TimerContext ignored = TimerContext.ofMicros(latency::record)) {
+ *     //do some work
+ *   }
+ *
+ *   long p99 = latency.getValueAtPercentile(99);
+ * </code>
+ *
+ * Histograms with the same configuration can be merged, to combine distributions recorded separately.
+ */
+public class Histogram implements MetricAspect, Serializable {
+
+  private static final long serialVersionUID = 3416658212957908862L;
+
+  public static final int DEFAULT_PRECISION = 5;
+  public static final long DEFAULT_HIGHEST_TRACKABLE_VALUE = Long.MAX_VALUE;
+
+  private final int precision;
+  private final long highestTrackableValue;
+  private final int subBucketCount;
+  private final AtomicLongArray counts;
+  private final LongAdder totalCount = new LongAdder();
+  private final LongAdder totalSum = new LongAdder();
+  private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+  private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+  /**
+   * Create a histogram tracking any positive long value, with a relative error of 2^-{@value #DEFAULT_PRECISION}
+   */
+  public Histogram() {
+    this(DEFAULT_HIGHEST_TRACKABLE_VALUE, DEFAULT_PRECISION);
+  }
+
+  /**
+   * @param highestTrackableValue the highest value to track in buckets. Higher values are counted in the highest bucket,
+   *                              but are still reflected in the max and mean values.
+   * @param precision             the number of bits of precision per bucket, between 1 and 14.
+   *                              The relative error of reported values is 2^-precision.
+   */
+  public Histogram(long highestTrackableValue, int precision) {
+    if (precision < 1 || precision > 14) throw new IllegalArgumentException("Precision must be between 1 and 14");
+    if (highestTrackableValue < 1) throw new IllegalArgumentException("Highest trackable value must be positive");
+    this.precision = precision;
+    this.highestTrackableValue = highestTrackableValue;
+    this.subBucketCount = 1 << precision;
+    this.counts = new AtomicLongArray(bucketIndex(highestTrackableValue) + 1);
+  }
+
+  //interface methods
+
+  /**
+   * @return the count, sum, mean, min and max of recorded values, along with the percentiles p50, p90, p99 and p999
+   */
+  @Override
+  public Metrics getMetrics() throws MetricException {
+    long[] percentiles = getValuesAtPercentiles(50, 90, 99, 99.9);
+    long count = getCount();
+    return PrimitiveMetricsData.builder()
+            .addData("count", count)
+            .addData("sum", getSum())
+            .addData("mean", getMean())
+            .addData("min", getMin())
+            .addData("max", getMax())
+            .addData("p50", percentiles[0])
+            .addData("p90", percentiles[1])
+            .addData("p99", percentiles[2])
+            .addData("p999", percentiles[3])
+            .build();
+  }
+
+  //public methods
+
+  /**
+   * Record a single value. Negative values are recorded as zero.
+   *
+   * @param value the value to record
+   */
+  public void record(long value) {
+    record(value, 1);
+  }
+
+  /**
+   * Record a value a number of times. Negative values are recorded as zero.
+   *
+   * @param value the value to record
+   * @param count the number of times to record the value
+   */
+  public void record(long value, long count) {
+    if (count < 1) return;
+    if (value < 0) value = 0;
+    counts.addAndGet(bucketIndex(Math.min(value, highestTrackableValue)), count);
+    totalCount.add(count);
+    totalSum.add(value * count);
+    if (value < min.get()) min.accumulateAndGet(value, Math::min);
+    if (value > max.get()) max.accumulateAndGet(value, Math::max);
+  }
+
+  /**
+   * Add all values recorded in the other histogram to this histogram.
+   *
+   * @param other histogram to merge into this histogram
+   * @throws IllegalArgumentException if the other histogram does not have the same configuration as this histogram
+   */
+  public void merge(Histogram other) {
+    if (other == null) throw new IllegalArgumentException("Histogram not set");
+    if (!isCompatible(other)) throw new IllegalArgumentException("Cannot merge histograms with different configuration");
+    for (int i = 0; i < counts.length(); i++) {
+      long c = other.counts.get(i);
+      if (c != 0) counts.addAndGet(i, c);
+    }
+    totalCount.add(other.totalCount.sum());
+    totalSum.add(other.totalSum.sum());
+    min.accumulateAndGet(other.min.get(), Math::min);
+    max.accumulateAndGet(other.max.get(), Math::max);
+  }
+
+  /**
+   * Clear all recorded values. Values recorded concurrently with the reset may be partially cleared.
+   */
+  public void reset() {
+    for (int i = 0; i < counts.length(); i++) {
+      counts.set(i, 0);
+    }
+    totalCount.reset();
+    totalSum.reset();
+    min.set(Long.MAX_VALUE);
+    max.set(Long.MIN_VALUE);
+  }
+
+  /**
+   * @param percentile the percentile to fetch, between 0 and 100
+   * @return the value at the given percentile, or 0 if no values are recorded
+   */
+  public long getValueAtPercentile(double percentile) {
+    return getValuesAtPercentiles(percentile)[0];
+  }
+
+  /**
+   * Fetch several percentiles from the same walk over the buckets.
+   *
+   * @param percentiles the percentiles to fetch, each between 0 and 100, in ascending order
+   * @return the values at the given percentiles, or 0 for each if no values are recorded
+   */
+  public long[] getValuesAtPercentiles(double... percentiles) {
+    long[] result = new long[percentiles.length];
+    long[] snapshot = new long[counts.length()];
+    long total = 0;
+    for (int i = 0; i < snapshot.length; i++) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0) return result;
+    long highest = getMax();
+    int p = 0;
+    long accumulated = 0;
+    int last = snapshot.length - 1;
+    for (int i = 0; i < snapshot.length && p < percentiles.length; i++) {
+      accumulated += snapshot[i];
+      while (p < percentiles.length && accumulated >= rank(percentiles[p], total)) {
+        //the highest bucket also counts values above the highest trackable value
+        result[p++] = i == last ? highest : Math.min(highestEquivalentValue(i), highest);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return the number of recorded values
+   */
+  public long getCount() {
+    return totalCount.sum();
+  }
+
+  /**
+   * @return the sum of all recorded values
+   */
+  public long getSum() {
+    return totalSum.sum();
+  }
+
+  /**
+   * @return the mean of all recorded values, or 0 if no values are recorded
+   */
+  public double getMean() {
+    long count = getCount();
+    return count == 0 ? 0 : getSum() / (double) count;
+  }
+
+  /**
+   * @return the lowest recorded value, or 0 if no values are recorded
+   */
+  public long getMin() {
+    long value = min.get();
+    return value == Long.MAX_VALUE ? 0 : value;
+  }
+
+  /**
+   * @return the highest recorded value, or 0 if no values are recorded
+   */
+  public long getMax() {
+    long value = max.get();
+    return value == Long.MIN_VALUE ? 0 : value;
+  }
+
+  public int getPrecision() {
+    return precision;
+  }
+
+  public long getHighestTrackableValue() {
+    return highestTrackableValue;
+  }
+
+  /**
+   * @return the number of buckets allocated by this histogram
+   */
+  public int getBucketCount() {
+    return counts.length();
+  }
+
+  /**
+   * @param other histogram to compare with
+   * @return true if the other histogram has the same configuration as this histogram, and can be merged with it
+   */
+  public boolean isCompatible(Histogram other) {
+    return other != null && other.precision == precision && other.highestTrackableValue == highestTrackableValue;
+  }
+
+  //private methods
+
+  private static long rank(double percentile, long total) {
+    if (percentile < 0 || percentile > 100) throw new IllegalArgumentException("Invalid percentile: " + percentile);
+    return Math.max(1, (long) Math.ceil(percentile / 100 * total));
+  }
+
+  /**
+   * Values below the sub-bucket count are counted in exact buckets.
+   * Higher values are counted in the sub-bucket given by their highest (precision + 1) bits.
+   */
+  private int bucketIndex(long value) {
+    if (value < subBucketCount) return (int) value;
+    int shift = 63 - Long.numberOfLeadingZeros(value) - precision;
+    return (int) (value >>> shift) + shift * subBucketCount;
+  }
+
+  private long highestEquivalentValue(int index) {
+    if (index < subBucketCount) return index;
+    int shift = index / subBucketCount - 1;
+    long mantissa = index - (long) shift * subBucketCount;
+    return ((mantissa + 1) << shift) - 1;
+  }
+}
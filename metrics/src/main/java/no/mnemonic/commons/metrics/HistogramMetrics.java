@@ -0,0 +1,119 @@
+package no.mnemonic.commons.metrics;
+
+import no.mnemonic.commons.utilities.AppendMembers;
+import no.mnemonic.commons.utilities.AppendUtils;
+
+import java.util.Map;
+
+/**
+ * A {@link Metrics} snapshot of a {@link Histogram}, keeping the buckets of the histogram along with its summary data.
+ *
+ * The data of the snapshot is the same as the metrics of the histogram, but unlike those, a snapshot keeps
+ * the full distribution, so snapshots of histograms recorded on different nodes can be merged,
+ * e.g. by a {@link MetricsAggregator}, to report correct percentiles for the combined distribution.
+ *
+ * Example:
+ * <code>
+ *   metrics.addSubMetrics("latency", HistogramMetrics.of(latency));
+ * </code>
+ */
+public class HistogramMetrics implements Metrics, AppendMembers {
+
+  private static final long serialVersionUID = -2871958316209472160L;
+
+  private final Histogram histogram;
+  //summary of the histogram, created on first use
+  private transient volatile Map<String, Number> data;
+
+  private HistogramMetrics(Histogram histogram) {
+    this.histogram = histogram;
+  }
+
+  /**
+   * @param histogram histogram to take a snapshot of
+   * @return a snapshot of the current values of the histogram
+   */
+  public static HistogramMetrics of(Histogram histogram) {
+    if (histogram == null) throw new IllegalArgumentException("Histogram not set");
+    return new HistogramMetrics(copy(histogram));
+  }
+
+  //interface methods
+
+  @Override
+  public String toString() {
+    return AppendUtils.toString(this);
+  }
+
+  @Override
+  public void appendMembers(StringBuilder buf) {
+    AppendUtils.appendField(buf, "data", getData());
+  }
+
+  @Override
+  public Map<String, Number> getData() {
+    Map<String, Number> result = data;
+    if (result == null) {
+      try {
+        result = histogram.getMetrics().getData();
+      } catch (MetricException e) {
+        //histogram metrics do not fail
+        throw new IllegalStateException(e);
+      }
+      data = result;
+    }
+    return result;
+  }
+
+  @Override
+  public Map<String, Metrics> getSubMetrics() {
+    return null;
+  }
+
+  @Override
+  public boolean hasData() {
+    return true;
+  }
+
+  @Override
+  public boolean hasSubMetrics() {
+    return false;
+  }
+
+  //public methods
+
+  /**
+   * @return a copy of the histogram of this snapshot
+   */
+  public Histogram getHistogram() {
+    return copy(histogram);
+  }
+
+  /**
+   * Merge snapshots into one snapshot. Snapshots not compatible with the first snapshot are skipped.
+   *
+   * @param snapshots snapshots to merge
+   * @return a snapshot of the combined distribution, or null if there are no snapshots
+   */
+  public static HistogramMetrics merge(Iterable<HistogramMetrics> snapshots) {
+    if (snapshots == null) throw new IllegalArgumentException("Snapshots not set");
+    Histogram result = null;
+    for (HistogramMetrics snapshot : snapshots) {
+      if (snapshot == null) continue;
+      if (result == null) {
+        result = copy(snapshot.histogram);
+      } else if (result.isCompatible(snapshot.histogram)) {
+        result.merge(snapshot.histogram);
+      }
+    }
+    return result != null ? new HistogramMetrics(result) : null;
+  }
+
+  //private methods
+
+  private static Histogram copy(Histogram histogram) {
+    Histogram copy = new Histogram(histogram.getHighestTrackableValue(), histogram.getPrecision());
+    copy.merge(histogram);
+    return copy;
+  }
+}
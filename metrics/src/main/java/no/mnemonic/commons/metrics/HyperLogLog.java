@@ -0,0 +1,243 @@
+package no.mnemonic.commons.metrics;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A HyperLogLog sketch estimates the number of distinct values added to it, such as distinct users or distinct
+ * source addresses, using a fixed amount of memory regardless of the number of values.
+ *
+ * Example:
+ * <code>
+ *   HyperLogLog users = new HyperLogLog();
+ *
+ *   //.... component code
+ *   users.add(userID);
+ *
+ *   //.... metrics collection
+ *   metrics.addData("distinctUsers", users.getCardinality());
+ * </code>
+ *
+ * Values are hashed to 64 bits, and the sketch keeps 2^precision registers of 6 bits, packed 10 to a long.
+ * The relative standard error of the estimate is about <code>1.04 / sqrt(2^precision)</code>, so the default
+ * precision of {@value #DEFAULT_PRECISION} keeps 16384 registers in about 13 KB, with an error of about 0.8%.
+ * Using 64-bit hashes, the estimate does not need any correction for large cardinalities, and the estimate is
+ * computed from the distribution of register values using the improved estimator of Ertl, which is accurate across
+ * the whole range of cardinalities without the empirical bias correction tables of HyperLogLog++.
+ * <p>
+ * Adding a value is lock-free: a register is only written (by a CAS) when the value raises it,
+ * so adding values already seen is a single read. Values are hashed with a fixed hash function,
+ * so sketches of the same precision can be merged, also when built on different nodes, to estimate
+ * the number of distinct values added to any of them.
+ */
+public class HyperLogLog implements MetricAspect, Serializable {
+
+  private static final long serialVersionUID = -3271465183398762015L;
+
+  public static final int DEFAULT_PRECISION = 14;
+  public static final int MIN_PRECISION = 4;
+  public static final int MAX_PRECISION = 18;
+
+  private static final int REGISTER_BITS = 6;
+  private static final int REGISTERS_PER_WORD = 10;
+  private static final long REGISTER_MASK = (1L << REGISTER_BITS) - 1;
+
+  private final int precision;
+  private final AtomicLongArray words;
+
+  /**
+   * Create a sketch with {@value #DEFAULT_PRECISION} bits of precision
+   */
+  public HyperLogLog() {
+    this(DEFAULT_PRECISION);
+  }
+
+  /**
+   * @param precision the number of bits used to select a register, between {@value #MIN_PRECISION}
+   *                  and {@value #MAX_PRECISION}. The sketch keeps 2^precision registers.
+   */
+  public HyperLogLog(int precision) {
+    if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+      throw new IllegalArgumentException("Precision must be between " + MIN_PRECISION + " and " + MAX_PRECISION);
+    }
+    this.precision = precision;
+    int registers = 1 << precision;
+    this.words = new AtomicLongArray((registers + REGISTERS_PER_WORD - 1) / REGISTERS_PER_WORD);
+  }
+
+  //interface methods
+
+  /**
+   * @return the estimated cardinality
+   */
+  @Override
+  public Metrics getMetrics() throws MetricException {
+    return PrimitiveMetricsData.builder(1)
+            .addData("cardinality", getCardinality())
+            .build();
+  }
+
+  //public methods
+
+  /**
+   * @param value value to add
+   */
+  public void add(long value) {
+    addHash(mix(value));
+  }
+
+  /**
+   * @param value value to add, hashed from its characters
+   */
+  public void add(CharSequence value) {
+    if (value == null) throw new IllegalArgumentException("Value not set");
+    addHash(hash(value));
+  }
+
+  /**
+   * Add a value which is already hashed. The hash must be uniformly distributed over all 64 bits,
+   * and sketches to be merged must use the same hash function.
+   *
+   * @param hash the 64-bit hash of the value
+   */
+  public void addHash(long hash) {
+    int register = (int) (hash >>> (64 - precision));
+    //the rank is the position of the first set bit in the remaining bits, capped for all-zero bits
+    int rank = Math.min(Long.numberOfLeadingZeros(hash << precision), 64 - precision) + 1;
+    int word = register / REGISTERS_PER_WORD;
+    int shift = (register % REGISTERS_PER_WORD) * REGISTER_BITS;
+    while (true) {
+      long current = words.get(word);
+      if (((current >>> shift) & REGISTER_MASK) >= rank) return;
+      long updated = (current & ~(REGISTER_MASK << shift)) | ((long) rank << shift);
+      if (words.compareAndSet(word, current, updated)) return;
+    }
+  }
+
+  /**
+   * Merge the registers of another sketch into this sketch, so this sketch estimates the number of distinct values
+   * added to either sketch
+   *
+   * @param other sketch to merge into this sketch
+   * @throws IllegalArgumentException if the other sketch does not have the same precision as this sketch
+   */
+  public void merge(HyperLogLog other) {
+    if (other == null) throw new IllegalArgumentException("Other not set");
+    if (other.precision != precision) throw new IllegalArgumentException("Cannot merge sketches with different precision");
+    for (int word = 0; word < words.length(); word++) {
+      long theirs = other.words.get(word);
+      if (theirs == 0) continue;
+      while (true) {
+        long current = words.get(word);
+        long updated = maxRegisters(current, theirs);
+        if (updated == current || words.compareAndSet(word, current, updated)) break;
+      }
+    }
+  }
+
+  /**
+   * Clear all registers
+   */
+  public void reset() {
+    for (int word = 0; word < words.length(); word++) {
+      words.set(word, 0);
+    }
+  }
+
+  /**
+   * @return a new sketch with the registers of this sketch
+   */
+  public HyperLogLog copy() {
+    HyperLogLog copy = new HyperLogLog(precision);
+    copy.merge(this);
+    return copy;
+  }
+
+  /**
+   * @return the estimated number of distinct values added to this sketch
+   */
+  public long getCardinality() {
+    int registers = 1 << precision;
+    int q = 64 - precision;
+    //count the registers holding each value
+    int[] counts = new int[q + 2];
+    for (int register = 0; register < registers; register++) {
+      int word = register / REGISTERS_PER_WORD;
+      int shift = (register % REGISTERS_PER_WORD) * REGISTER_BITS;
+      counts[(int) ((words.get(word) >>> shift) & REGISTER_MASK)]++;
+    }
+    if (counts[0] == registers) return 0;
+    double m = registers;
+    double z = m * tau(1 - counts[q + 1] / m);
+    for (int k = q; k >= 1; k--) {
+      z = 0.5 * (z + counts[k]);
+    }
+    z += m * sigma(counts[0] / m);
+    return Math.round(m * m / (2 * Math.log(2) * z));
+  }
+
+  public int getPrecision() {
+    return precision;
+  }
+
+  //private methods
+
+  private static long maxRegisters(long a, long b) {
+    long result = 0;
+    for (int shift = 0; shift < REGISTERS_PER_WORD * REGISTER_BITS; shift += REGISTER_BITS) {
+      result |= Math.max((a >>> shift) & REGISTER_MASK, (b >>> shift) & REGISTER_MASK) << shift;
+    }
+    return result;
+  }
+
+  private static double sigma(double x) {
+    if (x == 1) return Double.POSITIVE_INFINITY;
+    double y = 1;
+    double z = x;
+    double previous;
+    do {
+      x *= x;
+      previous = z;
+      z += x * y;
+      y += y;
+    } while (z != previous);
+    return z;
+  }
+
+  private static double tau(double x) {
+    if (x == 0 || x == 1) return 0;
+    double y = 1;
+    double z = 1 - x;
+    double previous;
+    do {
+      x = Math.sqrt(x);
+      previous = z;
+      y *= 0.5;
+      z -= (1 - x) * (1 - x) * y;
+    } while (z != previous);
+    return z / 3;
+  }
+
+  /**
+   * 64-bit FNV-1a over the characters, finalized with the mixer of MurmurHash3 to spread all bits
+   */
+  static long hash(CharSequence value) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < value.length(); i++) {
+      hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+    }
+    return mix(hash);
+  }
+
+  /**
+   * The 64-bit finalizer of MurmurHash3
+   */
+  static long mix(long value) {
+    value ^= value >>> 33;
+    value *= 0xff51afd7ed558ccdL;
+    value ^= value >>> 33;
+    value *= 0xc4ceb9fe1a85ec53L;
+    value ^= value >>> 33;
+    return value;
+  }
+}
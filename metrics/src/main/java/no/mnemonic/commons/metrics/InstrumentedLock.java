@@ -0,0 +1,203 @@
+package no.mnemonic.commons.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A lock wrapping another {@link Lock}, recording the number of acquisitions, the number of contended acquisitions,
+ * and the time spent waiting for and holding the lock, to see which locks cost throughput.
+ *
+ * Example:
+ * <code>
+ *   private final InstrumentedLock lock = InstrumentedLock.builder().setSampleRate(10).build();
+ *
+ *   lock.lock();
+ *   try {
+ *     //critical section
+ *   } finally {
+ *     lock.unlock();
+ *   }
+ *
+ *   //.... metrics collection
+ *   metrics.addSubMetrics("lock", lock.getMetrics());
+ * </code>
+ *
+ * Each acquisition first tries to take the lock without waiting. If that fails, the acquisition is counted as
+ * contended, and waits for the lock using the wrapped lock. As the first attempt does not queue, a fair lock may
+ * be taken ahead of threads already waiting for it.
+ * Wait times (of contended acquisitions) and hold times are only measured for a sample of the acquisitions,
+ * see {@link Builder#setSampleRate(int)}, and are recorded into histograms in microseconds,
+ * and optionally into performance monitors.
+ * The hold time is measured from the outermost acquisition to the matching release by the holding thread,
+ * and includes time spent awaiting a {@link Condition} of the lock.
+ * The wrapped lock must be exclusive, and must only be released by the thread holding it.
+ *
+ * See {@link LockInstrumentation#getMetrics()} for the reported metrics.
+ */
+public class InstrumentedLock implements Lock, MetricAspect {
+
+  private final Lock lock;
+  private final LockInstrumentation instrumentation;
+  private final boolean exclusive;
+  //only accessed by the thread holding the lock
+  private int depth;
+  private long holdStart;
+
+  private InstrumentedLock(Builder builder) {
+    this(builder.lock, new LockInstrumentation(builder.sampleRate, builder.waitMonitor, builder.holdMonitor, true), true);
+  }
+
+  /**
+   * @param exclusive true if the lock is exclusive, measuring hold times
+   */
+  InstrumentedLock(Lock lock, LockInstrumentation instrumentation, boolean exclusive) {
+    if (lock == null) throw new IllegalArgumentException("Lock not set");
+    this.lock = lock;
+    this.instrumentation = instrumentation;
+    this.exclusive = exclusive;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  //interface methods
+
+  @Override
+  public Metrics getMetrics() throws MetricException {
+    return instrumentation.getMetrics();
+  }
+
+  @Override
+  public void lock() {
+    if (lock.tryLock()) {
+      instrumentation.acquired();
+    } else {
+      long start = instrumentation.contended();
+      lock.lock();
+      instrumentation.waited(start, true);
+    }
+    hold();
+  }
+
+  @Override
+  public void lockInterruptibly() throws InterruptedException {
+    if (lock.tryLock()) {
+      instrumentation.acquired();
+    } else {
+      long start = instrumentation.contended();
+      try {
+        lock.lockInterruptibly();
+      } catch (InterruptedException e) {
+        instrumentation.waited(start, false);
+        throw e;
+      }
+      instrumentation.waited(start, true);
+    }
+    hold();
+  }
+
+  @Override
+  public boolean tryLock() {
+    if (!lock.tryLock()) return false;
+    instrumentation.acquired();
+    hold();
+    return true;
+  }
+
+  @Override
+  public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+    if (lock.tryLock()) {
+      instrumentation.acquired();
+      hold();
+      return true;
+    }
+    long start = instrumentation.contended();
+    boolean acquired = false;
+    try {
+      acquired = lock.tryLock(time, unit);
+    } finally {
+      instrumentation.waited(start, acquired);
+    }
+    if (acquired) hold();
+    return acquired;
+  }
+
+  @Override
+  public void unlock() {
+    if (!exclusive || --depth > 0) {
+      lock.unlock();
+      return;
+    }
+    long start = holdStart;
+    long end = start != LockInstrumentation.NOT_SAMPLED ? TimerContext.nanoTime() : 0;
+    lock.unlock();
+    if (start != LockInstrumentation.NOT_SAMPLED) instrumentation.held(end - start);
+  }
+
+  @Override
+  public Condition newCondition() {
+    return lock.newCondition();
+  }
+
+  //private methods
+
+  private void hold() {
+    if (exclusive && depth++ == 0) holdStart = instrumentation.startHold();
+  }
+
+  /**
+   * Builder for creating an {@link InstrumentedLock}
+   */
+  public static class Builder {
+    private Lock lock = new ReentrantLock();
+    private int sampleRate = 1;
+    private PerformanceMonitor waitMonitor;
+    private PerformanceMonitor holdMonitor;
+
+    private Builder() {
+    }
+
+    public InstrumentedLock build() {
+      return new InstrumentedLock(this);
+    }
+
+    /**
+     * @param lock the exclusive lock to instrument, defaults to a new {@link ReentrantLock}
+     * @return builder
+     */
+    public Builder setLock(Lock lock) {
+      this.lock = lock;
+      return this;
+    }
+
+    /**
+     * @param sampleRate measure wait and hold time of one of sampleRate acquisitions, defaults to 1 (all acquisitions)
+     * @return builder
+     */
+    public Builder setSampleRate(int sampleRate) {
+      this.sampleRate = sampleRate;
+      return this;
+    }
+
+    /**
+     * @param waitMonitor monitor to register contended acquisitions and their wait time to
+     * @return builder
+     */
+    public Builder setWaitMonitor(PerformanceMonitor waitMonitor) {
+      this.waitMonitor = waitMonitor;
+      return this;
+    }
+
+    /**
+     * @param holdMonitor monitor to register acquisitions and their hold time to
+     * @return builder
+     */
+    public Builder setHoldMonitor(PerformanceMonitor holdMonitor) {
+      this.holdMonitor = holdMonitor;
+      return this;
+    }
+  }
+}
@@ -0,0 +1,118 @@
+package no.mnemonic.commons.metrics;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A read-write lock wrapping another {@link ReadWriteLock}, recording acquisitions, contention and wait time
+ * of the read lock and the write lock separately, along with the hold time of the write lock.
+ *
+ * Example:
+ * <code>
+ *   private final InstrumentedReadWriteLock lock = InstrumentedReadWriteLock.builder().setSampleRate(10).build();
+ *
+ *   lock.readLock().lock();
+ *   try {
+ *     //read
+ *   } finally {
+ *     lock.readLock().unlock();
+ *   }
+ * </code>
+ *
+ * Both locks are instrumented like an {@link InstrumentedLock}. The read lock is shared by any number of threads,
+ * so its hold time is not measured, which would require tracking each holding thread.
+ * The metrics are reported in the subgroups <code>read</code> and <code>write</code>,
+ * see {@link LockInstrumentation#getMetrics()}.
+ */
+public class InstrumentedReadWriteLock implements ReadWriteLock, MetricAspect {
+
+  private final LockInstrumentation readInstrumentation;
+  private final LockInstrumentation writeInstrumentation;
+  private final InstrumentedLock readLock;
+  private final InstrumentedLock writeLock;
+
+  private InstrumentedReadWriteLock(Builder builder) {
+    if (builder.lock == null) throw new IllegalArgumentException("Lock not set");
+    this.readInstrumentation = new LockInstrumentation(builder.sampleRate, builder.waitMonitor, null, false);
+    this.writeInstrumentation = new LockInstrumentation(builder.sampleRate, builder.waitMonitor, builder.holdMonitor, true);
+    this.readLock = new InstrumentedLock(builder.lock.readLock(), readInstrumentation, false);
+    this.writeLock = new InstrumentedLock(builder.lock.writeLock(), writeInstrumentation, true);
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  //interface methods
+
+  @Override
+  public Metrics getMetrics() throws MetricException {
+    return new MetricsGroup()
+            .addSubMetrics("read", readInstrumentation.getMetrics())
+            .addSubMetrics("write", writeInstrumentation.getMetrics());
+  }
+
+  @Override
+  public Lock readLock() {
+    return readLock;
+  }
+
+  @Override
+  public Lock writeLock() {
+    return writeLock;
+  }
+
+  /**
+   * Builder for creating an {@link InstrumentedReadWriteLock}
+   */
+  public static class Builder {
+    private ReadWriteLock lock = new ReentrantReadWriteLock();
+    private int sampleRate = 1;
+    private PerformanceMonitor waitMonitor;
+    private PerformanceMonitor holdMonitor;
+
+    private Builder() {
+    }
+
+    public InstrumentedReadWriteLock build() {
+      return new InstrumentedReadWriteLock(this);
+    }
+
+    /**
+     * @param lock the read-write lock to instrument, defaults to a new {@link ReentrantReadWriteLock}
+     * @return builder
+     */
+    public Builder setLock(ReadWriteLock lock) {
+      this.lock = lock;
+      return this;
+    }
+
+    /**
+     * @param sampleRate measure wait and hold time of one of sampleRate acquisitions, defaults to 1 (all acquisitions)
+     * @return builder
+     */
+    public Builder setSampleRate(int sampleRate) {
+      this.sampleRate = sampleRate;
+      return this;
+    }
+
+    /**
+     * @param waitMonitor monitor to register contended acquisitions of either lock and their wait time to
+     * @return builder
+     */
+    public Builder setWaitMonitor(PerformanceMonitor waitMonitor) {
+      this.waitMonitor = waitMonitor;
+      return this;
+    }
+
+    /**
+     * @param holdMonitor monitor to register acquisitions of the write lock and their hold time to
+     * @return builder
+     */
+    public Builder setHoldMonitor(PerformanceMonitor holdMonitor) {
+      this.holdMonitor = holdMonitor;
+      return this;
+    }
+  }
+}
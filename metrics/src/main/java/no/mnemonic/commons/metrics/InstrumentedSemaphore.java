@@ -0,0 +1,190 @@
+package no.mnemonic.commons.metrics;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A semaphore recording the number of acquisitions, the number of contended acquisitions,
+ * and the time spent waiting for permits.
+ *
+ * Example:
+ * <code>
+ *   private final InstrumentedSemaphore connections = InstrumentedSemaphore.builder().setPermits(10).build();
+ *
+ *   connections.acquire();
+ *   try {
+ *     //use connection
+ *   } finally {
+ *     connections.release();
+ *   }
+ * </code>
+ *
+ * Each acquisition first tries to take the permits without waiting. If that fails, the acquisition is counted as
+ * contended, and waits for the permits. As the first attempt does not queue, a fair semaphore may
+ * give permits to a thread ahead of threads already waiting for them.
+ * Wait times are only measured for a sample of the contended acquisitions, see {@link Builder#setSampleRate(int)}.
+ * Permits are not owned by the acquiring thread, so hold times are not measured.
+ * A deserialized semaphore keeps its permits, sample rate and wait monitor, but starts with new counters.
+ *
+ * See {@link LockInstrumentation#getMetrics()} for the reported metrics.
+ */
+public class InstrumentedSemaphore extends Semaphore implements MetricAspect {
+
+  private static final long serialVersionUID = 2694785133950316542L;
+
+  private final int sampleRate;
+  private final PerformanceMonitor waitMonitor;
+  private transient LockInstrumentation instrumentation;
+
+  private InstrumentedSemaphore(Builder builder) {
+    super(builder.permits, builder.fair);
+    this.sampleRate = builder.sampleRate;
+    this.waitMonitor = builder.waitMonitor;
+    this.instrumentation = new LockInstrumentation(sampleRate, waitMonitor, null, false);
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  //interface methods
+
+  @Override
+  public Metrics getMetrics() throws MetricException {
+    return instrumentation.getMetrics();
+  }
+
+  //public methods
+
+  @Override
+  public void acquire() throws InterruptedException {
+    acquire(1);
+  }
+
+  @Override
+  public void acquire(int permits) throws InterruptedException {
+    if (super.tryAcquire(permits)) {
+      instrumentation.acquired();
+      return;
+    }
+    long start = instrumentation.contended();
+    boolean acquired = false;
+    try {
+      super.acquire(permits);
+      acquired = true;
+    } finally {
+      instrumentation.waited(start, acquired);
+    }
+  }
+
+  @Override
+  public void acquireUninterruptibly() {
+    acquireUninterruptibly(1);
+  }
+
+  @Override
+  public void acquireUninterruptibly(int permits) {
+    if (super.tryAcquire(permits)) {
+      instrumentation.acquired();
+      return;
+    }
+    long start = instrumentation.contended();
+    super.acquireUninterruptibly(permits);
+    instrumentation.waited(start, true);
+  }
+
+  @Override
+  public boolean tryAcquire() {
+    return tryAcquire(1);
+  }
+
+  @Override
+  public boolean tryAcquire(int permits) {
+    if (!super.tryAcquire(permits)) return false;
+    instrumentation.acquired();
+    return true;
+  }
+
+  @Override
+  public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+    return tryAcquire(1, timeout, unit);
+  }
+
+  @Override
+  public boolean tryAcquire(int permits, long timeout, TimeUnit unit) throws InterruptedException {
+    if (super.tryAcquire(permits)) {
+      instrumentation.acquired();
+      return true;
+    }
+    long start = instrumentation.contended();
+    boolean acquired = false;
+    try {
+      acquired = super.tryAcquire(permits, timeout, unit);
+    } finally {
+      instrumentation.waited(start, acquired);
+    }
+    return acquired;
+  }
+
+  //private methods
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    this.instrumentation = new LockInstrumentation(sampleRate, waitMonitor, null, false);
+  }
+
+  /**
+   * Builder for creating an {@link InstrumentedSemaphore}
+   */
+  public static class Builder {
+    private int permits;
+    private boolean fair;
+    private int sampleRate = 1;
+    private PerformanceMonitor waitMonitor;
+
+    private Builder() {
+    }
+
+    public InstrumentedSemaphore build() {
+      return new InstrumentedSemaphore(this);
+    }
+
+    /**
+     * @param permits the initial number of permits
+     * @return builder
+     */
+    public Builder setPermits(int permits) {
+      this.permits = permits;
+      return this;
+    }
+
+    /**
+     * @param fair true if the semaphore should grant waiting threads permits first-in first-out, see {@link Semaphore}
+     * @return builder
+     */
+    public Builder setFair(boolean fair) {
+      this.fair = fair;
+      return this;
+    }
+
+    /**
+     * @param sampleRate measure wait time of one of sampleRate contended acquisitions, defaults to 1 (all acquisitions)
+     * @return builder
+     */
+    public Builder setSampleRate(int sampleRate) {
+      this.sampleRate = sampleRate;
+      return this;
+    }
+
+    /**
+     * @param waitMonitor monitor to register contended acquisitions and their wait time to
+     * @return builder
+     */
+    public Builder setWaitMonitor(PerformanceMonitor waitMonitor) {
+      this.waitMonitor = waitMonitor;
+      return this;
+    }
+  }
+}
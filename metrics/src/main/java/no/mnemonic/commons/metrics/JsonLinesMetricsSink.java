@@ -0,0 +1,122 @@
+package no.mnemonic.commons.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * Sink appending each snapshot to a file as a line of JSON, with the metrics tree as nested objects:
+ * <code>
+ *   {"timestamp":1577836800000,"metrics":{"service":{"requests":10,"load":0.5}}}
+ * </code>
+ * Values which are not finite are written as null.
+ * Each snapshot is formatted in a reused buffer and written with a single write, and the file is kept open
+ * until the sink is closed.
+ */
+public class JsonLinesMetricsSink implements MetricsSink {
+
+  private final Path file;
+  private final StringBuilder line = new StringBuilder(4096);
+  private Writer writer;
+
+  /**
+   * @param file file to append snapshots to, which is created if it does not exist
+   */
+  public JsonLinesMetricsSink(Path file) {
+    if (file == null) throw new IllegalArgumentException("File not set");
+    this.file = file;
+  }
+
+  //interface methods
+
+  @Override
+  public void report(long timestamp, Metrics metrics) throws IOException {
+    if (metrics == null) throw new IllegalArgumentException("Metrics not set");
+    line.setLength(0);
+    line.append("{\"timestamp\":").append(timestamp).append(",\"metrics\":");
+    appendMetrics(metrics);
+    line.append("}\n");
+    if (writer == null) {
+      writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+    writer.append(line);
+    writer.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (writer != null) writer.close();
+    writer = null;
+  }
+
+  //private methods
+
+  private void appendMetrics(Metrics metrics) {
+    line.append('{');
+    int start = line.length();
+    if (metrics instanceof PrimitiveMetricsData) {
+      PrimitiveMetricsData data = (PrimitiveMetricsData) metrics;
+      for (int i = 0; i < data.size(); i++) {
+        appendKey(data.getKey(i), start);
+        if (data.isDouble(i)) {
+          appendDouble(data.getDouble(i));
+        } else {
+          line.append(data.getLong(i));
+        }
+      }
+    } else if (metrics.hasData() && metrics.getData() != null) {
+      for (Map.Entry<String, Number> e : metrics.getData().entrySet()) {
+        Number value = e.getValue();
+        if (value == null) continue;
+        appendKey(e.getKey(), start);
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+          line.append(value.longValue());
+        } else {
+          appendDouble(value.doubleValue());
+        }
+      }
+    }
+    if (metrics.hasSubMetrics() && metrics.getSubMetrics() != null) {
+      for (Map.Entry<String, Metrics> e : metrics.getSubMetrics().entrySet()) {
+        if (e.getValue() == null) continue;
+        appendKey(e.getKey(), start);
+        appendMetrics(e.getValue());
+      }
+    }
+    line.append('}');
+  }
+
+  private void appendKey(String key, int start) {
+    if (line.length() > start) line.append(',');
+    appendString(key);
+    line.append(':');
+  }
+
+  private void appendDouble(double value) {
+    if (Double.isFinite(value)) {
+      line.append(value);
+    } else {
+      line.append("null");
+    }
+  }
+
+  private void appendString(String value) {
+    line.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        line.append('\\').append(c);
+      } else if (c < 0x20) {
+        line.append("\\u00");
+        line.append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xF, 16));
+      } else {
+        line.append(c);
+      }
+    }
+    line.append('"');
+  }
+}
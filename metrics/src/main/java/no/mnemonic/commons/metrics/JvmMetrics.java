@@ -0,0 +1,199 @@
+package no.mnemonic.commons.metrics;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metric aspect reporting the runtime metrics of the JVM, to include standard JVM telemetry in the same metrics tree
+ * as the application metrics.
+ *
+ * Example:
+ * <code>
+ *   MetricsGroup metrics = new MetricsGroup()
+ *           .addSubMetrics("jvm", JvmMetrics.builder().build().getMetrics())
+ *           .addSubMetrics("service", service.getMetrics());
+ * </code>
+ *
+ * The metrics are grouped as follows:
+ * <ul>
+ *   <li><code>memory</code>: used and committed heap and non-heap memory, and max heap memory, in bytes</li>
+ *   <li><code>gc</code>: a group per garbage collector, with the number of collections and the accumulated
+ *   collection time in milliseconds, as reported by the collector</li>
+ *   <li><code>allocation</code>: bytes allocated on the heap by all live threads since they started,
+ *   and bytes allocated per second since the previous refresh, if supported by the JVM.
+ *   The rate is computed from the bytes allocated by each thread alive at both refreshes, so threads terminating
+ *   do not hide the allocation of other threads, while the allocation of threads started or terminated between
+ *   two refreshes is not included in the rate.</li>
+ *   <li><code>threads</code>: live, daemon, peak and total started thread counts</li>
+ *   <li><code>compilation</code>: accumulated JIT compilation time in milliseconds, if supported by the JVM</li>
+ *   <li><code>bufferPools</code>: a group per buffer pool (such as <code>direct</code> and <code>mapped</code>),
+ *   with the number of buffers, and used memory and total capacity in bytes</li>
+ * </ul>
+ *
+ * The platform MXBeans are looked up once, and the metrics are refreshed at most once per time to live,
+ * so any number of metrics consumers polling the JVM metrics cause at most one refresh per time to live.
+ * Reading the MXBeans is cheap, so a refresh is done in the calling thread.
+ * Time is measured using the monotonic ticker of {@link TimerContext}.
+ * Time spent in safepoints is not exposed through the public platform MXBeans, so it is not reported.
+ */
+public class JvmMetrics implements MetricAspect {
+
+  public static final long DEFAULT_TIME_TO_LIVE_MILLIS = 1000;
+
+  private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+  private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+  private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+  private final CompilationMXBean compilation = ManagementFactory.getCompilationMXBean();
+  private final List<BufferPoolMXBean> bufferPools = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class);
+  private final com.sun.management.ThreadMXBean allocation;
+  private final long timeToLive;
+  private Metrics metrics;
+  private long refreshed;
+  //bytes allocated by each thread at the previous refresh, by thread id
+  private Map<Long, Long> lastAllocatedBytes;
+  private long lastAllocationTime;
+
+  private JvmMetrics(Builder builder) {
+    if (builder.timeToLiveMillis < 0) throw new IllegalArgumentException("Time to live cannot be negative");
+    this.allocation = threads instanceof com.sun.management.ThreadMXBean
+            && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()
+            ? (com.sun.management.ThreadMXBean) threads
+            : null;
+    this.timeToLive = TimeUnit.MILLISECONDS.toNanos(builder.timeToLiveMillis);
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  //interface methods
+
+  @Override
+  public synchronized Metrics getMetrics() throws MetricException {
+    long now = TimerContext.nanoTime();
+    if (metrics == null || now - refreshed >= timeToLive) {
+      metrics = collect(now);
+      refreshed = now;
+    }
+    return metrics;
+  }
+
+  //private methods
+
+  private Metrics collect(long now) throws MetricException {
+    MetricsGroup metrics = new MetricsGroup()
+            .addSubMetrics("memory", memoryMetrics())
+            .addSubMetrics("gc", gcMetrics())
+            .addSubMetrics("threads", PrimitiveMetricsData.builder(4)
+                    .addData("count", threads.getThreadCount())
+                    .addData("daemonCount", threads.getDaemonThreadCount())
+                    .addData("peakCount", threads.getPeakThreadCount())
+                    .addData("totalStarted", threads.getTotalStartedThreadCount())
+                    .build())
+            .addSubMetrics("bufferPools", bufferPoolMetrics());
+    if (allocation != null && allocation.isThreadAllocatedMemoryEnabled()) {
+      metrics.addSubMetrics("allocation", allocationMetrics(now));
+    }
+    if (compilation != null && compilation.isCompilationTimeMonitoringSupported()) {
+      metrics.addSubMetrics("compilation", PrimitiveMetricsData.builder(1)
+              .addData("timeMillis", compilation.getTotalCompilationTime())
+              .build());
+    }
+    return metrics;
+  }
+
+  private Metrics memoryMetrics() throws MetricException {
+    MemoryUsage heap = memory.getHeapMemoryUsage();
+    MemoryUsage nonHeap = memory.getNonHeapMemoryUsage();
+    return PrimitiveMetricsData.builder(5)
+            .addData("heapUsed", heap.getUsed())
+            .addData("heapCommitted", heap.getCommitted())
+            .addData("heapMax", heap.getMax())
+            .addData("nonHeapUsed", nonHeap.getUsed())
+            .addData("nonHeapCommitted", nonHeap.getCommitted())
+            .build();
+  }
+
+  private Metrics gcMetrics() throws MetricException {
+    MetricsGroup gc = new MetricsGroup();
+    for (GarbageCollectorMXBean collector : collectors) {
+      gc.addSubMetrics(collector.getName(), PrimitiveMetricsData.builder(2)
+              .addData("count", collector.getCollectionCount())
+              .addData("timeMillis", collector.getCollectionTime())
+              .build());
+    }
+    return gc;
+  }
+
+  private Metrics allocationMetrics(long now) throws MetricException {
+    long[] ids = threads.getAllThreadIds();
+    long[] threadBytes = allocation.getThreadAllocatedBytes(ids);
+    Map<Long, Long> allocatedByThread = new HashMap<>(ids.length * 2);
+    long allocatedBytes = 0;
+    long delta = 0;
+    for (int i = 0; i < ids.length; i++) {
+      //threads terminated since listing the ids are reported as -1
+      if (threadBytes[i] < 0) continue;
+      allocatedBytes += threadBytes[i];
+      allocatedByThread.put(ids[i], threadBytes[i]);
+      Long last = lastAllocatedBytes != null ? lastAllocatedBytes.get(ids[i]) : null;
+      if (last != null) delta += Math.max(0, threadBytes[i] - last);
+    }
+    double rate = 0;
+    //the rate is only known from the second refresh
+    if (lastAllocatedBytes != null && now > lastAllocationTime) {
+      rate = delta * (double) TimeUnit.SECONDS.toNanos(1) / (now - lastAllocationTime);
+    }
+    lastAllocatedBytes = allocatedByThread;
+    lastAllocationTime = now;
+    return PrimitiveMetricsData.builder(2)
+            .addData("bytes", allocatedBytes)
+            .addData("bytesPerSecond", rate)
+            .build();
+  }
+
+  private Metrics bufferPoolMetrics() throws MetricException {
+    MetricsGroup pools = new MetricsGroup();
+    for (BufferPoolMXBean pool : bufferPools) {
+      pools.addSubMetrics(pool.getName(), PrimitiveMetricsData.builder(3)
+              .addData("count", pool.getCount())
+              .addData("memoryUsed", pool.getMemoryUsed())
+              .addData("totalCapacity", pool.getTotalCapacity())
+              .build());
+    }
+    return pools;
+  }
+
+  /**
+   * Builder for creating {@link JvmMetrics}
+   */
+  public static class Builder {
+    private long timeToLiveMillis = DEFAULT_TIME_TO_LIVE_MILLIS;
+
+    private Builder() {
+    }
+
+    public JvmMetrics build() {
+      return new JvmMetrics(this);
+    }
+
+    /**
+     * @param timeToLiveMillis how long to serve refreshed metrics before refreshing them again,
+     *                         defaults to {@value JvmMetrics#DEFAULT_TIME_TO_LIVE_MILLIS}
+     * @return builder
+     */
+    public Builder setTimeToLiveMillis(long timeToLiveMillis) {
+      this.timeToLiveMillis = timeToLiveMillis;
+      return this;
+    }
+  }
+}
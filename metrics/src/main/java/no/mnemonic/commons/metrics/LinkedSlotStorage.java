@@ -0,0 +1,154 @@
+package no.mnemonic.commons.metrics;
+
+import no.mnemonic.commons.logging.Logger;
+import no.mnemonic.commons.logging.Logging;
+import no.mnemonic.commons.utilities.AppendMembers;
+import no.mnemonic.commons.utilities.AppendUtils;
+
+import java.io.Serializable;
+import java.util.LinkedList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Slot storage keeping a linked list of timeslots, adding a new head whenever time passes into a new slot.
+ * All access is synchronized on the storage, and queries walk the timeslots of the queried timeframe.
+ * The histogram of a timeslot is allocated the first time a timed value is added in the timeslot.
+ */
+class LinkedSlotStorage implements SlotStorage {
+
+  private static final long serialVersionUID = 2167950216745853414L;
+  private static final Logger LOGGER = Logging.getLogger(LinkedSlotStorage.class);
+
+  private final long memory;
+  private final long resolution;
+  private final SlotHistograms histograms;
+  private final LinkedList<DataPoint> datapoints = new LinkedList<>();
+
+  LinkedSlotStorage(long memory, long resolution, SlotHistograms histograms) {
+    this.memory = memory;
+    this.resolution = resolution;
+    this.histograms = histograms;
+  }
+
+  @Override
+  public void add(long now, long invocations, long timeSpent, boolean timed) {
+    synchronized (this) {
+      DataPoint d = getOrCreateHead(now);
+      d.invocations.add(invocations);
+      d.timeSpent.add(timeSpent);
+      if (timed && histograms != null) {
+        if (d.histogram == null) d.histogram = histograms.create();
+        SlotHistograms.record(d.histogram, invocations, timeSpent);
+      }
+    }
+  }
+
+  @Override
+  public long sumInvocations(long now, long firstTime) {
+    synchronized (this) {
+      //ensure we have a head for the current timeframe
+      getOrCreateHead(now);
+      long invocations = 0;
+      //datapoints are ordered from newest to oldest, so stop at the first datapoint outside the timeframe
+      for (DataPoint dp : datapoints) {
+        if (dp.timestamp <= firstTime) break;
+        invocations += dp.invocations.longValue();
+      }
+      return invocations;
+    }
+  }
+
+  @Override
+  public long sumTimeSpent(long now, long firstTime) {
+    synchronized (this) {
+      getOrCreateHead(now);
+      long timeSpent = 0;
+      for (DataPoint dp : datapoints) {
+        if (dp.timestamp <= firstTime) break;
+        timeSpent += dp.timeSpent.longValue();
+      }
+      return timeSpent;
+    }
+  }
+
+  @Override
+  public void sum(long now, long[] firstTimes, long[] invocations, long[] timeSpent) {
+    synchronized (this) {
+      getOrCreateHead(now);
+      for (int i = 0; i < firstTimes.length; i++) {
+        invocations[i] = 0;
+        timeSpent[i] = 0;
+        for (DataPoint dp : datapoints) {
+          if (dp.timestamp <= firstTimes[i]) break;
+          invocations[i] += dp.invocations.longValue();
+          timeSpent[i] += dp.timeSpent.longValue();
+        }
+      }
+    }
+  }
+
+  @Override
+  public Histogram histogram(long now, long firstTime) {
+    if (histograms == null) return null;
+    Histogram result = histograms.create();
+    synchronized (this) {
+      getOrCreateHead(now);
+      for (DataPoint dp : datapoints) {
+        if (dp.timestamp <= firstTime) break;
+        if (dp.histogram != null) result.merge(dp.histogram);
+      }
+    }
+    return result;
+  }
+
+  //private methods
+
+  private DataPoint getOrCreateHead(long now) {
+    long currentSlot = slotTime(now);
+    if (datapoints.isEmpty() || datapoints.getFirst().timestamp < currentSlot) {
+      if (LOGGER.isDebug()) LOGGER.debug("Adding new datapoint at %d", currentSlot);
+      //add new datapoint at head of list
+      datapoints.add(0, new DataPoint(currentSlot));
+      //remove any trailing timeframes which have fallen outside memory
+      while (isExpired(datapoints.getLast().timestamp, now)) {
+        if (LOGGER.isDebug()) LOGGER.debug("Pruning datapoint %s", datapoints.getLast());
+        datapoints.removeLast();
+      }
+    }
+    return datapoints.getFirst();
+  }
+
+  private boolean isExpired(long timestamp, long now) {
+    return timestamp < (slotTime(now) - memory);
+  }
+
+  private long slotTime(long timestamp) {
+    return (timestamp / resolution) * resolution;
+  }
+
+  private static class DataPoint implements AppendMembers, Serializable {
+    private static final long serialVersionUID = -2718093473546016380L;
+
+    final long timestamp;
+    final LongAdder invocations = new LongAdder();
+    final LongAdder timeSpent = new LongAdder();
+    //allocated when the first timed value is added
+    Histogram histogram;
+
+    DataPoint(long timestamp) {
+      this.timestamp = timestamp;
+    }
+
+    @Override
+    public void appendMembers(StringBuilder buf) {
+      AppendUtils.appendField(buf, "timestamp", timestamp);
+      AppendUtils.appendField(buf, "invocations", invocations);
+      AppendUtils.appendField(buf, "timeSpent", timeSpent);
+    }
+
+    @Override
+    public String toString() {
+      return AppendUtils.toString(this);
+    }
+  }
+}
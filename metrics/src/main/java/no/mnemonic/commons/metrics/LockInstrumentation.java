@@ -0,0 +1,127 @@
+package no.mnemonic.commons.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Recorder of the acquisitions, contention, wait time and hold time of a lock,
+ * shared by {@link InstrumentedLock}, {@link InstrumentedReadWriteLock} and {@link InstrumentedSemaphore}.
+ *
+ * Acquisitions and contended acquisitions are always counted. Wait and hold times are only measured for acquisitions
+ * sampled by a {@link TimerSampler}, and are recorded scaled by the sample rate, so counts and sums remain unbiased.
+ * Performance monitors count time in milliseconds, so the time below a millisecond is carried over to the next
+ * recording instead of being truncated, as most waits and holds are shorter than a millisecond.
+ * All recording is lock-free.
+ */
+class LockInstrumentation implements MetricAspect {
+
+  private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.HOURS.toMicros(1);
+  private static final int HISTOGRAM_PRECISION = 3;
+
+  /**
+   * Start time of acquisitions which are not sampled
+   */
+  static final long NOT_SAMPLED = Long.MIN_VALUE;
+
+  private final TimerSampler sampler;
+  private final PerformanceMonitor waitMonitor;
+  private final PerformanceMonitor holdMonitor;
+  private final LongAdder acquisitions = new LongAdder();
+  private final LongAdder contended = new LongAdder();
+  private final Histogram waitTime = new Histogram(HIGHEST_TRACKABLE_MICROS, HISTOGRAM_PRECISION);
+  private final Histogram holdTime;
+  //nanoseconds not yet registered to the monitors
+  private final AtomicLong waitCarry = new AtomicLong();
+  private final AtomicLong holdCarry = new AtomicLong();
+
+  /**
+   * @param sampleRate  sample one of sampleRate acquisitions for timing
+   * @param waitMonitor monitor to register contended acquisitions and their wait time to, or null
+   * @param holdMonitor monitor to register hold times to, or null
+   * @param holdTimed   true if hold times are measured
+   */
+  LockInstrumentation(int sampleRate, PerformanceMonitor waitMonitor, PerformanceMonitor holdMonitor, boolean holdTimed) {
+    this.sampler = TimerSampler.random(sampleRate);
+    this.waitMonitor = waitMonitor;
+    this.holdMonitor = holdMonitor;
+    this.holdTime = holdTimed ? new Histogram(HIGHEST_TRACKABLE_MICROS, HISTOGRAM_PRECISION) : null;
+  }
+
+  //interface methods
+
+  /**
+   * @return a group with a subgroup <code>summary</code> with the number of acquisitions, contended acquisitions
+   * and the sample rate, and subgroups <code>waitMicros</code> and <code>holdMicros</code> with histogram metrics
+   * (see {@link Histogram#getMetrics()}) of the wait time of contended acquisitions and the hold time, in microseconds
+   */
+  @Override
+  public Metrics getMetrics() throws MetricException {
+    MetricsGroup metrics = new MetricsGroup()
+            .addSubMetrics("summary", PrimitiveMetricsData.builder(3)
+                    .addData("acquisitions", acquisitions.sum())
+                    .addData("contended", contended.sum())
+                    .addData("sampleRate", sampler.getRate())
+                    .build())
+            .addSubMetrics("waitMicros", waitTime.getMetrics());
+    if (holdTime != null) metrics.addSubMetrics("holdMicros", holdTime.getMetrics());
+    return metrics;
+  }
+
+  //package methods
+
+  /**
+   * Register an acquisition which did not have to wait
+   */
+  void acquired() {
+    acquisitions.increment();
+  }
+
+  /**
+   * Register an acquisition which has to wait
+   *
+   * @return the start time of the wait, or {@link #NOT_SAMPLED}
+   */
+  long contended() {
+    contended.increment();
+    return sampler.sample() ? TimerContext.nanoTime() : NOT_SAMPLED;
+  }
+
+  /**
+   * Register the end of the wait of a contended acquisition
+   *
+   * @param start    the start time returned by {@link #contended()}
+   * @param acquired true if the wait ended with the lock acquired
+   */
+  void waited(long start, boolean acquired) {
+    if (acquired) acquisitions.increment();
+    if (start == NOT_SAMPLED) return;
+    record(TimerContext.nanoTime() - start, waitTime, waitMonitor, waitCarry);
+  }
+
+  /**
+   * @return the start time of holding the lock, or {@link #NOT_SAMPLED}
+   */
+  long startHold() {
+    return holdTime != null && sampler.sample() ? TimerContext.nanoTime() : NOT_SAMPLED;
+  }
+
+  /**
+   * @param nanos time the lock was held
+   */
+  void held(long nanos) {
+    record(nanos, holdTime, holdMonitor, holdCarry);
+  }
+
+  //private methods
+
+  private void record(long nanos, Histogram histogram, PerformanceMonitor monitor, AtomicLong carry) {
+    int rate = sampler.getRate();
+    histogram.record(TimeUnit.NANOSECONDS.toMicros(nanos), rate);
+    if (monitor == null) return;
+    //scale before truncating to milliseconds, and carry the remainder over to the next recording
+    long millis = TimeUnit.NANOSECONDS.toMillis(carry.addAndGet(nanos * rate));
+    if (millis > 0) carry.addAndGet(-TimeUnit.MILLISECONDS.toNanos(millis));
+    monitor.invoked(rate, Math.max(0, millis));
+  }
+}
@@ -0,0 +1,181 @@
+package no.mnemonic.commons.metrics;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A meter measures the rate of events, as exponentially-weighted moving averages over 1, 5 and 15 minutes,
+ * along with the mean rate since the meter was created.
+ *
+ * Unlike a {@link PerformanceMonitor}, a meter does not keep any timeslots, so its memory use is constant
+ * regardless of the periods it averages over. This makes it suitable for instrumenting a large number of
+ * code paths, such as one meter per tenant.
+ *
+ * Example:
+ * <code>
+ *   private final Meter requests = new Meter();
+ *
+ *   //.... component code
+ *   requests.mark();
+ *
+ *   //.... metrics collection
+ *   metrics.addData("requestsPerSec1minAverage", requests.getOneMinuteRate());
+ * </code>
+ *
+ * Marking events is lock-free. The moving averages are updated every {@value #TICK_INTERVAL_SECONDS} seconds,
+ * by the first thread marking or reading the meter after the interval has passed, so the meter needs no scheduler.
+ * If no thread touches the meter for several intervals, the averages are decayed for all passed intervals at once.
+ * Time is measured using the monotonic ticker of {@link TimerContext}.
+ */
+public class Meter implements MetricAspect, Serializable {
+
+  private static final long serialVersionUID = 5186640226125519624L;
+
+  public static final int TICK_INTERVAL_SECONDS = 5;
+  private static final long TICK_INTERVAL = TimeUnit.SECONDS.toNanos(TICK_INTERVAL_SECONDS);
+
+  private final LongAdder count = new LongAdder();
+  //events marked since the last tick
+  private final LongAdder uncounted = new LongAdder();
+  private final long startTime;
+  private final AtomicLong lastTick;
+  private final MovingAverage oneMinuteRate = new MovingAverage(1);
+  private final MovingAverage fiveMinuteRate = new MovingAverage(5);
+  private final MovingAverage fifteenMinuteRate = new MovingAverage(15);
+
+  public Meter() {
+    this.startTime = TimerContext.nanoTime();
+    this.lastTick = new AtomicLong(startTime);
+  }
+
+  //interface methods
+
+  /**
+   * @return the count, along with the mean rate and the 1, 5 and 15 minute rates in events per second
+   */
+  @Override
+  public Metrics getMetrics() throws MetricException {
+    return PrimitiveMetricsData.builder()
+            .addData("count", getCount())
+            .addData("meanRate", getMeanRate())
+            .addData("m1Rate", getOneMinuteRate())
+            .addData("m5Rate", getFiveMinuteRate())
+            .addData("m15Rate", getFifteenMinuteRate())
+            .build();
+  }
+
+  //public methods
+
+  /**
+   * Mark the occurrence of an event
+   */
+  public void mark() {
+    mark(1);
+  }
+
+  /**
+   * Mark the occurrence of a number of events
+   *
+   * @param events the number of events
+   */
+  public void mark(long events) {
+    tickIfNecessary();
+    count.add(events);
+    uncounted.add(events);
+  }
+
+  /**
+   * @return the total number of events marked
+   */
+  public long getCount() {
+    return count.sum();
+  }
+
+  /**
+   * @return the mean rate of events per second since the meter was created
+   */
+  public double getMeanRate() {
+    long elapsed = TimerContext.nanoTime() - startTime;
+    if (elapsed <= 0) return 0;
+    return getCount() / (double) elapsed * TimeUnit.SECONDS.toNanos(1);
+  }
+
+  /**
+   * @return the one-minute exponentially-weighted moving average rate of events per second
+   */
+  public double getOneMinuteRate() {
+    tickIfNecessary();
+    return oneMinuteRate.getRate();
+  }
+
+  /**
+   * @return the five-minute exponentially-weighted moving average rate of events per second
+   */
+  public double getFiveMinuteRate() {
+    tickIfNecessary();
+    return fiveMinuteRate.getRate();
+  }
+
+  /**
+   * @return the fifteen-minute exponentially-weighted moving average rate of events per second
+   */
+  public double getFifteenMinuteRate() {
+    tickIfNecessary();
+    return fifteenMinuteRate.getRate();
+  }
+
+  //private methods
+
+  private void tickIfNecessary() {
+    long oldTick = lastTick.get();
+    long age = TimerContext.nanoTime() - oldTick;
+    if (age < TICK_INTERVAL) return;
+    long ticks = age / TICK_INTERVAL;
+    //only the thread moving the last tick updates the averages
+    if (!lastTick.compareAndSet(oldTick, oldTick + ticks * TICK_INTERVAL)) return;
+    long events = uncounted.sumThenReset();
+    oneMinuteRate.tick(events, ticks);
+    fiveMinuteRate.tick(events, ticks);
+    fifteenMinuteRate.tick(events, ticks);
+  }
+
+  /**
+   * Exponentially-weighted moving average of the rate of events, updated once per tick interval
+   */
+  private static class MovingAverage implements Serializable {
+
+    private static final long serialVersionUID = -1339502474316127226L;
+
+    private final double alpha;
+    private volatile double rate;
+    private volatile boolean initialized;
+
+    private MovingAverage(int minutes) {
+      this.alpha = 1 - Math.exp(-TICK_INTERVAL_SECONDS / (60.0 * minutes));
+    }
+
+    /**
+     * @param events events marked since the last tick
+     * @param ticks  the number of intervals passed since the last tick, where the events are counted in the first
+     */
+    private void tick(long events, long ticks) {
+      double instantRate = events / (double) TICK_INTERVAL_SECONDS;
+      double current = rate;
+      if (initialized) {
+        current += alpha * (instantRate - current);
+      } else {
+        current = instantRate;
+        initialized = true;
+      }
+      //decay for each interval passed without events
+      if (ticks > 1) current *= Math.pow(1 - alpha, ticks - 1);
+      rate = current;
+    }
+
+    private double getRate() {
+      return rate;
+    }
+  }
+}
@@ -0,0 +1,509 @@
+package no.mnemonic.commons.metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Aggregator merging the metrics trees of many nodes, such as instances of the same service, into one tree.
+ *
+ * Each value is merged with the values at the same path from all nodes, using the first rule matching its path,
+ * or the default rule if no rule matches. The path of a value is the names of the groups on the path to it,
+ * and its key, separated by dots. Rules are given as patterns where <code>*</code> matches any sequence of characters.
+ * Snapshots of histograms, given as {@link HistogramMetrics}, are merged by combining their buckets,
+ * so the percentiles of the merged tree are the percentiles of the combined distribution.
+ *
+ * Example:
+ * <code>
+ *   MetricsAggregator aggregator = MetricsAggregator.builder()
+ *           .addRule("*.pool.active", MetricsAggregator.MergeRule.MAX)
+ *           .addRule("*Rate", MetricsAggregator.MergeRule.AVG)
+ *           .build();
+ *
+ *   //when receiving a snapshot from a node
+ *   aggregator.update(nodeName, snapshot);
+ *
+ *   //fleet-wide view
+ *   Metrics merged = aggregator.getMetrics();
+ * </code>
+ *
+ * Each snapshot is expected to be a group, like the metrics of a {@link ContainerMetricsCollector}.
+ * The aggregator keeps the latest value of each node at each path, replacing the values of a node on each update.
+ * Values which are missing from the latest snapshot of a node no longer contribute to the merge.
+ * Updates only mark the paths whose values changed, and reading the metrics only merges the marked paths,
+ * reusing the unchanged parts of the previously merged tree. The returned metrics should therefore not be modified.
+ * Updates of different nodes may run concurrently, see {@link #updateAll(Map)}.
+ */
+public class MetricsAggregator implements MetricAspect {
+
+  public enum MergeRule {
+    /**
+     * Sum of all values. The sum of integral values is a long, otherwise a double.
+     */
+    SUM,
+    /**
+     * Lowest value
+     */
+    MIN,
+    /**
+     * Highest value
+     */
+    MAX,
+    /**
+     * Average of all values, as a double
+     */
+    AVG
+  }
+
+  private final List<Rule> rules;
+  private final MergeRule defaultRule;
+  private final GroupNode root = new GroupNode(null, null);
+  private final Map<String, Source> sources = new ConcurrentHashMap<>();
+  private final AtomicInteger slots = new AtomicInteger();
+  private final ConcurrentLinkedQueue<Integer> freeSlots = new ConcurrentLinkedQueue<>();
+
+  private MetricsAggregator(Builder builder) {
+    if (builder.defaultRule == null) throw new IllegalArgumentException("Default rule not set");
+    this.rules = Collections.unmodifiableList(new ArrayList<>(builder.rules));
+    this.defaultRule = builder.defaultRule;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  //interface methods
+
+  /**
+   * @return the merged metrics of all nodes
+   */
+  @Override
+  public synchronized Metrics getMetrics() {
+    Metrics result = root.build();
+    return result != null ? result : new MetricsGroup();
+  }
+
+  //public methods
+
+  /**
+   * Replace the metrics of a node with a new snapshot.
+   * Updates of different nodes may run concurrently, while updates of the same node are serialized.
+   *
+   * @param node    name of the node
+   * @param metrics latest metrics of the node
+   */
+  public void update(String node, Metrics metrics) {
+    if (node == null) throw new IllegalArgumentException("Node not set");
+    if (metrics == null) throw new IllegalArgumentException("Metrics not set");
+    while (true) {
+      Source source = sources.computeIfAbsent(node, n -> new Source(allocateSlot()));
+      synchronized (source) {
+        //retry if the node was removed concurrently
+        if (source.removed) continue;
+        Set<Leaf> leaves = new HashSet<>(Math.max(16, source.leaves.size() * 2));
+        root.update(metrics, source.slot, leaves);
+        for (Leaf leaf : source.leaves) {
+          if (!leaves.contains(leaf)) leaf.set(source.slot, null);
+        }
+        source.leaves = leaves;
+        return;
+      }
+    }
+  }
+
+  /**
+   * Replace the metrics of several nodes in parallel, using the common fork/join pool.
+   *
+   * @param snapshots latest metrics of each node, keyed by node name
+   */
+  public void updateAll(Map<String, Metrics> snapshots) {
+    if (snapshots == null) throw new IllegalArgumentException("Snapshots not set");
+    snapshots.entrySet().parallelStream().forEach(e -> update(e.getKey(), e.getValue()));
+  }
+
+  /**
+   * Remove the metrics of a node, e.g. when the node is shut down
+   *
+   * @param node name of the node
+   */
+  public void remove(String node) {
+    if (node == null) throw new IllegalArgumentException("Node not set");
+    Source source = sources.remove(node);
+    if (source == null) return;
+    synchronized (source) {
+      for (Leaf leaf : source.leaves) {
+        leaf.set(source.slot, null);
+      }
+      source.leaves = Collections.emptySet();
+      source.removed = true;
+    }
+    freeSlots.add(source.slot);
+  }
+
+  /**
+   * @return the names of all nodes with metrics in the aggregator
+   */
+  public Set<String> getNodes() {
+    return Collections.unmodifiableSet(sources.keySet());
+  }
+
+  //private methods
+
+  private int allocateSlot() {
+    Integer slot = freeSlots.poll();
+    return slot != null ? slot : slots.getAndIncrement();
+  }
+
+  private MergeRule rule(String path) {
+    for (Rule rule : rules) {
+      if (rule.pattern.matcher(path).matches()) return rule.mergeRule;
+    }
+    return defaultRule;
+  }
+
+  private static boolean isIntegral(Number value) {
+    return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+  }
+
+  /**
+   * Metrics of one node
+   */
+  private static class Source {
+    private final int slot;
+    //leaves holding a value of this node
+    private Set<Leaf> leaves = Collections.emptySet();
+    private boolean removed;
+
+    private Source(int slot) {
+      this.slot = slot;
+    }
+  }
+
+  /**
+   * Node of the merged tree, which caches its merged metrics until it is marked as changed
+   */
+  private abstract static class Node {
+    private final Node parent;
+    final String path;
+    private volatile boolean dirty;
+    private Metrics cached;
+
+    Node(Node parent, String path) {
+      this.parent = parent;
+      this.path = path;
+    }
+
+    /**
+     * Mark this node and its ancestors as changed
+     */
+    void markDirty() {
+      //the ancestors of a marked node are marked too, or are being built and will merge the marked node
+      for (Node node = this; node != null && !node.dirty; node = node.parent) {
+        node.dirty = true;
+      }
+    }
+
+    /**
+     * @return the merged metrics of this node, or null if no node has any values for it
+     */
+    Metrics build() {
+      if (!dirty) return cached;
+      //clear before merging, so changes while merging are merged by the next build
+      dirty = false;
+      cached = merge();
+      return cached;
+    }
+
+    String childPath(String name) {
+      return path != null ? path + "." + name : name;
+    }
+
+    abstract Metrics merge();
+  }
+
+  private class GroupNode extends Node {
+    private final Map<String, Node> children = new ConcurrentHashMap<>();
+
+    private GroupNode(Node parent, String path) {
+      super(parent, path);
+    }
+
+    private void update(Metrics metrics, int slot, Set<Leaf> leaves) {
+      Map<String, Metrics> subMetrics = metrics.getSubMetrics();
+      if (subMetrics == null) return;
+      subMetrics.forEach((name, sub) -> {
+        Node child = children.computeIfAbsent(name, n -> create(n, sub));
+        //skip submetrics whose type does not match the submetrics of other nodes at the same path
+        if (child instanceof HistogramNode && sub instanceof HistogramMetrics) {
+          Leaf snapshots = ((HistogramNode) child).snapshots;
+          snapshots.set(slot, sub);
+          leaves.add(snapshots);
+        } else if (child instanceof DataNode && sub.hasData() && !(sub instanceof HistogramMetrics)) {
+          ((DataNode) child).update(sub, slot, leaves);
+        } else if (child instanceof GroupNode && !sub.hasData() && sub.hasSubMetrics()) {
+          ((GroupNode) child).update(sub, slot, leaves);
+        }
+      });
+    }
+
+    private Node create(String name, Metrics metrics) {
+      if (metrics instanceof HistogramMetrics) return new HistogramNode(this, childPath(name));
+      if (metrics.hasData()) return new DataNode(this, childPath(name));
+      return new GroupNode(this, childPath(name));
+    }
+
+    @Override
+    Metrics merge() {
+      MetricsGroup result = null;
+      for (Map.Entry<String, Node> e : children.entrySet()) {
+        Metrics child = e.getValue().build();
+        if (child == null) continue;
+        if (result == null) result = new MetricsGroup();
+        try {
+          result.addSubMetrics(e.getKey(), child);
+        } catch (MetricException ex) {
+          //names and metrics are never empty
+          throw new IllegalStateException(ex);
+        }
+      }
+      return result;
+    }
+  }
+
+  private class DataNode extends Node {
+    private final Map<String, ValueLeaf> values = new ConcurrentHashMap<>();
+
+    private DataNode(Node parent, String path) {
+      super(parent, path);
+    }
+
+    private void update(Metrics metrics, int slot, Set<Leaf> leaves) {
+      if (metrics instanceof PrimitiveMetricsData) {
+        PrimitiveMetricsData data = (PrimitiveMetricsData) metrics;
+        for (int i = 0; i < data.size(); i++) {
+          ValueLeaf leaf = leaf(data.getKey(i));
+          leaf.set(slot, data.isDouble(i) ? (Number) data.getDouble(i) : (Number) data.getLong(i));
+          leaves.add(leaf);
+        }
+        return;
+      }
+      Map<String, Number> data = metrics.getData();
+      if (data == null) return;
+      data.forEach((key, value) -> {
+        if (value == null) return;
+        ValueLeaf leaf = leaf(key);
+        leaf.set(slot, value);
+        leaves.add(leaf);
+      });
+    }
+
+    private ValueLeaf leaf(String key) {
+      return values.computeIfAbsent(key, k -> new ValueLeaf(this, rule(childPath(k))));
+    }
+
+    @Override
+    Metrics merge() {
+      PrimitiveMetricsData.Builder builder = PrimitiveMetricsData.builder(Math.max(1, values.size()));
+      int size = 0;
+      for (Map.Entry<String, ValueLeaf> e : values.entrySet()) {
+        Number value = e.getValue().get();
+        if (value == null) continue;
+        try {
+          if (isIntegral(value)) {
+            builder.addData(e.getKey(), value.longValue());
+          } else {
+            builder.addData(e.getKey(), value.doubleValue());
+          }
+        } catch (MetricException ex) {
+          //keys are never empty
+          throw new IllegalStateException(ex);
+        }
+        size++;
+      }
+      return size > 0 ? builder.build() : null;
+    }
+  }
+
+  /**
+   * Values of all nodes at one path, indexed by the slot of each node
+   */
+  private static class Leaf {
+    private final Node node;
+    private Object[] values = new Object[8];
+    volatile boolean dirty = true;
+
+    private Leaf(Node node) {
+      this.node = node;
+    }
+
+    /**
+     * Set the value of a node, marking the leaf as changed unless the value is unchanged
+     *
+     * @param slot  slot of the node
+     * @param value value of the node, or null to remove the value of the node
+     */
+    void set(int slot, Object value) {
+      synchronized (this) {
+        if (slot >= values.length) {
+          if (value == null) return;
+          values = Arrays.copyOf(values, Math.max(values.length * 2, slot + 1));
+        }
+        if (Objects.equals(values[slot], value)) return;
+        values[slot] = value;
+      }
+      //mark the leaf before its node, so a build clearing the node sees the leaf as changed
+      dirty = true;
+      node.markDirty();
+    }
+
+    /**
+     * @return the present values of all nodes
+     */
+    synchronized List<Object> values() {
+      List<Object> result = new ArrayList<>();
+      for (Object value : values) {
+        if (value != null) result.add(value);
+      }
+      return result;
+    }
+  }
+
+  private static class ValueLeaf extends Leaf {
+    private final MergeRule rule;
+    private Number merged;
+
+    private ValueLeaf(Node node, MergeRule rule) {
+      super(node);
+      this.rule = rule;
+    }
+
+    /**
+     * @return the merged value, or null if no node has a value
+     */
+    private Number get() {
+      if (!dirty) return merged;
+      dirty = false;
+      merged = merge(values());
+      return merged;
+    }
+
+    private Number merge(List<Object> values) {
+      if (values.isEmpty()) return null;
+      boolean integral = true;
+      for (Object value : values) {
+        integral &= isIntegral((Number) value);
+      }
+      switch (rule) {
+        case SUM:
+          if (integral) {
+            long sum = 0;
+            for (Object value : values) sum += ((Number) value).longValue();
+            return sum;
+          } else {
+            double sum = 0;
+            for (Object value : values) sum += ((Number) value).doubleValue();
+            return sum;
+          }
+        case MIN:
+        case MAX:
+          Number result = null;
+          for (Object value : values) {
+            Number n = (Number) value;
+            if (result == null) {
+              result = n;
+              continue;
+            }
+            int compare = integral ? Long.compare(n.longValue(), result.longValue()) : Double.compare(n.doubleValue(), result.doubleValue());
+            if (rule == MergeRule.MIN ? compare < 0 : compare > 0) result = n;
+          }
+          return result;
+        case AVG:
+          double sum = 0;
+          for (Object value : values) sum += ((Number) value).doubleValue();
+          return sum / values.size();
+        default:
+          throw new IllegalStateException("Unknown rule " + rule);
+      }
+    }
+  }
+
+  /**
+   * Histogram snapshots of all nodes at one path, merged to a {@link HistogramMetrics}
+   */
+  private static class HistogramNode extends Node {
+    private final Leaf snapshots = new Leaf(this);
+
+    private HistogramNode(Node parent, String path) {
+      super(parent, path);
+    }
+
+    @Override
+    Metrics merge() {
+      List<HistogramMetrics> result = new ArrayList<>();
+      for (Object value : snapshots.values()) {
+        result.add((HistogramMetrics) value);
+      }
+      return HistogramMetrics.merge(result);
+    }
+  }
+
+  private static class Rule {
+    private final Pattern pattern;
+    private final MergeRule mergeRule;
+
+    private Rule(String pattern, MergeRule mergeRule) {
+      this.pattern = Pattern.compile(Arrays.stream(pattern.split("\\*", -1))
+              .map(Pattern::quote)
+              .collect(Collectors.joining(".*")));
+      this.mergeRule = mergeRule;
+    }
+  }
+
+  /**
+   * Builder for creating a {@link MetricsAggregator}
+   */
+  public static class Builder {
+    private final List<Rule> rules = new ArrayList<>();
+    private MergeRule defaultRule = MergeRule.SUM;
+
+    private Builder() {
+    }
+
+    public MetricsAggregator build() {
+      return new MetricsAggregator(this);
+    }
+
+    /**
+     * Add a rule for merging values whose path matches the pattern. Rules are matched in the order they are added.
+     *
+     * @param pattern   pattern of the path of the values, where <code>*</code> matches any sequence of characters
+     * @param mergeRule rule for merging the values
+     * @return builder
+     */
+    public Builder addRule(String pattern, MergeRule mergeRule) {
+      if (pattern == null) throw new IllegalArgumentException("Pattern not set");
+      if (mergeRule == null) throw new IllegalArgumentException("Merge rule not set");
+      rules.add(new Rule(pattern, mergeRule));
+      return this;
+    }
+
+    /**
+     * @param defaultRule rule for merging values not matching any rule, defaults to {@link MergeRule#SUM}
+     * @return builder
+     */
+    public Builder setDefaultRule(MergeRule defaultRule) {
+      this.defaultRule = defaultRule;
+      return this;
+    }
+  }
+}
@@ -0,0 +1,422 @@
+package no.mnemonic.commons.metrics;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Compact binary codec for {@link Metrics} trees, as a faster and smaller alternative to Java serialization
+ * for shipping metrics snapshots between nodes.
+ *
+ * Example:
+ * <code>
+ *   byte[] bytes = MetricsCodec.encode(metrics);
+ *   Metrics copy = MetricsCodec.decode(bytes);
+ *
+ *   //only send what changed since the previous snapshot, which the receiver must also have
+ *   byte[] delta = MetricsCodec.encode(metrics, previous);
+ *   Metrics copy = MetricsCodec.decode(delta, previous);
+ * </code>
+ *
+ * Trees of {@link MetricsGroup}, {@link MetricsData} and {@link PrimitiveMetricsData} round-trip exactly,
+ * including the type of each value, for values of the standard {@link Number} types
+ * (Long, Integer, Short, Byte, Double, Float, BigInteger and BigDecimal).
+ * Other metrics implementations are decoded as {@link MetricsData} if they have data, or else as {@link MetricsGroup}.
+ * Other number types are decoded as Double if they are {@link DoubleAdder} or {@link DoubleAccumulator}, or else as Long.
+ *
+ * The encoding starts with a version header. Integral values and lengths are written as variable-length integers,
+ * using zigzag encoding for signed values, so small values use a single byte.
+ * Names are written the first time they occur, and referred to by their index in a string table built
+ * while encoding, so names repeated throughout the tree, such as the keys of each component, are only written once.
+ *
+ * When encoding against a previous snapshot, integral values are written as the difference from the value
+ * of the same type at the same path of the previous snapshot, and floating point values equal to the previous value
+ * are written as a single tag. Decoding such a delta requires the same previous snapshot.
+ */
+public class MetricsCodec {
+
+  public static final int VERSION = 1;
+
+  private static final int FLAG_DELTA = 1;
+
+  private static final int NODE_GROUP = 1;
+  private static final int NODE_DATA = 2;
+  private static final int NODE_PRIMITIVE = 3;
+
+  private static final int VALUE_LONG = 1;
+  private static final int VALUE_INT = 2;
+  private static final int VALUE_SHORT = 3;
+  private static final int VALUE_BYTE = 4;
+  private static final int VALUE_DOUBLE = 5;
+  private static final int VALUE_FLOAT = 6;
+  private static final int VALUE_BIG_INTEGER = 7;
+  private static final int VALUE_BIG_DECIMAL = 8;
+  //value relative to the previous value of the same type
+  private static final int VALUE_DELTA = 0x10;
+
+  private MetricsCodec() {
+  }
+
+  //public methods
+
+  /**
+   * @param metrics metrics to encode
+   * @return the encoded metrics
+   * @throws MetricException if the metrics contain both data and submetrics
+   */
+  public static byte[] encode(Metrics metrics) throws MetricException {
+    return encode(metrics, null);
+  }
+
+  /**
+   * @param metrics  metrics to encode
+   * @param previous previous snapshot to encode the metrics as a delta against, or null to encode the full metrics
+   * @return the encoded metrics
+   * @throws MetricException if the metrics contain both data and submetrics
+   */
+  public static byte[] encode(Metrics metrics, Metrics previous) throws MetricException {
+    if (metrics == null) throw new IllegalArgumentException("Metrics not set");
+    Encoder encoder = new Encoder();
+    encoder.writeByte(VERSION);
+    encoder.writeByte(previous != null ? FLAG_DELTA : 0);
+    encoder.writeNode(metrics, previous);
+    return encoder.toByteArray();
+  }
+
+  /**
+   * @param bytes encoded metrics
+   * @return the decoded metrics
+   * @throws MetricException if the bytes are invalid, or encoded as a delta
+   */
+  public static Metrics decode(byte[] bytes) throws MetricException {
+    return decode(bytes, null);
+  }
+
+  /**
+   * @param bytes    encoded metrics
+   * @param previous the previous snapshot the metrics were encoded against, if encoded as a delta
+   * @return the decoded metrics
+   * @throws MetricException if the bytes are invalid, or encoded as a delta and previous is not set
+   */
+  public static Metrics decode(byte[] bytes, Metrics previous) throws MetricException {
+    if (bytes == null) throw new IllegalArgumentException("Bytes not set");
+    Decoder decoder = new Decoder(bytes);
+    int version = decoder.readByte();
+    if (version != VERSION) throw new MetricException("Unsupported codec version " + version);
+    boolean delta = (decoder.readByte() & FLAG_DELTA) != 0;
+    if (delta && previous == null) throw new MetricException("Metrics encoded as delta, but previous snapshot not set");
+    Metrics result = decoder.readNode(delta ? previous : null);
+    if (decoder.position != bytes.length) throw new MetricException("Unexpected data after metrics");
+    return result;
+  }
+
+  //private methods
+
+  private static class Encoder {
+    private final Map<String, Integer> strings = new HashMap<>();
+    private byte[] buffer = new byte[256];
+    private int position;
+
+    private void writeNode(Metrics metrics, Metrics previous) throws MetricException {
+      if (metrics instanceof PrimitiveMetricsData) {
+        PrimitiveMetricsData data = (PrimitiveMetricsData) metrics;
+        writeByte(NODE_PRIMITIVE);
+        writeVarint(data.size());
+        for (int i = 0; i < data.size(); i++) {
+          String key = data.getKey(i);
+          writeString(key);
+          Number old = previous != null ? previous.getData(key) : null;
+          if (data.isDouble(i)) {
+            writeDouble(data.getDouble(i), old);
+          } else {
+            writeLong(VALUE_LONG, data.getLong(i), old instanceof Long ? old.longValue() : null);
+          }
+        }
+      } else if (metrics.hasData() && metrics.hasSubMetrics()) {
+        throw new MetricException("Cannot encode metrics with both data and submetrics");
+      } else if (metrics.hasData()) {
+        Map<String, Number> data = metrics.getData();
+        Map<String, Number> old = previous != null && previous.hasData() ? previous.getData() : null;
+        writeByte(NODE_DATA);
+        writeVarint(data != null ? data.size() : 0);
+        if (data == null) return;
+        for (Map.Entry<String, Number> e : data.entrySet()) {
+          writeString(e.getKey());
+          writeValue(e.getValue(), old != null ? old.get(e.getKey()) : null);
+        }
+      } else {
+        Map<String, Metrics> subMetrics = metrics.getSubMetrics();
+        Map<String, Metrics> old = previous != null && previous.hasSubMetrics() ? previous.getSubMetrics() : null;
+        writeByte(NODE_GROUP);
+        writeVarint(subMetrics != null ? subMetrics.size() : 0);
+        if (subMetrics == null) return;
+        for (Map.Entry<String, Metrics> e : subMetrics.entrySet()) {
+          writeString(e.getKey());
+          writeNode(e.getValue(), old != null ? old.get(e.getKey()) : null);
+        }
+      }
+    }
+
+    private void writeValue(Number value, Number old) {
+      if (value instanceof Long) {
+        writeLong(VALUE_LONG, value.longValue(), old instanceof Long ? old.longValue() : null);
+      } else if (value instanceof Integer) {
+        writeLong(VALUE_INT, value.longValue(), old instanceof Integer ? old.longValue() : null);
+      } else if (value instanceof Short) {
+        writeLong(VALUE_SHORT, value.longValue(), old instanceof Short ? old.longValue() : null);
+      } else if (value instanceof Byte) {
+        writeLong(VALUE_BYTE, value.longValue(), old instanceof Byte ? old.longValue() : null);
+      } else if (value instanceof Double) {
+        writeDouble(value.doubleValue(), old);
+      } else if (value instanceof Float) {
+        float f = value.floatValue();
+        if (old instanceof Float && Float.floatToRawIntBits(f) == Float.floatToRawIntBits(old.floatValue())) {
+          writeByte(VALUE_FLOAT | VALUE_DELTA);
+        } else {
+          writeByte(VALUE_FLOAT);
+          writeFixed(Float.floatToRawIntBits(f), 4);
+        }
+      } else if (value instanceof BigInteger) {
+        writeByte(VALUE_BIG_INTEGER);
+        writeBytes(((BigInteger) value).toByteArray());
+      } else if (value instanceof BigDecimal) {
+        writeByte(VALUE_BIG_DECIMAL);
+        writeVarint(zigzag(((BigDecimal) value).scale()));
+        writeBytes(((BigDecimal) value).unscaledValue().toByteArray());
+      } else if (value instanceof DoubleAdder || value instanceof DoubleAccumulator) {
+        writeDouble(value.doubleValue(), old);
+      } else {
+        writeLong(VALUE_LONG, value.longValue(), old instanceof Long ? old.longValue() : null);
+      }
+    }
+
+    private void writeLong(int type, long value, Long old) {
+      if (old != null) {
+        writeByte(type | VALUE_DELTA);
+        writeVarint(zigzag(value - old));
+      } else {
+        writeByte(type);
+        writeVarint(zigzag(value));
+      }
+    }
+
+    private void writeDouble(double value, Number old) {
+      long bits = Double.doubleToRawLongBits(value);
+      if (old instanceof Double && bits == Double.doubleToRawLongBits(old.doubleValue())) {
+        writeByte(VALUE_DOUBLE | VALUE_DELTA);
+      } else {
+        writeByte(VALUE_DOUBLE);
+        writeFixed(bits, 8);
+      }
+    }
+
+    /**
+     * Write a reference to the string table, where 0 means a new string follows
+     */
+    private void writeString(String value) {
+      Integer index = strings.get(value);
+      if (index != null) {
+        writeVarint(index + 1);
+        return;
+      }
+      strings.put(value, strings.size());
+      writeVarint(0);
+      writeBytes(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void writeBytes(byte[] value) {
+      writeVarint(value.length);
+      ensureCapacity(value.length);
+      System.arraycopy(value, 0, buffer, position, value.length);
+      position += value.length;
+    }
+
+    private void writeVarint(long value) {
+      ensureCapacity(10);
+      while ((value & ~0x7FL) != 0) {
+        buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      buffer[position++] = (byte) value;
+    }
+
+    private void writeFixed(long value, int bytes) {
+      ensureCapacity(bytes);
+      for (int i = bytes - 1; i >= 0; i--) {
+        buffer[position++] = (byte) (value >>> (i * 8));
+      }
+    }
+
+    private void writeByte(int value) {
+      ensureCapacity(1);
+      buffer[position++] = (byte) value;
+    }
+
+    private void ensureCapacity(int bytes) {
+      if (position + bytes > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + bytes));
+      }
+    }
+
+    private byte[] toByteArray() {
+      return Arrays.copyOf(buffer, position);
+    }
+  }
+
+  private static class Decoder {
+    private final List<String> strings = new ArrayList<>();
+    private final byte[] buffer;
+    private int position;
+
+    private Decoder(byte[] buffer) {
+      this.buffer = buffer;
+    }
+
+    private Metrics readNode(Metrics previous) throws MetricException {
+      int type = readByte();
+      int size = readSize();
+      switch (type) {
+        case NODE_GROUP: {
+          Map<String, Metrics> old = previous != null && previous.hasSubMetrics() ? previous.getSubMetrics() : null;
+          MetricsGroup group = new MetricsGroup();
+          for (int i = 0; i < size; i++) {
+            String name = readString();
+            group.addSubMetrics(name, readNode(old != null ? old.get(name) : null));
+          }
+          return group;
+        }
+        case NODE_DATA: {
+          Map<String, Number> old = previous != null && previous.hasData() ? previous.getData() : null;
+          MetricsData data = new MetricsData();
+          for (int i = 0; i < size; i++) {
+            String key = readString();
+            data.addData(key, readValue(old != null ? old.get(key) : null));
+          }
+          return data;
+        }
+        case NODE_PRIMITIVE: {
+          PrimitiveMetricsData.Builder builder = PrimitiveMetricsData.builder(Math.max(1, size));
+          for (int i = 0; i < size; i++) {
+            String key = readString();
+            Number value = readValue(previous != null ? previous.getData(key) : null);
+            if (value instanceof Double) {
+              builder.addData(key, value.doubleValue());
+            } else {
+              builder.addData(key, value.longValue());
+            }
+          }
+          return builder.build();
+        }
+        default:
+          throw new MetricException("Invalid node type " + type);
+      }
+    }
+
+    private Number readValue(Number old) throws MetricException {
+      int tag = readByte();
+      boolean delta = (tag & VALUE_DELTA) != 0;
+      int type = tag & ~VALUE_DELTA;
+      switch (type) {
+        case VALUE_LONG:
+          return readLong(delta, old, Long.class);
+        case VALUE_INT:
+          return (int) readLong(delta, old, Integer.class);
+        case VALUE_SHORT:
+          return (short) readLong(delta, old, Short.class);
+        case VALUE_BYTE:
+          return (byte) readLong(delta, old, Byte.class);
+        case VALUE_DOUBLE:
+          if (delta) return (Double) previousValue(old, Double.class);
+          return Double.longBitsToDouble(readFixed(8));
+        case VALUE_FLOAT:
+          if (delta) return (Float) previousValue(old, Float.class);
+          return Float.intBitsToFloat((int) readFixed(4));
+        case VALUE_BIG_INTEGER:
+          return new BigInteger(readBytes());
+        case VALUE_BIG_DECIMAL:
+          int scale = (int) unzigzag(readVarint());
+          return new BigDecimal(new BigInteger(readBytes()), scale);
+        default:
+          throw new MetricException("Invalid value type " + tag);
+      }
+    }
+
+    private long readLong(boolean delta, Number old, Class<? extends Number> type) throws MetricException {
+      long value = unzigzag(readVarint());
+      return delta ? previousValue(old, type).longValue() + value : value;
+    }
+
+    private Number previousValue(Number old, Class<? extends Number> type) throws MetricException {
+      if (!type.isInstance(old)) throw new MetricException("Delta does not match previous snapshot");
+      return old;
+    }
+
+    private String readString() throws MetricException {
+      int reference = readSize();
+      if (reference == 0) {
+        String value = new String(readBytes(), StandardCharsets.UTF_8);
+        strings.add(value);
+        return value;
+      }
+      if (reference > strings.size()) throw new MetricException("Invalid string reference " + reference);
+      return strings.get(reference - 1);
+    }
+
+    private byte[] readBytes() throws MetricException {
+      int length = readSize();
+      require(length);
+      byte[] value = Arrays.copyOfRange(buffer, position, position + length);
+      position += length;
+      return value;
+    }
+
+    private int readSize() throws MetricException {
+      long value = readVarint();
+      if (value > buffer.length) throw new MetricException("Invalid size " + value);
+      return (int) value;
+    }
+
+    private long readVarint() throws MetricException {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        int b = readByte();
+        value |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) return value;
+      }
+      throw new MetricException("Invalid varint");
+    }
+
+    private long readFixed(int bytes) throws MetricException {
+      require(bytes);
+      long value = 0;
+      for (int i = 0; i < bytes; i++) {
+        value = (value << 8) | (buffer[position++] & 0xFF);
+      }
+      return value;
+    }
+
+    private int readByte() throws MetricException {
+      require(1);
+      return buffer[position++] & 0xFF;
+    }
+
+    private void require(int bytes) throws MetricException {
+      if (bytes > buffer.length - position) throw new MetricException("Unexpected end of data");
+    }
+  }
+
+  private static long zigzag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  private static long unzigzag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+}
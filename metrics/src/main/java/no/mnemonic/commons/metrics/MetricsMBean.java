@@ -0,0 +1,191 @@
+package no.mnemonic.commons.metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanRegistration;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dynamic MBean exposing the metrics of a {@link MetricAspect} as read-only attributes, one attribute per value,
+ * named by the path of the value in the metrics tree, see {@link FlatMetricsSink}.
+ *
+ * The metrics are not read when the MBean is registered, but when an attribute or the MBean info is read,
+ * and are then served for a time to live, so browsing all attributes of the MBean reads the metrics once.
+ * The MBean info is only rebuilt when the set of attributes changes. The MBean server reads the MBean info while
+ * registering the MBean, so the metrics are not read for the MBean info until the MBean is registered.
+ */
+class MetricsMBean implements DynamicMBean, MBeanRegistration {
+
+  private final MetricAspect aspect;
+  private final long timeToLive;
+  private final Flattener flattener = new Flattener();
+  private Map<String, Number> values;
+  private long refreshed;
+  private MBeanInfo info;
+  private boolean registered;
+
+  /**
+   * @param aspect           the aspect to expose the metrics of
+   * @param timeToLiveMillis how long to serve the metrics before reading them again
+   */
+  MetricsMBean(MetricAspect aspect, long timeToLiveMillis) {
+    if (aspect == null) throw new IllegalArgumentException("Aspect not set");
+    if (timeToLiveMillis < 0) throw new IllegalArgumentException("Time to live cannot be negative");
+    this.aspect = aspect;
+    this.timeToLive = TimeUnit.MILLISECONDS.toNanos(timeToLiveMillis);
+  }
+
+  //interface methods
+
+  @Override
+  public Object getAttribute(String attribute) throws AttributeNotFoundException, MBeanException {
+    Number value = values().get(attribute);
+    if (value == null) throw new AttributeNotFoundException("No such metric: " + attribute);
+    return value;
+  }
+
+  @Override
+  public AttributeList getAttributes(String[] attributes) {
+    AttributeList result = new AttributeList();
+    Map<String, Number> current;
+    try {
+      current = values();
+    } catch (MBeanException e) {
+      //as specified, attributes which cannot be read are left out
+      return result;
+    }
+    for (String attribute : attributes) {
+      Number value = current.get(attribute);
+      if (value != null) result.add(new Attribute(attribute, value));
+    }
+    return result;
+  }
+
+  @Override
+  public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+    throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+  }
+
+  @Override
+  public AttributeList setAttributes(AttributeList attributes) {
+    return new AttributeList();
+  }
+
+  @Override
+  public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+    throw new ReflectionException(new NoSuchMethodException(actionName), "Metrics have no operations");
+  }
+
+  @Override
+  public synchronized MBeanInfo getMBeanInfo() {
+    try {
+      if (registered) values();
+    } catch (MBeanException e) {
+      //serve the last known attributes, or none
+    }
+    if (info == null) info = buildInfo(values != null ? values : Map.of());
+    return info;
+  }
+
+  @Override
+  public ObjectName preRegister(MBeanServer server, ObjectName name) {
+    return name;
+  }
+
+  @Override
+  public synchronized void postRegister(Boolean registrationDone) {
+    registered = Boolean.TRUE.equals(registrationDone);
+  }
+
+  @Override
+  public void preDeregister() {
+    //do nothing
+  }
+
+  @Override
+  public synchronized void postDeregister() {
+    registered = false;
+  }
+
+  //private methods
+
+  /**
+   * @return the flattened metrics, read from the aspect if older than the time to live
+   */
+  private synchronized Map<String, Number> values() throws MBeanException {
+    long now = TimerContext.nanoTime();
+    if (values != null && now - refreshed < timeToLive) return values;
+    Map<String, Number> current;
+    try {
+      Metrics metrics = aspect.getMetrics();
+      if (metrics == null) throw new MetricException("Aspect returned no metrics");
+      current = flattener.flatten(metrics);
+    } catch (Exception e) {
+      throw new MBeanException(e, "Could not read metrics");
+    }
+    if (values == null || !values.keySet().equals(current.keySet()) || typesChanged(values, current)) info = null;
+    values = current;
+    refreshed = now;
+    return current;
+  }
+
+  private static boolean typesChanged(Map<String, Number> previous, Map<String, Number> current) {
+    for (Map.Entry<String, Number> e : current.entrySet()) {
+      if (previous.get(e.getKey()).getClass() != e.getValue().getClass()) return true;
+    }
+    return false;
+  }
+
+  private MBeanInfo buildInfo(Map<String, Number> current) {
+    MBeanAttributeInfo[] attributes = current.entrySet().stream()
+            .map(e -> new MBeanAttributeInfo(e.getKey(), e.getValue().getClass().getName(), e.getKey(), true, false, false))
+            .toArray(MBeanAttributeInfo[]::new);
+    Arrays.sort(attributes, (a, b) -> a.getName().compareTo(b.getName()));
+    return new MBeanInfo(getClass().getName(), "Metrics of " + aspect.getClass().getName(),
+            attributes, null, null, null);
+  }
+
+  /**
+   * Collects the values of a metrics tree by their path
+   */
+  private static class Flattener extends FlatMetricsSink {
+    private Map<String, Number> values;
+
+    private Map<String, Number> flatten(Metrics metrics) throws Exception {
+      values = new LinkedHashMap<>();
+      report(0, metrics);
+      return values;
+    }
+
+    @Override
+    protected void begin(long timestamp) {
+      //do nothing
+    }
+
+    @Override
+    protected void value(CharSequence path, long value) {
+      values.put(path.toString(), value);
+    }
+
+    @Override
+    protected void value(CharSequence path, double value) {
+      values.put(path.toString(), value);
+    }
+
+    @Override
+    protected void end() {
+      //do nothing
+    }
+  }
+}
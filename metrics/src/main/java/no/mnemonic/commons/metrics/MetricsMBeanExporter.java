@@ -0,0 +1,221 @@
+package no.mnemonic.commons.metrics;
+
+import no.mnemonic.commons.container.ComponentContainer;
+import no.mnemonic.commons.container.ContainerAware;
+import no.mnemonic.commons.container.ContainerListener;
+import no.mnemonic.commons.container.plugins.ComponentContainerPlugin;
+import no.mnemonic.commons.logging.Logger;
+import no.mnemonic.commons.logging.Logging;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An exporter of the metrics of all {@link MetricAspect} components in a {@link ComponentContainer} as JMX MBeans,
+ * to browse the metrics with JConsole or collect them with JMX based agents.
+ *
+ * Add the exporter as a bean to the container, and it registers itself as a plugin to find all other
+ * {@link MetricAspect} beans. When the container is started, each component is registered as a dynamic MBean named
+ * <code>DOMAIN:type=Metrics,name=BEAN</code>, with a read-only attribute per value in its metrics tree, named by
+ * the path of the value, such as <code>requests.count</code>. When the container is destroying, its MBeans are
+ * unregistered again. If the exporter is added to several containers, such as a parent and its child containers,
+ * it exports the components of each of them while that container is running. A component named like a component
+ * already exported is not exported, and destroying a container only unregisters the MBeans registered for it.
+ *
+ * The metrics of a component are not read when it is registered, but when its attributes are read,
+ * and are then served for a time to live, so reading all attributes of a component reads its metrics once,
+ * and an idle JMX connection costs nothing.
+ * Reading the metrics is done in the JMX thread reading the attributes, so wrap components with expensive metrics
+ * in a {@link CachedMetricAspect}.
+ */
+public class MetricsMBeanExporter implements ComponentContainerPlugin, ContainerAware, ContainerListener {
+
+  public static final String DEFAULT_DOMAIN = "no.mnemonic.commons.metrics";
+  public static final long DEFAULT_TIME_TO_LIVE_MILLIS = 1000;
+
+  private static final Logger LOGGER = Logging.getLogger(MetricsMBeanExporter.class);
+
+  private final String domain;
+  private final long timeToLiveMillis;
+  private final MBeanServer server;
+  private final Map<ComponentContainer, Map<String, MetricAspect>> containerComponents = new ConcurrentHashMap<>();
+  //the MBeans registered for the components of each running container, and for components added by hand
+  private final Map<ComponentContainer, Map<String, ObjectName>> containerMBeans = new ConcurrentHashMap<>();
+  private final Map<String, ObjectName> addedMBeans = new ConcurrentHashMap<>();
+  //the container currently registering plugins, which is made aware of its beans right before
+  private volatile ComponentContainer registeringContainer;
+
+  private MetricsMBeanExporter(Builder builder) {
+    if (builder.domain == null || builder.domain.isEmpty()) throw new IllegalArgumentException("Domain not set");
+    if (builder.timeToLiveMillis < 0) throw new IllegalArgumentException("Time to live cannot be negative");
+    if (builder.server == null) throw new IllegalArgumentException("MBeanServer not set");
+    this.domain = builder.domain;
+    this.timeToLiveMillis = builder.timeToLiveMillis;
+    this.server = builder.server;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  //interface methods
+
+  @Override
+  public boolean appliesTo(Object obj) {
+    return obj instanceof MetricAspect;
+  }
+
+  @Override
+  public void registerBeans(Map<String, Object> matchingBeans) {
+    ComponentContainer container = registeringContainer;
+    if (container == null) return;
+    Map<String, MetricAspect> components = containerComponents.computeIfAbsent(container, c -> new ConcurrentHashMap<>());
+    matchingBeans.forEach((name, bean) -> components.put(name, (MetricAspect) bean));
+  }
+
+  @Override
+  public void registerContainerAware(ComponentContainer parent) {
+    this.registeringContainer = parent;
+  }
+
+  @Override
+  public void notifyContainerStarted(ComponentContainer container) {
+    Map<String, MetricAspect> components = containerComponents.get(container);
+    if (components == null) return;
+    Map<String, ObjectName> mbeans = containerMBeans.computeIfAbsent(container, c -> new ConcurrentHashMap<>());
+    components.forEach((name, aspect) -> register(name, aspect, mbeans));
+  }
+
+  @Override
+  public void notifyContainerDestroying(ComponentContainer container) {
+    containerComponents.remove(container);
+    Map<String, ObjectName> mbeans = containerMBeans.remove(container);
+    if (mbeans != null) mbeans.values().forEach(this::unregister);
+  }
+
+  @Override
+  public void notifyContainerDestroyed(ComponentContainer container) {
+    //do nothing
+  }
+
+  @Override
+  public void notifyInitializingSubcontainer(ComponentContainer parent, ComponentContainer subcontainer) {
+    //do nothing
+  }
+
+  //public methods
+
+  /**
+   * Register a component as an MBean, in addition to the components found in containers
+   *
+   * @param name   name of the component
+   * @param aspect the component
+   * @return the exporter itself
+   */
+  public MetricsMBeanExporter addComponent(String name, MetricAspect aspect) {
+    if (name == null) throw new IllegalArgumentException("Name not set");
+    if (aspect == null) throw new IllegalArgumentException("Aspect not set");
+    register(name, aspect, addedMBeans);
+    return this;
+  }
+
+  /**
+   * Unregister the MBean of a component added by {@link #addComponent(String, MetricAspect)}
+   *
+   * @param name name of the component
+   * @return the exporter itself
+   */
+  public MetricsMBeanExporter removeComponent(String name) {
+    if (name == null) throw new IllegalArgumentException("Name not set");
+    ObjectName objectName = addedMBeans.remove(name);
+    if (objectName != null) unregister(objectName);
+    return this;
+  }
+
+  /**
+   * @param name name of a component
+   * @return the name of the MBean exposing the metrics of the component
+   */
+  public ObjectName getObjectName(String name) {
+    try {
+      return new ObjectName(domain + ":type=Metrics,name=" + ObjectName.quote(name));
+    } catch (MalformedObjectNameException e) {
+      throw new IllegalArgumentException("Invalid name: " + name, e);
+    }
+  }
+
+  //private methods
+
+  /**
+   * Register the MBean of a component, and remember it in the given map if it was registered
+   */
+  private void register(String name, MetricAspect aspect, Map<String, ObjectName> mbeans) {
+    ObjectName objectName = getObjectName(name);
+    try {
+      server.registerMBean(new MetricsMBean(aspect, timeToLiveMillis), objectName);
+      mbeans.put(name, objectName);
+    } catch (InstanceAlreadyExistsException e) {
+      LOGGER.warning("MBean %s is already registered, not exporting metrics of %s", objectName, name);
+    } catch (JMException e) {
+      LOGGER.warning(e, "Could not register MBean %s", objectName);
+    }
+  }
+
+  private void unregister(ObjectName objectName) {
+    try {
+      server.unregisterMBean(objectName);
+    } catch (JMException e) {
+      LOGGER.warning(e, "Could not unregister MBean %s", objectName);
+    }
+  }
+
+  /**
+   * Builder for creating a {@link MetricsMBeanExporter}
+   */
+  public static class Builder {
+    private String domain = DEFAULT_DOMAIN;
+    private long timeToLiveMillis = DEFAULT_TIME_TO_LIVE_MILLIS;
+    private MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    private Builder() {
+    }
+
+    public MetricsMBeanExporter build() {
+      return new MetricsMBeanExporter(this);
+    }
+
+    /**
+     * @param domain the domain of the MBean names, defaults to {@value MetricsMBeanExporter#DEFAULT_DOMAIN}
+     * @return builder
+     */
+    public Builder setDomain(String domain) {
+      this.domain = domain;
+      return this;
+    }
+
+    /**
+     * @param timeToLiveMillis how long to serve the metrics of a component before reading them again,
+     *                         defaults to {@value MetricsMBeanExporter#DEFAULT_TIME_TO_LIVE_MILLIS}
+     * @return builder
+     */
+    public Builder setTimeToLiveMillis(long timeToLiveMillis) {
+      this.timeToLiveMillis = timeToLiveMillis;
+      return this;
+    }
+
+    /**
+     * @param server the MBean server to register the MBeans with, defaults to the platform MBean server
+     * @return builder
+     */
+    public Builder setMBeanServer(MBeanServer server) {
+      this.server = server;
+      return this;
+    }
+  }
+}
@@ -0,0 +1,278 @@
+package no.mnemonic.commons.metrics;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Calculator turning successive snapshots of monotonically increasing totals, such as
+ * {@link PerformanceMonitor#getTotalInvocations()}, into deltas and per-second rates.
+ *
+ * Each call to {@link #update(Metrics)} returns a tree with the same structure as the snapshot, where each value
+ * <code>key</code> present in both the previous and the current snapshot is replaced by the values
+ * <code>key{@value #DELTA_SUFFIX}</code>, the increase since the previous snapshot,
+ * and <code>key{@value #RATE_SUFFIX}</code>, the increase per second.
+ * Values seen for the first time have no deltas until the next snapshot, and values which are missing
+ * from a snapshot are forgotten. A value lower than the previous value is taken as a counter reset,
+ * so its delta is the value itself, as the increase from zero.
+ *
+ * Example:
+ * <code>
+ *   MetricsRateCalculator rates = MetricsRateCalculator.builder()
+ *           .setFilter(path -&gt; path.endsWith("total"))
+ *           .build();
+ *
+ *   //on each collection
+ *   Metrics current = rates.update(collector.getMetrics());
+ * </code>
+ *
+ * The calculator keeps the last value of each series, in a tree of paths cached between updates,
+ * so its memory use is constant per series. Values of a {@link PrimitiveMetricsData} are matched to
+ * their series by position, and are read without boxing.
+ * Time is measured using the monotonic ticker of {@link TimerContext}. Updates are synchronized.
+ */
+public class MetricsRateCalculator {
+
+  public static final String DELTA_SUFFIX = ".delta";
+  public static final String RATE_SUFFIX = ".rate";
+
+  private final Predicate<String> filter;
+  private final Node root = new Node(null);
+  private long generation;
+  private long lastUpdate;
+
+  private MetricsRateCalculator(Builder builder) {
+    if (builder.filter == null) throw new IllegalArgumentException("Filter not set");
+    this.filter = builder.filter;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  //public methods
+
+  /**
+   * Calculate the deltas and rates of the snapshot, relative to the snapshot of the previous update
+   *
+   * @param snapshot current snapshot of the totals
+   * @return the deltas and rates of all values present in both snapshots
+   */
+  public synchronized Metrics update(Metrics snapshot) {
+    if (snapshot == null) throw new IllegalArgumentException("Snapshot not set");
+    long now = TimerContext.nanoTime();
+    double seconds = generation > 0 ? (now - lastUpdate) / (double) TimeUnit.SECONDS.toNanos(1) : 0;
+    generation++;
+    lastUpdate = now;
+    Metrics result;
+    try {
+      result = update(root, snapshot, seconds);
+    } catch (MetricException e) {
+      //keys of existing metrics are never empty
+      throw new IllegalStateException(e);
+    }
+    root.evict(generation);
+    return result != null ? result : new MetricsGroup();
+  }
+
+  //private methods
+
+  private Metrics update(Node node, Metrics snapshot, double seconds) throws MetricException {
+    if (snapshot instanceof PrimitiveMetricsData) {
+      PrimitiveMetricsData data = (PrimitiveMetricsData) snapshot;
+      PrimitiveMetricsData.Builder builder = null;
+      for (int i = 0; i < data.size(); i++) {
+        Series series = node.series(i, data.getKey(i), generation, filter);
+        if (series == null) continue;
+        boolean decimal = data.isDouble(i);
+        builder = decimal ? series.update(data.getDouble(i), seconds, builder) : series.update(data.getLong(i), seconds, builder);
+      }
+      return builder != null ? builder.build() : null;
+    }
+    if (snapshot.hasData() && snapshot.getData() != null) {
+      PrimitiveMetricsData.Builder builder = null;
+      for (Map.Entry<String, Number> e : snapshot.getData().entrySet()) {
+        Number value = e.getValue();
+        Series series = value != null ? node.series(e.getKey(), generation, filter) : null;
+        if (series == null) continue;
+        boolean decimal = !(value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte);
+        builder = decimal ? series.update(value.doubleValue(), seconds, builder) : series.update(value.longValue(), seconds, builder);
+      }
+      return builder != null ? builder.build() : null;
+    }
+    if (snapshot.hasSubMetrics() && snapshot.getSubMetrics() != null) {
+      MetricsGroup group = null;
+      for (Map.Entry<String, Metrics> e : snapshot.getSubMetrics().entrySet()) {
+        if (e.getValue() == null) continue;
+        Metrics child = update(node.child(e.getKey(), generation), e.getValue(), seconds);
+        if (child == null) continue;
+        if (group == null) group = new MetricsGroup();
+        group.addSubMetrics(e.getKey(), child);
+      }
+      return group;
+    }
+    return null;
+  }
+
+  /**
+   * Cached path of the snapshot tree, with the series of its values
+   */
+  private static class Node {
+    private final String path;
+    private final Map<String, Node> children = new HashMap<>();
+    private final Map<String, Series> series = new HashMap<>();
+    //series by position in the last PrimitiveMetricsData at this path
+    private Series[] positions = new Series[0];
+    private long generation;
+
+    private Node(String path) {
+      this.path = path;
+    }
+
+    private Node child(String name, long generation) {
+      Node child = children.get(name);
+      if (child == null) {
+        child = new Node(childPath(name));
+        children.put(name, child);
+      }
+      child.generation = generation;
+      return child;
+    }
+
+    /**
+     * @return the series of the key, or null if the key is not a counter
+     */
+    private Series series(String key, long generation, Predicate<String> filter) {
+      Series result = series.get(key);
+      if (result == null) {
+        result = new Series(key, filter.test(childPath(key)));
+        series.put(key, result);
+      } else if (result.generation == generation) {
+        //skip repeated keys of a PrimitiveMetricsData
+        return null;
+      }
+      result.generation = generation;
+      return result.counter ? result : null;
+    }
+
+    /**
+     * @return the series of the key at the position, or null if the key is not a counter
+     */
+    private Series series(int position, String key, long generation, Predicate<String> filter) {
+      if (position < positions.length) {
+        Series cached = positions[position];
+        //keys of a PrimitiveMetricsData are usually the same instances on each update, so check identity first
+        if (cached != null && (cached.key == key || cached.key.equals(key))) {
+          if (cached.generation == generation) return null;
+          cached.generation = generation;
+          return cached.counter ? cached : null;
+        }
+      } else {
+        positions = Arrays.copyOf(positions, position + 1);
+      }
+      Series result = series(key, generation, filter);
+      positions[position] = series.get(key);
+      return result;
+    }
+
+    private String childPath(String name) {
+      return path != null ? path + "." + name : name;
+    }
+
+    /**
+     * Remove all children and series not present in the given generation
+     */
+    private void evict(long generation) {
+      series.values().removeIf(s -> s.generation != generation);
+      for (int i = 0; i < positions.length; i++) {
+        if (positions[i] != null && positions[i].generation != generation) positions[i] = null;
+      }
+      children.values().removeIf(child -> child.generation != generation);
+      for (Node child : children.values()) {
+        child.evict(generation);
+      }
+    }
+  }
+
+  /**
+   * Last value of a single counter
+   */
+  private static class Series {
+    private final String key;
+    private final String deltaKey;
+    private final String rateKey;
+    private final boolean counter;
+    private long generation;
+    private boolean initialized;
+    private boolean decimal;
+    private long lastLong;
+    private double lastDouble;
+
+    private Series(String key, boolean counter) {
+      this.key = key;
+      this.deltaKey = key + DELTA_SUFFIX;
+      this.rateKey = key + RATE_SUFFIX;
+      this.counter = counter;
+    }
+
+    private PrimitiveMetricsData.Builder update(long value, double seconds, PrimitiveMetricsData.Builder builder) throws MetricException {
+      if (initialized && !decimal) {
+        //treat a decrease as a counter reset, counting from zero
+        long delta = value >= lastLong ? value - lastLong : value;
+        builder = builder != null ? builder : PrimitiveMetricsData.builder();
+        builder.addData(deltaKey, delta);
+        builder.addData(rateKey, seconds > 0 ? delta / seconds : 0);
+      } else if (initialized) {
+        builder = addDouble(value, seconds, builder);
+      }
+      initialized = true;
+      decimal = false;
+      lastLong = value;
+      return builder;
+    }
+
+    private PrimitiveMetricsData.Builder update(double value, double seconds, PrimitiveMetricsData.Builder builder) throws MetricException {
+      if (initialized) builder = addDouble(value, seconds, builder);
+      initialized = true;
+      decimal = true;
+      lastDouble = value;
+      return builder;
+    }
+
+    private PrimitiveMetricsData.Builder addDouble(double value, double seconds, PrimitiveMetricsData.Builder builder) throws MetricException {
+      double last = decimal ? lastDouble : lastLong;
+      double delta = value >= last ? value - last : value;
+      builder = builder != null ? builder : PrimitiveMetricsData.builder();
+      builder.addData(deltaKey, delta);
+      builder.addData(rateKey, seconds > 0 ? delta / seconds : 0);
+      return builder;
+    }
+  }
+
+  /**
+   * Builder for creating a {@link MetricsRateCalculator}
+   */
+  public static class Builder {
+    private Predicate<String> filter = path -> true;
+
+    private Builder() {
+    }
+
+    public MetricsRateCalculator build() {
+      return new MetricsRateCalculator(this);
+    }
+
+    /**
+     * @param filter predicate selecting the values to calculate deltas and rates for, given the path of each value
+     *               as the names of the groups on the path to it and its key, separated by dots.
+     *               Defaults to all values. The filter is called once for each new path.
+     * @return builder
+     */
+    public Builder setFilter(Predicate<String> filter) {
+      this.filter = filter;
+      return this;
+    }
+  }
+}
@@ -0,0 +1,295 @@
+package no.mnemonic.commons.metrics;
+
+import no.mnemonic.commons.component.LifecycleAspect;
+import no.mnemonic.commons.logging.Logger;
+import no.mnemonic.commons.logging.Logging;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Component reporting the metrics of a set of {@link MetricAspect}s to a set of {@link MetricsSink}s at a fixed rate.
+ *
+ * Example:
+ * <code>
+ *   MetricsReporter reporter = MetricsReporter.builder()
+ *           .addMetrics("service", service)
+ *           .addSink(new JsonLinesMetricsSink(Paths.get("metrics.jsonl")))
+ *           .addSink(StatsdMetricsSink.builder().setPrefix("myapp").build())
+ *           .setIntervalMillis(10000)
+ *           .build();
+ * </code>
+ *
+ * When started, the reporter takes a snapshot of all aspects on each interval using a dedicated thread,
+ * as a {@link MetricsGroup} with the metrics of each aspect keyed by its name. Aspects failing to return
+ * their metrics are logged and left out of the snapshot.
+ * Each sink reports snapshots on its own thread, so a slow sink does not delay the snapshots or the other sinks.
+ * A sink holds at most one pending snapshot: if it is still reporting when the next snapshot is taken,
+ * the pending snapshot is replaced by the newer one, so a sink falling behind skips snapshots instead of
+ * building a backlog. Skipped snapshots are counted in the metrics of the reporter itself.
+ * When stopped, the reporter waits for the sinks to finish reporting before closing them. Closed sinks cannot be
+ * reopened, so a stopped reporter cannot be started again, and snapshots taken after stopping are skipped.
+ */
+public class MetricsReporter implements LifecycleAspect, MetricAspect {
+
+  public static final long DEFAULT_INTERVAL_MILLIS = 60000;
+  private static final long STOP_TIMEOUT_SECONDS = 10;
+
+  private static final Logger LOGGER = Logging.getLogger(MetricsReporter.class);
+
+  private final long intervalMillis;
+  private final Map<String, MetricAspect> aspects;
+  private final List<SinkWorker> sinks = new ArrayList<>();
+  private final LongAdder snapshots = new LongAdder();
+  private final LongAdder aspectFailures = new LongAdder();
+  private ScheduledExecutorService scheduler;
+  private boolean stopped;
+
+  private MetricsReporter(Builder builder) {
+    if (builder.intervalMillis < 1) throw new IllegalArgumentException("Interval must be positive");
+    if (builder.sinks.isEmpty()) throw new IllegalArgumentException("Sinks not set");
+    this.intervalMillis = builder.intervalMillis;
+    this.aspects = Collections.unmodifiableMap(new LinkedHashMap<>(builder.aspects));
+    for (MetricsSink sink : builder.sinks) {
+      sinks.add(new SinkWorker(sink));
+    }
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  //interface methods
+
+  @Override
+  public synchronized void startComponent() {
+    if (stopped) throw new IllegalStateException("Reporter cannot be started again after being stopped");
+    if (scheduler != null) return;
+    scheduler = Executors.newSingleThreadScheduledExecutor(r -> thread(r, "metrics-reporter"));
+    for (int i = 0; i < sinks.size(); i++) {
+      sinks.get(i).start("metrics-reporter-sink-" + i);
+    }
+    scheduler.scheduleAtFixedRate(this::report, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public synchronized void stopComponent() {
+    if (stopped) return;
+    stopped = true;
+    if (scheduler != null) {
+      scheduler.shutdown();
+      await(scheduler);
+      scheduler = null;
+    }
+    for (SinkWorker sink : sinks) {
+      sink.stop();
+    }
+  }
+
+  /**
+   * @return the number of snapshots taken and aspects failing, along with the number of snapshots reported,
+   * skipped and failed by all sinks
+   */
+  @Override
+  public Metrics getMetrics() throws MetricException {
+    long reported = 0;
+    long skipped = 0;
+    long failed = 0;
+    for (SinkWorker sink : sinks) {
+      reported += sink.reported.sum();
+      skipped += sink.skipped.sum();
+      failed += sink.failed.sum();
+    }
+    return PrimitiveMetricsData.builder()
+            .addData("snapshots", snapshots.sum())
+            .addData("aspectFailures", aspectFailures.sum())
+            .addData("reported", reported)
+            .addData("skipped", skipped)
+            .addData("failed", failed)
+            .build();
+  }
+
+  //public methods
+
+  /**
+   * Take a snapshot of all aspects now, and pass it to the sinks.
+   * This is done at each interval when the reporter is started.
+   */
+  public void report() {
+    MetricsGroup snapshot = new MetricsGroup();
+    aspects.forEach((name, aspect) -> {
+      try {
+        Metrics metrics = aspect.getMetrics();
+        if (metrics != null) snapshot.addSubMetrics(name, metrics);
+      } catch (Exception e) {
+        aspectFailures.increment();
+        LOGGER.warning(e, "Error collecting metrics from %s", name);
+      }
+    });
+    snapshots.increment();
+    Snapshot s = new Snapshot(System.currentTimeMillis(), snapshot);
+    for (SinkWorker sink : sinks) {
+      sink.offer(s);
+    }
+  }
+
+  //private methods
+
+  private static Thread thread(Runnable r, String name) {
+    Thread thread = new Thread(r, name);
+    thread.setDaemon(true);
+    return thread;
+  }
+
+  private static void await(ExecutorService executor) {
+    try {
+      if (!executor.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        LOGGER.warning("Timed out waiting for metrics reporter to stop");
+        executor.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      executor.shutdownNow();
+    }
+  }
+
+  private static class Snapshot {
+    private final long timestamp;
+    private final Metrics metrics;
+
+    private Snapshot(long timestamp, Metrics metrics) {
+      this.timestamp = timestamp;
+      this.metrics = metrics;
+    }
+  }
+
+  /**
+   * Reports snapshots to a single sink on its own thread, holding at most one pending snapshot
+   */
+  private static class SinkWorker {
+    private final MetricsSink sink;
+    private final AtomicReference<Snapshot> pending = new AtomicReference<>();
+    private final LongAdder reported = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private volatile ExecutorService executor;
+    private volatile boolean closed;
+
+    private SinkWorker(MetricsSink sink) {
+      this.sink = sink;
+    }
+
+    private void start(String name) {
+      executor = Executors.newSingleThreadExecutor(r -> thread(r, name));
+    }
+
+    private void stop() {
+      closed = true;
+      ExecutorService current = executor;
+      executor = null;
+      if (current != null) {
+        current.shutdown();
+        await(current);
+      }
+      try {
+        sink.close();
+      } catch (IOException e) {
+        LOGGER.warning(e, "Error closing metrics sink");
+      }
+    }
+
+    private void offer(Snapshot snapshot) {
+      if (closed) {
+        skipped.increment();
+        return;
+      }
+      //only schedule a report when there was no pending snapshot, the scheduled report takes the newest snapshot
+      if (pending.getAndSet(snapshot) != null) {
+        skipped.increment();
+        return;
+      }
+      ExecutorService current = executor;
+      try {
+        if (current != null) {
+          current.execute(this::drain);
+        } else {
+          //not started, report in the calling thread
+          drain();
+        }
+      } catch (RejectedExecutionException e) {
+        //stopping
+        if (pending.getAndSet(null) != null) skipped.increment();
+      }
+    }
+
+    private void drain() {
+      Snapshot snapshot = pending.getAndSet(null);
+      if (snapshot == null) return;
+      try {
+        sink.report(snapshot.timestamp, snapshot.metrics);
+        reported.increment();
+      } catch (Exception e) {
+        failed.increment();
+        LOGGER.warning(e, "Error reporting metrics to %s", sink.getClass().getSimpleName());
+      }
+    }
+  }
+
+  /**
+   * Builder for creating a {@link MetricsReporter}
+   */
+  public static class Builder {
+    private final Map<String, MetricAspect> aspects = new LinkedHashMap<>();
+    private final List<MetricsSink> sinks = new ArrayList<>();
+    private long intervalMillis = DEFAULT_INTERVAL_MILLIS;
+
+    private Builder() {
+    }
+
+    public MetricsReporter build() {
+      return new MetricsReporter(this);
+    }
+
+    /**
+     * @param name   name of the metrics in the snapshots
+     * @param aspect aspect to report the metrics of
+     * @return builder
+     */
+    public Builder addMetrics(String name, MetricAspect aspect) {
+      if (name == null) throw new IllegalArgumentException("Name not set");
+      if (aspect == null) throw new IllegalArgumentException("Aspect not set");
+      aspects.put(name, aspect);
+      return this;
+    }
+
+    /**
+     * @param sink sink to report snapshots to
+     * @return builder
+     */
+    public Builder addSink(MetricsSink sink) {
+      if (sink == null) throw new IllegalArgumentException("Sink not set");
+      sinks.add(sink);
+      return this;
+    }
+
+    /**
+     * @param intervalMillis interval between snapshots in milliseconds, defaults to {@value MetricsReporter#DEFAULT_INTERVAL_MILLIS}
+     * @return builder
+     */
+    public Builder setIntervalMillis(long intervalMillis) {
+      this.intervalMillis = intervalMillis;
+      return this;
+    }
+  }
+}
@@ -0,0 +1,29 @@
+package no.mnemonic.commons.metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A destination for metrics snapshots reported by a {@link MetricsReporter}
+ */
+public interface MetricsSink extends Closeable {
+
+  /**
+   * Report a snapshot of metrics. The reporter calls this method from a single thread per sink.
+   *
+   * @param timestamp time of the snapshot, in milliseconds since the epoch
+   * @param metrics   the snapshot
+   * @throws IOException if the snapshot could not be reported
+   */
+  void report(long timestamp, Metrics metrics) throws IOException;
+
+  /**
+   * Release any resources held by the sink
+   *
+   * @throws IOException if releasing resources fails
+   */
+  @Override
+  default void close() throws IOException {
+    //do nothing
+  }
+}
@@ -1,17 +1,15 @@
 package no.mnemonic.commons.metrics;
 
+import jdk.jfr.EventType;
 import no.mnemonic.commons.logging.Logger;
 import no.mnemonic.commons.logging.Logging;
-import no.mnemonic.commons.utilities.AppendMembers;
-import no.mnemonic.commons.utilities.AppendUtils;
 
 import java.io.Serializable;
 import java.time.Clock;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.LongAdder;
-import java.util.stream.Stream;
 
 /**
  * A PerformanceMonitor is a utility to simplify collecting invocation count and timing stats.
@@ -36,21 +34,99 @@ import java.util.stream.Stream;
  *   metrics.addMetric("invocationsPerSec10secAverage", codeBlockMonitor.getInvocationsPerSecondLast(TimeUnit.Seconds, 10));
  *   metrics.addMetric("invocationsPerSec60secAverage", codeBlockMonitor.getInvocationsPerSecondLast(TimeUnit.Seconds, 60));
  * </code>
+ *
+ * By default, timeslots are kept in a linked list, and all access is synchronized on the monitor.
+ * For monitors on hot code paths, use {@link StorageMode#RING_BUFFER}, which keeps timeslots in a fixed-size array of
+ * preallocated slots. This makes registering invocations lock-free and allocation-free, and the monitor keeps
+ * cumulative totals, so querying the invocations or time spent within a timeframe is a constant-time lookup
+ * which does not lock or allocate, regardless of the length of the timeframe.
+ * Use {@link #getWindowsLast(TimeUnit, long...)} to query several timeframes from one consistent view of the monitor.
+ *
+ * <code>
+ *   PerformanceMonitor codeBlockMonitor = PerformanceMonitor.builder()
+ *           .setTimeUnit(TimeUnit.SECONDS)
+ *           .setMemory(600)
+ *           .setResolution(1)
+ *           .setStorageMode(PerformanceMonitor.StorageMode.RING_BUFFER)
+ *           .build();
+ * </code>
+ *
+ * To query latency percentiles within the memory window, enable timeslot histograms using
+ * {@link Builder#setHistogramEnabled(boolean)}. Each timeslot then keeps a {@link Histogram} of the time spent per invocation,
+ * and queries merge the histograms of all timeslots within the queried timeframe.
+ * <p>
+ * Each timeslot histogram holds <code>(floor(log2(highestTrackableValue)) - precision + 2) * 2^precision</code>
+ * counters of 8 bytes. With the defaults (values up to 1 hour in milliseconds, with 3 bits of precision)
+ * this is 160 counters, about 1.4 KB per timeslot, or about 840 KB for a monitor with 10 minutes of memory
+ * and a resolution of 1 second. Use {@link Builder#setHistogramPrecision(int)} and
+ * {@link Builder#setHistogramHighestTrackableValue(long)} to reduce this.
+ * Histograms are only allocated for timeslots in which timed invocations are registered,
+ * so idle monitors do not hold any histograms, also when they are queried.
+ * <p>
+ * To keep a long memory without keeping a fine resolution for all of it, add coarser tiers using
+ * {@link Builder#addTier(TimeUnit, long, long)}. Timeslots expiring from one tier are rolled up into the timeslot
+ * of the next tier covering the same time, including their histograms. Queries include all tiers, so the
+ * <code>get*Last</code> methods use the finest resolution still kept for each part of the queried timeframe.
+ * Tiers require {@link StorageMode#RING_BUFFER}.
+ *
+ * <code>
+ *   //1 second resolution for 10 minutes, 1 minute resolution for 6 hours and 10 minute resolution for 7 days
+ *   PerformanceMonitor codeBlockMonitor = PerformanceMonitor.builder()
+ *           .setTimeUnit(TimeUnit.SECONDS)
+ *           .setMemory(600)
+ *           .setResolution(1)
+ *           .setStorageMode(PerformanceMonitor.StorageMode.RING_BUFFER)
+ *           .addTier(TimeUnit.MINUTES, 360, 1)
+ *           .addTier(TimeUnit.MINUTES, 7 * 24 * 60, 10)
+ *           .build();
+ * </code>
+ *
+ * This keeps about 2000 timeslots, instead of the 604800 timeslots needed for 7 days at 1 second resolution.
+ * The resolution of each tier must be a multiple of the resolution of the previous tier, and the memory of each tier
+ * must be greater than the memory of the previous tier.
+ * <p>
+ * On hosts with many cores, threads registering invocations on the same monitor still share its counters.
+ * Use {@link Builder#setShards(int)} to split the monitor into a number of independent rings, where each thread
+ * registers into the ring given by a hash of its thread id, and queries merge all rings. Memory use and query cost
+ * grow with the number of shards, so only shard monitors which are registered to by many threads concurrently.
+ * <p>
+ * Monitors given a name using {@link Builder#setName(String)} also emit a JDK Flight Recorder event named
+ * <code>no.mnemonic.commons.metrics.PerformanceMonitor</code> for each registration when the event is enabled
+ * in a running recording, carrying the name, invocations and time spent.
  */
 @SuppressWarnings("WeakerAccess")
 public class PerformanceMonitor implements Serializable {
 
   private static Logger LOGGER = Logging.getLogger(PerformanceMonitor.class);
 
+  public static final int DEFAULT_HISTOGRAM_PRECISION = 3;
+  public static final long DEFAULT_HISTOGRAM_HIGHEST_TRACKABLE_VALUE = TimeUnit.HOURS.toMillis(1);
+
   private static Clock clock = Clock.systemUTC();
   private final long resolution;
   private final long memory;
+  private final boolean histogramEnabled;
+  private final String name;
 
   //variables
-  private final LinkedList<DataPoint> datapoints = new LinkedList<>();
+  private final SlotStorage storage;
   private final LongAdder totalInvocations = new LongAdder();
   private final LongAdder totalTimeSpent = new LongAdder();
 
+  /**
+   * Storage modes for the timeslots of a monitor
+   */
+  public enum StorageMode {
+    /**
+     * Keep timeslots in a linked list, synchronizing all access on the monitor
+     */
+    LINKED_LIST,
+    /**
+     * Keep timeslots in a fixed-size ring of preallocated slots, allowing lock-free and allocation-free access
+     */
+    RING_BUFFER
+  }
+
   /**
    * @param timeUnit   the timeUnit used for memory and resolution
    * @param memory     the number of timeUnits this monitor remembers
@@ -58,24 +134,63 @@ public class PerformanceMonitor implements Serializable {
    */
   @SuppressWarnings("WeakerAccess")
   public PerformanceMonitor(TimeUnit timeUnit, long memory, long resolution) {
-    if (timeUnit == null) throw new IllegalArgumentException("TimeUnit not set");
-    if (resolution < 1) throw new IllegalArgumentException("Resolution invalid");
-    if (memory <= resolution) throw new IllegalArgumentException("Memory must be greater than resolution");
-    this.memory = timeUnit.toMillis(memory);
-    this.resolution = timeUnit.toMillis(resolution);
+    this(builder().setTimeUnit(timeUnit).setMemory(memory).setResolution(resolution));
+  }
+
+  private PerformanceMonitor(Builder builder) {
+    if (builder.timeUnit == null) throw new IllegalArgumentException("TimeUnit not set");
+    if (builder.storageMode == null) throw new IllegalArgumentException("StorageMode not set");
+    if (builder.resolution < 1) throw new IllegalArgumentException("Resolution invalid");
+    if (builder.memory <= builder.resolution) throw new IllegalArgumentException("Memory must be greater than resolution");
+    if (!builder.tiers.isEmpty() && builder.storageMode != StorageMode.RING_BUFFER) {
+      throw new IllegalArgumentException("Tiers require storage mode " + StorageMode.RING_BUFFER);
+    }
+    if (builder.shards < 1) throw new IllegalArgumentException("Shards must be positive");
+    if (builder.shards > 1 && builder.storageMode != StorageMode.RING_BUFFER) {
+      throw new IllegalArgumentException("Shards require storage mode " + StorageMode.RING_BUFFER);
+    }
+    long memory = builder.timeUnit.toMillis(builder.memory);
+    this.resolution = builder.timeUnit.toMillis(builder.resolution);
+    this.histogramEnabled = builder.histogramEnabled;
+    this.name = builder.name;
+    SlotHistograms histograms = builder.histogramEnabled
+            ? new SlotHistograms(builder.histogramHighestTrackableValue, builder.histogramPrecision)
+            : null;
+    if (builder.storageMode == StorageMode.RING_BUFFER) {
+      RingSlotStorage[] shards = new RingSlotStorage[builder.shards];
+      for (int i = 0; i < shards.length; i++) {
+        shards[i] = new RingSlotStorage(memory, this.resolution, histograms, createTiers(builder.tiers, histograms));
+      }
+      this.memory = shards[0].getTotalMemory();
+      this.storage = shards.length > 1 ? new ShardedSlotStorage(shards) : shards[0];
+    } else {
+      this.memory = memory;
+      this.storage = new LinkedSlotStorage(memory, this.resolution, histograms);
+    }
+  }
+
+  public static Builder builder() {
+    return new Builder();
   }
 
   //public methods
 
   /**
-   * @return the configured resolution for this monitor, in milliseconds
+   * @return the name of this monitor in Flight Recorder events, or null if not set
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return the configured resolution for this monitor, in milliseconds. If tiers are added, this is the resolution of the first tier.
    */
   public long getResolution() {
     return resolution;
   }
 
   /**
-   * @return the configured memory period for this monitor, in milliseconds
+   * @return the configured memory period for this monitor, in milliseconds. If tiers are added, this is the memory of the last tier.
    */
   public long getMemory() {
     return memory;
@@ -102,7 +217,9 @@ public class PerformanceMonitor implements Serializable {
    * @return the monitor itself
    */
   public PerformanceMonitor invoked() {
-    invoked(0);
+    storage.add(clock.millis(), 1, 0, false);
+    totalInvocations.add(1);
+    if (name != null) emitEvent(1, 0);
     return this;
   }
 
@@ -122,6 +239,7 @@ public class PerformanceMonitor implements Serializable {
   /**
    * Register invocations and execution time. This will add the given number of invocations and milliseconds of execution time
    * to the current timeslot.
+   * If timeslot histograms are enabled, the average time spent per invocation is recorded once per invocation.
    *
    * @param invocations number of invocations to add
    * @param timeSpentInMillis time spent for these invocations, in milliseconds
@@ -129,14 +247,11 @@ public class PerformanceMonitor implements Serializable {
    */
   @SuppressWarnings("UnusedReturnValue")
   public PerformanceMonitor invoked(long invocations, long timeSpentInMillis) {
-    synchronized (this) {
-      DataPoint d = getOrCreateHead();
-      d.invocations.add(invocations);
-      d.timeSpent.add(timeSpentInMillis);
-      totalInvocations.add(invocations);
-      totalTimeSpent.add(timeSpentInMillis);
-      return this;
-    }
+    storage.add(clock.millis(), invocations, timeSpentInMillis, true);
+    totalInvocations.add(invocations);
+    totalTimeSpent.add(timeSpentInMillis);
+    if (name != null) emitEvent(invocations, timeSpentInMillis);
+    return this;
   }
 
   /**
@@ -149,7 +264,8 @@ public class PerformanceMonitor implements Serializable {
    * @return the sum of invocations registered within the specified timeframe
    */
   public long getInvocationsLast(TimeUnit timeUnit, long timeframe) {
-    return reducedTimeframeStream(timeUnit.toMillis(timeframe)).invocations;
+    long now = clock.millis();
+    return storage.sumInvocations(now, firstTime(now, timeUnit.toMillis(timeframe)));
   }
 
   /**
@@ -163,7 +279,8 @@ public class PerformanceMonitor implements Serializable {
    */
   @SuppressWarnings("SameParameterValue")
   public long getTimeSpentLast(TimeUnit timeUnit, long timeframe) {
-    return reducedTimeframeStream(timeUnit.toMillis(timeframe)).timeSpent;
+    long now = clock.millis();
+    return storage.sumTimeSpent(now, firstTime(now, timeUnit.toMillis(timeframe)));
   }
 
   /**
@@ -179,7 +296,7 @@ public class PerformanceMonitor implements Serializable {
   @SuppressWarnings("SameParameterValue")
   public double getTimeSpentPerSecondLast(TimeUnit timeUnit, long timeframe) {
     long seconds = timeUnit.toSeconds(timeframe);
-    return reducedTimeframeStream(timeUnit.toMillis(timeframe)).timeSpent / ((double)seconds);
+    return getTimeSpentLast(timeUnit, timeframe) / ((double)seconds);
   }
 
   /**
@@ -193,8 +310,7 @@ public class PerformanceMonitor implements Serializable {
    */
   @SuppressWarnings("SameParameterValue")
   public double getTimeSpentPerInvocationLast(TimeUnit timeUnit, long timeframe) {
-    Data reduced = reducedTimeframeStream(timeUnit.toMillis(timeframe));
-    return reduced.timeSpent / ((double)reduced.invocations);
+    return getWindowsLast(timeUnit, timeframe).getTimeSpentPerInvocation(0);
   }
 
   /**
@@ -210,100 +326,322 @@ public class PerformanceMonitor implements Serializable {
   @SuppressWarnings("SameParameterValue")
   public double getInvocationsPerSecondLast(TimeUnit timeUnit, long timeframe) {
     long seconds = timeUnit.toSeconds(timeframe);
-    return reducedTimeframeStream(timeUnit.toMillis(timeframe)).invocations / ((double)seconds);
+    return getInvocationsLast(timeUnit, timeframe) / ((double)seconds);
   }
 
-  //private methods
+  /**
+   * Query the memory for registered invocations and execution time within several timeframes at once.
+   * All timeframes are computed from the same point in time, and from one consistent view of the memory,
+   * so a longer timeframe never reports fewer invocations than a shorter one.
+   * If a timeframe goes beyond the memory window, the timeslots outside the memory window will be ignored.
+   *
+   * <code>
+   *   PerformanceMonitor.WindowStats stats = monitor.getWindowsLast(TimeUnit.SECONDS, 10, 60, 300);
+   *   metrics.addData("invocationsPerSec10secAverage", stats.getInvocationsPerSecond(0));
+   *   metrics.addData("invocationsPerSec60secAverage", stats.getInvocationsPerSecond(1));
+   * </code>
+   *
+   * @param timeUnit timeunit to query in
+   * @param timeframes the number of timeunits of each timeframe to query
+   * @return the stats of each timeframe, in the order of the given timeframes
+   */
+  public WindowStats getWindowsLast(TimeUnit timeUnit, long... timeframes) {
+    if (timeUnit == null) throw new IllegalArgumentException("TimeUnit not set");
+    if (timeframes == null) throw new IllegalArgumentException("Timeframes not set");
+    long now = clock.millis();
+    long[] millis = new long[timeframes.length];
+    long[] firstTimes = new long[timeframes.length];
+    for (int i = 0; i < timeframes.length; i++) {
+      millis[i] = timeUnit.toMillis(timeframes[i]);
+      firstTimes[i] = firstTime(now, millis[i]);
+    }
+    WindowStats stats = new WindowStats(millis);
+    storage.sum(now, firstTimes, stats.invocations, stats.timeSpent);
+    return stats;
+  }
 
-  private Data reducedTimeframeStream(long timeframe) {
-    return createTimeframeStream(timeframe)
-            .reduce((d1, d2) -> new Data(
-                    d1.invocations + d2.invocations,
-                    d1.timeSpent + d2.timeSpent
-            ))
-            .orElse(new Data(0, 0));
+  /**
+   * Query the memory for the distribution of time spent per invocation. If the query specifies a timeframe
+   * which goes beyond the memory window, the timeslots outside the memory window will be ignored.
+   * The resulting stats may not correctly reflect the query.
+   *
+   * @param timeUnit timeunit to query in
+   * @param timeframe the number of timeunits to query
+   * @return a new histogram of the milliseconds spent per invocation within the specified timeframe
+   * @throws IllegalStateException if timeslot histograms are not enabled for this monitor
+   */
+  public Histogram getTimeSpentHistogramLast(TimeUnit timeUnit, long timeframe) {
+    if (!histogramEnabled) throw new IllegalStateException("Histograms are not enabled for this monitor");
+    long millis = timeUnit.toMillis(timeframe);
+    checkTimeframe(millis);
+    long now = clock.millis();
+    return storage.histogram(now, now - millis);
   }
 
-  private Stream<Data> createTimeframeStream(long timeframe) {
-    long firstTime = checkTimeframeStart(timeframe);
-    return iterateDataPoints()
-            .filter(dp -> dp.timestamp > firstTime)
-            .map(Data::new);
+  /**
+   * Query the memory for a percentile of time spent per invocation. If the query specifies a timeframe
+   * which goes beyond the memory window, the timeslots outside the memory window will be ignored.
+   * The resulting stats may not correctly reflect the query.
+   *
+   * @param timeUnit timeunit to query in
+   * @param timeframe the number of timeunits to query
+   * @param percentile the percentile to fetch, between 0 and 100
+   * @return the milliseconds spent per invocation at the given percentile within the specified timeframe
+   * @throws IllegalStateException if timeslot histograms are not enabled for this monitor
+   */
+  public long getTimeSpentPercentileLast(TimeUnit timeUnit, long timeframe, double percentile) {
+    return getTimeSpentHistogramLast(timeUnit, timeframe).getValueAtPercentile(percentile);
   }
 
-  private Stream<DataPoint> iterateDataPoints() {
-    synchronized (this) {
-      //ensure we have a head for the current timeframe
-      getOrCreateHead();
-      //stream from new arraylist to make use of the resulting stream thread safe
-      return new ArrayList<>(datapoints).stream();
-    }
+  /**
+   * @return true if this monitor keeps a histogram of time spent per invocation for each timeslot
+   */
+  public boolean isHistogramEnabled() {
+    return histogramEnabled;
   }
 
-  private DataPoint getOrCreateHead() {
-    synchronized (this) {
-      long currentSlot = slotTime(clock.millis());
-      if (datapoints.isEmpty() || datapoints.getFirst().timestamp < currentSlot) {
-        if (LOGGER.isDebug()) LOGGER.debug("Adding new datapoint at %d", currentSlot);
-        //add new datapoint at head of list
-        datapoints.add(0, new DataPoint(currentSlot));
-        //remove any trailing timeframes which have fallen outside memory
-        while (isExpired(datapoints.getLast().timestamp)) {
-          if (LOGGER.isDebug()) LOGGER.debug("Pruning datapoint %s", datapoints.getLast());
-          datapoints.removeLast();
-        }
-      }
-      return datapoints.getFirst();
+  //private methods
+
+  private void emitEvent(long invocations, long timeSpentInMillis) {
+    //check the event type first, so no event is allocated while it is not enabled
+    if (!MonitorEventType.TYPE.isEnabled()) return;
+    PerformanceMonitorEvent event = new PerformanceMonitorEvent();
+    event.name = name;
+    event.invocations = invocations;
+    event.timeSpent = timeSpentInMillis;
+    event.commit();
+  }
+
+  private static RingSlotStorage createTiers(List<Builder.Tier> tiers, SlotHistograms histograms) {
+    RingSlotStorage next = null;
+    //create the last tier first, so each tier can roll up into the next
+    for (int i = tiers.size() - 1; i >= 0; i--) {
+      Builder.Tier tier = tiers.get(i);
+      if (tier.timeUnit == null) throw new IllegalArgumentException("Tier timeUnit not set");
+      if (tier.resolution < 1) throw new IllegalArgumentException("Tier resolution invalid");
+      if (tier.memory <= tier.resolution) throw new IllegalArgumentException("Tier memory must be greater than resolution");
+      next = new RingSlotStorage(tier.timeUnit.toMillis(tier.memory), tier.timeUnit.toMillis(tier.resolution), histograms, next);
     }
+    return next;
+  }
+
+  private long firstTime(long now, long timeframe) {
+    checkTimeframe(timeframe);
+    return now - timeframe;
   }
 
-  private long checkTimeframeStart(long timeframe) {
+  private void checkTimeframe(long timeframe) {
     if (timeframe < 1) throw new IllegalArgumentException("Invalid timeframe: " + timeframe);
     if (timeframe > memory) LOGGER.warning("Using larger timeframe than defined memory, will give inaccurate results");
-    return clock.millis() - timeframe;
   }
 
-  private boolean isExpired(long timestamp) {
-    return timestamp < (slotTime(clock.millis()) - memory);
+  /**
+   * Invocations and execution time registered within several timeframes, see {@link #getWindowsLast(TimeUnit, long...)}
+   */
+  public static class WindowStats {
+    private final long[] timeframes;
+    private final long[] invocations;
+    private final long[] timeSpent;
+
+    private WindowStats(long[] timeframes) {
+      this.timeframes = timeframes;
+      this.invocations = new long[timeframes.length];
+      this.timeSpent = new long[timeframes.length];
+    }
+
+    /**
+     * @return the number of timeframes
+     */
+    public int size() {
+      return timeframes.length;
+    }
+
+    /**
+     * @param index index of the timeframe, in the order given to the query
+     * @return the timeframe, in milliseconds
+     */
+    public long getTimeframe(int index) {
+      return timeframes[index];
+    }
+
+    /**
+     * @param index index of the timeframe, in the order given to the query
+     * @return the sum of invocations registered within the timeframe
+     */
+    public long getInvocations(int index) {
+      return invocations[index];
+    }
+
+    /**
+     * @param index index of the timeframe, in the order given to the query
+     * @return the sum of timeSpent registered within the timeframe
+     */
+    public long getTimeSpent(int index) {
+      return timeSpent[index];
+    }
+
+    /**
+     * @param index index of the timeframe, in the order given to the query
+     * @return the sum of invocations within the timeframe, divided by the number of seconds of the timeframe
+     */
+    public double getInvocationsPerSecond(int index) {
+      return invocations[index] / ((double) TimeUnit.MILLISECONDS.toSeconds(timeframes[index]));
+    }
+
+    /**
+     * @param index index of the timeframe, in the order given to the query
+     * @return the sum of timeSpent within the timeframe, divided by the number of seconds of the timeframe
+     */
+    public double getTimeSpentPerSecond(int index) {
+      return timeSpent[index] / ((double) TimeUnit.MILLISECONDS.toSeconds(timeframes[index]));
+    }
+
+    /**
+     * @param index index of the timeframe, in the order given to the query
+     * @return the sum of timeSpent divided by the sum of invocations within the timeframe
+     */
+    public double getTimeSpentPerInvocation(int index) {
+      return timeSpent[index] / ((double) invocations[index]);
+    }
   }
 
-  private long slotTime(long timestamp) {
-    return (timestamp / resolution) * resolution;
+  /**
+   * Holder of the event type, so Flight Recorder is only initialized when the first named monitor is invoked
+   */
+  private static class MonitorEventType {
+    private static final EventType TYPE = EventType.getEventType(PerformanceMonitorEvent.class);
   }
 
-  private static class Data {
-    final int invocations;
-    final long timeSpent;
+  /**
+   * Builder for creating a {@link PerformanceMonitor}
+   */
+  public static class Builder {
+    private TimeUnit timeUnit;
+    private long memory;
+    private long resolution;
+    private StorageMode storageMode = StorageMode.LINKED_LIST;
+    private boolean histogramEnabled;
+    private long histogramHighestTrackableValue = DEFAULT_HISTOGRAM_HIGHEST_TRACKABLE_VALUE;
+    private int histogramPrecision = DEFAULT_HISTOGRAM_PRECISION;
+    private final List<Tier> tiers = new ArrayList<>();
+    private int shards = 1;
+    private String name;
+
+    private Builder() {
+    }
 
-    Data(DataPoint dp) {
-      this(dp.invocations.intValue(), dp.timeSpent.longValue());
+    public PerformanceMonitor build() {
+      return new PerformanceMonitor(this);
     }
 
-    Data(int invocations, long timeSpent) {
-      this.invocations = invocations;
-      this.timeSpent = timeSpent;
+    /**
+     * @param timeUnit the timeUnit used for memory and resolution
+     * @return builder
+     */
+    public Builder setTimeUnit(TimeUnit timeUnit) {
+      this.timeUnit = timeUnit;
+      return this;
+    }
+
+    /**
+     * @param memory the number of timeUnits the monitor remembers
+     * @return builder
+     */
+    public Builder setMemory(long memory) {
+      this.memory = memory;
+      return this;
+    }
+
+    /**
+     * @param resolution resolution in timeUnits
+     * @return builder
+     */
+    public Builder setResolution(long resolution) {
+      this.resolution = resolution;
+      return this;
     }
-  }
 
-  private static class DataPoint implements AppendMembers {
-    final long timestamp;
-    final LongAdder invocations = new LongAdder();
-    final LongAdder timeSpent = new LongAdder();
+    /**
+     * @param storageMode how the monitor should store its timeslots, defaults to {@link StorageMode#LINKED_LIST}
+     * @return builder
+     */
+    public Builder setStorageMode(StorageMode storageMode) {
+      this.storageMode = storageMode;
+      return this;
+    }
 
-    DataPoint(long timestamp) {
-      this.timestamp = timestamp;
+    /**
+     * @param histogramEnabled if true, keep a histogram of time spent per invocation for each timeslot
+     * @return builder
+     */
+    public Builder setHistogramEnabled(boolean histogramEnabled) {
+      this.histogramEnabled = histogramEnabled;
+      return this;
     }
 
-    @Override
-    public void appendMembers(StringBuilder buf) {
-      AppendUtils.appendField(buf, "timestamp", timestamp);
-      AppendUtils.appendField(buf, "invocations", invocations);
-      AppendUtils.appendField(buf, "timeSpent", timeSpent);
+    /**
+     * @param histogramHighestTrackableValue the highest time spent to track in timeslot histograms, in milliseconds.
+     *                                       Defaults to 1 hour.
+     * @return builder
+     */
+    public Builder setHistogramHighestTrackableValue(long histogramHighestTrackableValue) {
+      this.histogramHighestTrackableValue = histogramHighestTrackableValue;
+      return this;
     }
 
-    @Override
-    public String toString() {
-      return AppendUtils.toString(this);
+    /**
+     * @param histogramPrecision the number of bits of precision of timeslot histograms, see {@link Histogram}.
+     *                           Defaults to {@value PerformanceMonitor#DEFAULT_HISTOGRAM_PRECISION}.
+     * @return builder
+     */
+    public Builder setHistogramPrecision(int histogramPrecision) {
+      this.histogramPrecision = histogramPrecision;
+      return this;
+    }
+
+    /**
+     * @param shards the number of independent rings to spread registering threads over, defaults to 1.
+     *               More than one shard requires {@link StorageMode#RING_BUFFER}.
+     * @return builder
+     */
+    public Builder setShards(int shards) {
+      this.shards = shards;
+      return this;
+    }
+
+    /**
+     * @param name name of the monitor in Flight Recorder events. If not set, the monitor does not emit events.
+     * @return builder
+     */
+    public Builder setName(String name) {
+      this.name = name;
+      return this;
+    }
+
+    /**
+     * Add a coarser tier, receiving the timeslots expiring from the previous tier.
+     * Tiers are ordered by the order they are added, and require {@link StorageMode#RING_BUFFER}.
+     *
+     * @param timeUnit   the timeUnit used for memory and resolution of this tier
+     * @param memory     the number of timeUnits this tier remembers, which must be greater than the memory of the previous tier
+     * @param resolution resolution of this tier in timeUnits, which must be a multiple of the resolution of the previous tier
+     * @return builder
+     */
+    public Builder addTier(TimeUnit timeUnit, long memory, long resolution) {
+      this.tiers.add(new Tier(timeUnit, memory, resolution));
+      return this;
+    }
+
+    private static class Tier {
+      private final TimeUnit timeUnit;
+      private final long memory;
+      private final long resolution;
+
+      private Tier(TimeUnit timeUnit, long memory, long resolution) {
+        this.timeUnit = timeUnit;
+        this.memory = memory;
+        this.resolution = resolution;
+      }
     }
   }
 
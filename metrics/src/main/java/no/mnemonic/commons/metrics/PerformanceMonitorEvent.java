@@ -0,0 +1,33 @@
+package no.mnemonic.commons.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for invocations registered on a named {@link PerformanceMonitor}.
+ * The invocations are registered after the fact, so the event is instant, and carries the time spent as a field.
+ */
+@Name(PerformanceMonitorEvent.NAME)
+@Label("Performance Monitor Invocation")
+@Category({"Mnemonic", "Metrics"})
+@Description("Invocations registered on a performance monitor")
+@StackTrace(false)
+class PerformanceMonitorEvent extends jdk.jfr.Event {
+
+  static final String NAME = "no.mnemonic.commons.metrics.PerformanceMonitor";
+
+  @Label("Name")
+  String name;
+
+  @Label("Invocations")
+  long invocations;
+
+  @Label("Time Spent")
+  @Timespan(Timespan.MILLISECONDS)
+  long timeSpent;
+
+}
@@ -0,0 +1,251 @@
+package no.mnemonic.commons.metrics;
+
+import no.mnemonic.commons.utilities.AppendMembers;
+import no.mnemonic.commons.utilities.AppendUtils;
+import no.mnemonic.commons.utilities.StringUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A metrics data object keeping its values in primitive arrays, for components reporting a large number of values.
+ * Unlike {@link MetricsData}, adding a value does not box it or allocate a map entry.
+ *
+ * Example:
+ * <code>
+ *   PrimitiveMetricsData metrics = PrimitiveMetricsData.builder()
+ *           .addData("requests", requestCount)
+ *           .addData("meanLatency", meanLatency)
+ *           .build();
+ *
+ *   for (int i = 0; i &lt; metrics.size(); i++) {
+ *     String key = metrics.getKey(i);
+ *     long value = metrics.getLong(i);
+ *   }
+ * </code>
+ *
+ * Consumers aware of this class can read the values by index without boxing.
+ * For compatibility with other consumers, {@link #getData()} returns an unmodifiable map of boxed values,
+ * which is only created the first time it is requested.
+ *
+ * Keys are expected to be unique. Keys added more than once are kept once for each time they are added,
+ * but {@link #getData()} only contains the last value added for each key.
+ */
+public class PrimitiveMetricsData implements Metrics, AppendMembers {
+
+  private static final long serialVersionUID = -2941386208458623245L;
+
+  //properties
+
+  private final String[] keys;
+  private final long[] longValues;
+  private final double[] doubleValues;
+  private final boolean[] decimal;
+  private final int size;
+
+  //variables
+
+  private transient volatile Map<String, Number> data;
+
+  private PrimitiveMetricsData(Builder builder) {
+    this.size = builder.size;
+    this.keys = Arrays.copyOf(builder.keys, size);
+    this.longValues = Arrays.copyOf(builder.longValues, size);
+    this.doubleValues = Arrays.copyOf(builder.doubleValues, size);
+    this.decimal = Arrays.copyOf(builder.decimal, size);
+  }
+
+  public static Builder builder() {
+    return new Builder(16);
+  }
+
+  /**
+   * @param expectedSize the expected number of values, to avoid growing the arrays while adding values
+   * @return a new builder
+   */
+  public static Builder builder(int expectedSize) {
+    return new Builder(Math.max(1, expectedSize));
+  }
+
+  //interface methods
+
+  @Override
+  public String toString() {
+    return AppendUtils.toString(this);
+  }
+
+  @Override
+  public void appendMembers(StringBuilder buf) {
+    AppendUtils.appendField(buf, "data", getData());
+  }
+
+  //accessors
+
+  /**
+   * @return an unmodifiable map of all keys with boxed values, in the order they were added
+   */
+  @Override
+  public Map<String, Number> getData() {
+    Map<String, Number> result = data;
+    if (result == null) {
+      Map<String, Number> map = new LinkedHashMap<>();
+      for (int i = 0; i < size; i++) {
+        map.put(keys[i], getValue(i));
+      }
+      data = result = Collections.unmodifiableMap(map);
+    }
+    return result;
+  }
+
+  @Override
+  public Number getData(String key) {
+    int index = indexOf(key);
+    return index < 0 ? null : getValue(index);
+  }
+
+  @Override
+  public Map<String, Metrics> getSubMetrics() {
+    return null;
+  }
+
+  @Override
+  public boolean hasData() {
+    return true;
+  }
+
+  @Override
+  public boolean hasSubMetrics() {
+    return false;
+  }
+
+  /**
+   * @return the number of values
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @param index index of the value, in the order values were added
+   * @return the key of the value
+   */
+  public String getKey(int index) {
+    checkIndex(index);
+    return keys[index];
+  }
+
+  /**
+   * @param index index of the value, in the order values were added
+   * @return true if the value was added as a double, false if it was added as a long
+   */
+  public boolean isDouble(int index) {
+    checkIndex(index);
+    return decimal[index];
+  }
+
+  /**
+   * @param index index of the value, in the order values were added
+   * @return the value as a long, truncating values added as a double
+   */
+  public long getLong(int index) {
+    checkIndex(index);
+    return decimal[index] ? (long) doubleValues[index] : longValues[index];
+  }
+
+  /**
+   * @param index index of the value, in the order values were added
+   * @return the value as a double
+   */
+  public double getDouble(int index) {
+    checkIndex(index);
+    return decimal[index] ? doubleValues[index] : longValues[index];
+  }
+
+  /**
+   * @param key key to look up
+   * @return the index of the last value added with this key, or -1 if the key is not set
+   */
+  public int indexOf(String key) {
+    if (key == null) return -1;
+    for (int i = size - 1; i >= 0; i--) {
+      if (key.equals(keys[i])) return i;
+    }
+    return -1;
+  }
+
+  //private methods
+
+  private Number getValue(int index) {
+    return decimal[index] ? (Number) doubleValues[index] : (Number) longValues[index];
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+  }
+
+  /**
+   * Builder for creating a {@link PrimitiveMetricsData}
+   */
+  public static class Builder {
+    private String[] keys;
+    private long[] longValues;
+    private double[] doubleValues;
+    private boolean[] decimal;
+    private int size;
+
+    private Builder(int capacity) {
+      this.keys = new String[capacity];
+      this.longValues = new long[capacity];
+      this.doubleValues = new double[capacity];
+      this.decimal = new boolean[capacity];
+    }
+
+    public PrimitiveMetricsData build() {
+      return new PrimitiveMetricsData(this);
+    }
+
+    /**
+     * Add a long value
+     *
+     * @param key   key of the metric to add
+     * @param value the metric value
+     * @return builder
+     * @throws MetricException if key is empty
+     */
+    public Builder addData(String key, long value) throws MetricException {
+      int index = append(key);
+      longValues[index] = value;
+      return this;
+    }
+
+    /**
+     * Add a double value
+     *
+     * @param key   key of the metric to add
+     * @param value the metric value
+     * @return builder
+     * @throws MetricException if key is empty
+     */
+    public Builder addData(String key, double value) throws MetricException {
+      int index = append(key);
+      doubleValues[index] = value;
+      decimal[index] = true;
+      return this;
+    }
+
+    private int append(String key) throws MetricException {
+      if (StringUtils.isBlank(key)) throw new MetricException("Cannot add metric without a key");
+      if (size == keys.length) {
+        int capacity = size * 2;
+        keys = Arrays.copyOf(keys, capacity);
+        longValues = Arrays.copyOf(longValues, capacity);
+        doubleValues = Arrays.copyOf(doubleValues, capacity);
+        decimal = Arrays.copyOf(decimal, capacity);
+      }
+      keys[size] = key;
+      return size++;
+    }
+  }
+}
@@ -0,0 +1,249 @@
+package no.mnemonic.commons.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Exporter writing a {@link Metrics} tree in the Prometheus text exposition format.
+ *
+ * The name of each value is built from the names of the groups on the path to it, and its key,
+ * joined by underscores, with all characters not allowed in Prometheus metric names replaced by underscores.
+ * For example, the value <code>requests</code> in the submetrics <code>service</code> is exported as
+ * <code>service_requests</code>, or <code>myapp_service_requests</code> if the exporter has the prefix <code>myapp</code>.
+ *
+ * Example:
+ * <code>
+ *   PrometheusExporter exporter = PrometheusExporter.builder().setPrefix("myapp").build();
+ *
+ *   //in the scrape handler
+ *   exporter.export(collector.getMetrics(), response.getOutputStream());
+ * </code>
+ *
+ * The exporter is designed to be reused between scrapes. It caches the exported name of each path
+ * in a tree mirroring the metrics tree, so exporting does not build any name strings after the first scrape.
+ * Values are formatted directly into a reused buffer, and values of a {@link PrimitiveMetricsData} are read
+ * without boxing. Paths which are no longer present are evicted from the cache after each export.
+ * Exports are synchronized on the exporter, as they share the cache and buffers.
+ */
+public class PrometheusExporter {
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final Node root;
+  private final StringBuilder line = new StringBuilder(128);
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int position;
+  private long generation;
+
+  private PrometheusExporter(Builder builder) {
+    this.root = new Node(builder.prefix != null && !builder.prefix.isEmpty() ? sanitize(builder.prefix) : null);
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  //public methods
+
+  /**
+   * Write the metrics tree to the appendable
+   *
+   * @param metrics metrics to export
+   * @param out     appendable to write to
+   * @throws IOException if writing fails
+   */
+  public synchronized void export(Metrics metrics, Appendable out) throws IOException {
+    if (metrics == null) throw new IllegalArgumentException("Metrics not set");
+    if (out == null) throw new IllegalArgumentException("Output not set");
+    export(metrics, () -> out.append(line));
+  }
+
+  /**
+   * Write the metrics tree to the stream, as ASCII. The stream is flushed, but not closed.
+   *
+   * @param metrics metrics to export
+   * @param out     stream to write to
+   * @throws IOException if writing fails
+   */
+  public synchronized void export(Metrics metrics, OutputStream out) throws IOException {
+    if (metrics == null) throw new IllegalArgumentException("Metrics not set");
+    if (out == null) throw new IllegalArgumentException("Output not set");
+    position = 0;
+    try {
+      export(metrics, () -> write(out));
+      out.write(buffer, 0, position);
+      out.flush();
+    } finally {
+      position = 0;
+    }
+  }
+
+  //private methods
+
+  private void export(Metrics metrics, LineWriter writer) throws IOException {
+    generation++;
+    try {
+      writeMetrics(root, metrics, writer);
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      root.evict(generation);
+    }
+  }
+
+  private void writeMetrics(Node node, Metrics metrics, LineWriter writer) throws IOException {
+    if (metrics instanceof PrimitiveMetricsData) {
+      PrimitiveMetricsData data = (PrimitiveMetricsData) metrics;
+      for (int i = 0; i < data.size(); i++) {
+        Node child = node.child(data.getKey(i), generation);
+        if (data.isDouble(i)) {
+          writeValue(child, data.getDouble(i), writer);
+        } else {
+          writeValue(child, data.getLong(i), writer);
+        }
+      }
+    } else if (metrics.hasData() && metrics.getData() != null) {
+      metrics.getData().forEach((key, value) -> {
+        if (value == null) return;
+        try {
+          writeValue(node.child(key, generation), value, writer);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    }
+    if (metrics.hasSubMetrics() && metrics.getSubMetrics() != null) {
+      metrics.getSubMetrics().forEach((name, sub) -> {
+        if (sub == null) return;
+        try {
+          writeMetrics(node.child(name, generation), sub, writer);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    }
+  }
+
+  private void writeValue(Node node, Number value, LineWriter writer) throws IOException {
+    if (value instanceof Double || value instanceof Float || value instanceof BigDecimal) {
+      writeValue(node, value.doubleValue(), writer);
+    } else {
+      writeValue(node, value.longValue(), writer);
+    }
+  }
+
+  private void writeValue(Node node, long value, LineWriter writer) throws IOException {
+    line.setLength(0);
+    line.append(node.name).append(' ').append(value).append('\n');
+    writer.writeLine();
+  }
+
+  private void writeValue(Node node, double value, LineWriter writer) throws IOException {
+    line.setLength(0);
+    line.append(node.name).append(' ');
+    if (value == Double.POSITIVE_INFINITY) {
+      line.append("+Inf");
+    } else if (value == Double.NEGATIVE_INFINITY) {
+      line.append("-Inf");
+    } else if (value == Math.rint(value) && Math.abs(value) < (1L << 53)) {
+      //write integral values without decimals
+      line.append((long) value);
+    } else {
+      line.append(value);
+    }
+    line.append('\n');
+    writer.writeLine();
+  }
+
+  /**
+   * Write the current line to the buffer, flushing the buffer to the stream when full.
+   * Names are sanitized and numbers are formatted as ASCII, so each char is written as one byte.
+   */
+  private void write(OutputStream out) throws IOException {
+    int length = line.length();
+    for (int i = 0; i < length; i++) {
+      if (position == buffer.length) {
+        out.write(buffer, 0, position);
+        position = 0;
+      }
+      buffer[position++] = (byte) line.charAt(i);
+    }
+  }
+
+  static String sanitize(String name) {
+    StringBuilder result = new StringBuilder(name.length() + 1);
+    if (name.isEmpty() || (name.charAt(0) >= '0' && name.charAt(0) <= '9')) result.append('_');
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == ':';
+      result.append(valid ? c : '_');
+    }
+    return result.toString();
+  }
+
+  private interface LineWriter {
+    void writeLine() throws IOException;
+  }
+
+  /**
+   * Cached exported name of a path in the metrics tree
+   */
+  private static class Node {
+    private final String name;
+    private final Map<String, Node> children = new HashMap<>();
+    private long generation;
+
+    private Node(String name) {
+      this.name = name;
+    }
+
+    private Node child(String key, long generation) {
+      Node child = children.get(key);
+      if (child == null) {
+        String sanitized = sanitize(key);
+        child = new Node(name != null ? name + "_" + sanitized : sanitized);
+        children.put(key, child);
+      }
+      child.generation = generation;
+      return child;
+    }
+
+    /**
+     * Remove all children not used in the given generation
+     */
+    private void evict(long generation) {
+      if (children.isEmpty()) return;
+      children.values().removeIf(child -> child.generation != generation);
+      for (Node child : children.values()) {
+        child.evict(generation);
+      }
+    }
+  }
+
+  /**
+   * Builder for creating a {@link PrometheusExporter}
+   */
+  public static class Builder {
+    private String prefix;
+
+    private Builder() {
+    }
+
+    public PrometheusExporter build() {
+      return new PrometheusExporter(this);
+    }
+
+    /**
+     * @param prefix prefix of all exported names, or null for no prefix
+     * @return builder
+     */
+    public Builder setPrefix(String prefix) {
+      this.prefix = prefix;
+      return this;
+    }
+  }
+}
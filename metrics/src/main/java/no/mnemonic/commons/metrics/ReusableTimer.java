@@ -0,0 +1,100 @@
+package no.mnemonic.commons.metrics;
+
+import no.mnemonic.commons.logging.Logger;
+import no.mnemonic.commons.logging.Logging;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * A reusable timer registers timing metrics like a {@link TimerContext}, but without allocating any objects
+ * for each timed block. Each thread using the timer gets its own {@link Timing}, which is reused for every
+ * timed block on that thread, and the measured value is reported to a {@link LongConsumer} without boxing.
+ *
+ * Example:
+ * <code>
+ *   private final LongAdder executionTimeInMicros = new LongAdder();
+ *   private final ReusableTimer timer = ReusableTimer.ofMicros(executionTimeInMicros::add);
+ *
+ *   try (ReusableTimer.Timing ignored = timer.start()) {
+ *     //do some work
+ *   }
+ * </code>
+ *
+ * Timed blocks may be nested on the same thread, as long as each started timing is closed in reverse order,
+ * as done by try-with-resources. The returned {@link Timing} must not be passed on to other threads.
+ */
+public class ReusableTimer {
+
+  private static final Logger LOGGER = Logging.getLogger(ReusableTimer.class);
+
+  private final LongConsumer metric;
+  private final TimerContext.MetricType type;
+  private final ThreadLocal<Timing> timings = ThreadLocal.withInitial(() -> new Timing(this));
+
+  private ReusableTimer(LongConsumer metric, TimerContext.MetricType type) {
+    if (metric == null) throw new IllegalArgumentException("Metric not set");
+    if (type == null) throw new IllegalArgumentException("Type not set");
+    this.metric = metric;
+    this.type = type;
+  }
+
+  public static ReusableTimer ofMillis(LongConsumer metric) {
+    return new ReusableTimer(metric, TimerContext.MetricType.millis);
+  }
+
+  public static ReusableTimer ofMicros(LongConsumer metric) {
+    return new ReusableTimer(metric, TimerContext.MetricType.micros);
+  }
+
+  public static ReusableTimer ofNanos(LongConsumer metric) {
+    return new ReusableTimer(metric, TimerContext.MetricType.nanos);
+  }
+
+  public static ReusableTimer ofSeconds(LongConsumer metric) {
+    return new ReusableTimer(metric, TimerContext.MetricType.seconds);
+  }
+
+  /**
+   * Start timing a block of code. The elapsed time is reported when the returned timing is closed.
+   *
+   * @return the timing of the current thread
+   */
+  public Timing start() {
+    Timing timing = timings.get();
+    timing.push(TimerContext.nanoTime());
+    return timing;
+  }
+
+  /**
+   * The per-thread state of a {@link ReusableTimer}, keeping the start time of each started (and possibly nested)
+   * timed block.
+   */
+  public static class Timing implements AutoCloseable {
+
+    private final ReusableTimer timer;
+    private long[] startTimes = new long[4];
+    private int depth;
+
+    private Timing(ReusableTimer timer) {
+      this.timer = timer;
+    }
+
+    @Override
+    public void close() {
+      if (depth == 0) return;
+      long startTime = startTimes[--depth];
+      try {
+        timer.metric.accept(timer.type.fromNanos(TimerContext.nanoTime() - startTime));
+      } catch (Throwable e) {
+        LOGGER.warning(e, "Error updating timer metric");
+      }
+    }
+
+    private void push(long startTime) {
+      //only grow (and allocate) when nesting deeper than ever before on this thread
+      if (depth == startTimes.length) startTimes = Arrays.copyOf(startTimes, depth * 2);
+      startTimes[depth++] = startTime;
+    }
+  }
+}
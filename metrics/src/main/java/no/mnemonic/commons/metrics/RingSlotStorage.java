@@ -0,0 +1,259 @@
+package no.mnemonic.commons.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Slot storage keeping a fixed-size ring of preallocated timeslots.
+ * The slot for a timestamp is found at index <code>(slotTime / resolution) % capacity</code>,
+ * and a slot is reused for a new timeslot by a CAS on its stamp, so neither writers nor readers take any lock,
+ * and no objects are allocated after construction.
+ *
+ * Invocations and time spent are added to cumulative totals, and each slot remembers the totals at the time the slot
+ * was opened. Whenever time passes into a new slot, all slots since the previous slot are opened, so the sum of
+ * any timeframe is the current total minus the total remembered by the first slot of the timeframe.
+ * Queries are therefore constant-time, regardless of the timeframe or the number of slots.
+ *
+ * If timeslot histograms are enabled, the histogram of a slot is allocated the first time a value is recorded
+ * in the slot, and is reset and reused when the slot is rolled over.
+ *
+ * While a slot is rolled over to a new timeslot, its stamp is set to {@link #ROLLING}. Writers and readers never wait
+ * for a rollover: a writer finding a slot rolling over leaves it to the rolling thread and retries opening the
+ * timeslot on its next registration, and a reader treats the slot as not holding the queried timeslot, using the next
+ * tier or the current total instead. A query concurrent with a rollover may thus use a coarser or a newer timeslot.
+ * Values registered by a writer concurrently with a rollover may be counted in the new timeslot.
+ *
+ * Rings may be chained into tiers of increasing resolution and memory, which are opened along with the first tier.
+ * Queries use the first tier which still keeps the first slot of the timeframe, so timeframes within the memory
+ * of the first tier get its resolution. When a slot of a tier is rolled over, its histogram is rolled up
+ * into the histogram of the slot of the next tier covering the same time, so each recorded value is kept
+ * in exactly one tier. All tiers ignore slots expired from the memory of the last tier.
+ */
+class RingSlotStorage implements SlotStorage {
+
+  private static final long serialVersionUID = -6402373540216226186L;
+
+  static final long EMPTY = Long.MIN_VALUE;
+  static final long ROLLING = Long.MIN_VALUE + 1;
+
+  private static final int INVOCATIONS = 0;
+  private static final int TIME_SPENT = 1;
+
+  private final long memory;
+  private final long resolution;
+  private final int capacity;
+  private final AtomicLongArray stamps;
+  //the totals when each slot was opened, at index 2 * slot for invocations and 2 * slot + 1 for time spent
+  private final AtomicLongArray bases;
+  private final AtomicLong head = new AtomicLong(EMPTY);
+  private final LongAdder totalInvocations = new LongAdder();
+  private final LongAdder totalTimeSpent = new LongAdder();
+  private final SlotHistograms histograms;
+  private final AtomicReferenceArray<Histogram> slotHistograms;
+  private final RingSlotStorage next;
+  private final long totalMemory;
+
+  RingSlotStorage(long memory, long resolution, SlotHistograms histograms) {
+    this(memory, resolution, histograms, null);
+  }
+
+  /**
+   * @param next the next tier, or null if this is the last tier
+   */
+  RingSlotStorage(long memory, long resolution, SlotHistograms histograms, RingSlotStorage next) {
+    if (next != null && (next.resolution <= resolution || next.resolution % resolution != 0)) {
+      throw new IllegalArgumentException("Resolution of next tier must be a multiple of resolution " + resolution);
+    }
+    if (next != null && next.memory <= memory) {
+      throw new IllegalArgumentException("Memory of next tier must be greater than memory " + memory);
+    }
+    this.memory = memory;
+    this.resolution = resolution;
+    this.histograms = histograms;
+    this.next = next;
+    this.totalMemory = next != null ? next.totalMemory : memory;
+    //keep all slots within memory, in addition to the current slot
+    this.capacity = (int) (memory / resolution) + 2;
+    this.stamps = new AtomicLongArray(capacity);
+    this.bases = new AtomicLongArray(capacity * 2);
+    this.slotHistograms = histograms != null ? new AtomicReferenceArray<>(capacity) : null;
+    for (int i = 0; i < capacity; i++) {
+      stamps.set(i, EMPTY);
+    }
+  }
+
+  @Override
+  public void add(long now, long invocations, long timeSpent, boolean timed) {
+    long slot = slotTime(now);
+    if (slot > head.get()) advance(slot, totalInvocations.sum(), totalTimeSpent.sum());
+    totalInvocations.add(invocations);
+    totalTimeSpent.add(timeSpent);
+    if (timed && slotHistograms != null) {
+      Histogram histogram = histogram(slot);
+      if (histogram != null) SlotHistograms.record(histogram, invocations, timeSpent);
+    }
+  }
+
+  @Override
+  public long sumInvocations(long now, long firstTime) {
+    long total = totalInvocations.sum();
+    return Math.max(0, total - base(now, firstTime, INVOCATIONS, total));
+  }
+
+  @Override
+  public long sumTimeSpent(long now, long firstTime) {
+    long total = totalTimeSpent.sum();
+    return Math.max(0, total - base(now, firstTime, TIME_SPENT, total));
+  }
+
+  @Override
+  public void sum(long now, long[] firstTimes, long[] invocations, long[] timeSpent) {
+    for (int i = 0; i < firstTimes.length; i++) {
+      invocations[i] = 0;
+      timeSpent[i] = 0;
+    }
+    addSums(now, firstTimes, invocations, timeSpent);
+  }
+
+  @Override
+  public Histogram histogram(long now, long firstTime) {
+    if (histograms == null) return null;
+    long expiry = slotTime(now) - totalMemory;
+    Histogram result = next != null ? next.histogram(now, firstTime) : histograms.create();
+    for (int idx = 0; idx < capacity; idx++) {
+      long stamp = stamps.get(idx);
+      if (stamp == EMPTY || stamp == ROLLING || stamp <= firstTime || stamp < expiry) continue;
+      Histogram histogram = slotHistograms.get(idx);
+      //a slot rolled over while merging may contribute values from its new timeslot
+      if (histogram != null) result.merge(histogram);
+    }
+    return result;
+  }
+
+  /**
+   * Like {@link #sum(long, long[], long[], long[])}, but adds the sums to the values already in the arrays,
+   * so the sums of several storages can be added up without intermediate arrays
+   */
+  void addSums(long now, long[] firstTimes, long[] invocations, long[] timeSpent) {
+    //read the totals once, so all timeframes are computed from the same totals
+    long invocationTotal = totalInvocations.sum();
+    long timeSpentTotal = totalTimeSpent.sum();
+    for (int i = 0; i < firstTimes.length; i++) {
+      invocations[i] += Math.max(0, invocationTotal - base(now, firstTimes[i], INVOCATIONS, invocationTotal));
+      timeSpent[i] += Math.max(0, timeSpentTotal - base(now, firstTimes[i], TIME_SPENT, timeSpentTotal));
+    }
+  }
+
+  int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * @return the memory of the last tier
+   */
+  long getTotalMemory() {
+    return totalMemory;
+  }
+
+  //private methods
+
+  /**
+   * Open all slots after the current head, up to and including the given slot, remembering the given totals.
+   * If more time than the capacity of the ring has passed, only the slots within the capacity are opened.
+   * The head is only moved past slots which are opened, so a slot left to a concurrent rollover is checked again
+   * by a later registration.
+   */
+  private void advance(long slot, long invocationTotal, long timeSpentTotal) {
+    long current = head.get();
+    if (slot <= current) return;
+    long first = current == EMPTY ? slot : Math.max(current + resolution, slot - (capacity - 1) * resolution);
+    long opened = current;
+    for (long s = first; s <= slot; s += resolution) {
+      if (!open(index(s), s, invocationTotal, timeSpentTotal)) break;
+      opened = s;
+    }
+    if (opened == current) return;
+    head.accumulateAndGet(opened, Math::max);
+    if (next != null) next.advance(next.slotTime(opened), invocationTotal, timeSpentTotal);
+  }
+
+  /**
+   * Roll the slot at the given index over to the given timeslot, unless it already holds this or a newer timeslot
+   *
+   * @return true if the slot holds this or a newer timeslot, false if another thread is rolling it over
+   */
+  private boolean open(int idx, long slot, long invocationTotal, long timeSpentTotal) {
+    while (true) {
+      long stamp = stamps.get(idx);
+      if (stamp == ROLLING) return false;
+      if (stamp >= slot) return true;
+      if (stamps.compareAndSet(idx, stamp, ROLLING)) {
+        if (slotHistograms != null) rollover(idx, stamp);
+        bases.set(idx * 2 + INVOCATIONS, invocationTotal);
+        bases.set(idx * 2 + TIME_SPENT, timeSpentTotal);
+        stamps.set(idx, slot);
+        return true;
+      }
+    }
+  }
+
+  private void rollover(int idx, long stamp) {
+    Histogram histogram = slotHistograms.get(idx);
+    if (histogram == null) return;
+    if (next != null && stamp != EMPTY) next.rollup(stamp, histogram);
+    histogram.reset();
+  }
+
+  /**
+   * Add a histogram rolled over in the previous tier to the slot of this tier covering the given time
+   */
+  private void rollup(long timestamp, Histogram histogram) {
+    if (histogram.getCount() == 0) return;
+    Histogram target = histogram(slotTime(timestamp));
+    if (target != null) target.merge(histogram);
+  }
+
+  /**
+   * @return the histogram of the given timeslot, allocating it if needed, or null if the slot does not hold this timeslot
+   */
+  private Histogram histogram(long slot) {
+    int idx = index(slot);
+    if (stamps.get(idx) != slot) return null;
+    Histogram histogram = slotHistograms.get(idx);
+    if (histogram != null) return histogram;
+    slotHistograms.compareAndSet(idx, null, histograms.create());
+    return slotHistograms.get(idx);
+  }
+
+  /**
+   * Find the total remembered by the first slot starting after the given time.
+   *
+   * @param total the current total, returned if no slot starts after the given time
+   * @return the total remembered by the first tier keeping the slot, or 0 if the slot is older than all registered values
+   */
+  private long base(long now, long firstTime, int field, long total) {
+    long slot = slotTime(firstTime) + resolution;
+    if (next == null) slot = Math.max(slot, slotTime(now) - memory);
+    if (slot > head.get()) return total;
+    int idx = index(slot);
+    while (true) {
+      long stamp = stamps.get(idx);
+      if (stamp == EMPTY) return 0;
+      //a slot rolling over is not waited for, but treated as not holding the timeslot
+      if (stamp != slot) return next != null ? next.base(now, firstTime, field, total) : total;
+      long base = bases.get(idx * 2 + field);
+      //re-read the slot if it was rolled over while reading it
+      if (stamps.get(idx) == stamp) return base;
+    }
+  }
+
+  private int index(long slot) {
+    return (int) Math.floorMod(slot / resolution, (long) capacity);
+  }
+
+  private long slotTime(long timestamp) {
+    return Math.floorDiv(timestamp, resolution) * resolution;
+  }
+}
@@ -0,0 +1,75 @@
+package no.mnemonic.commons.metrics;
+
+/**
+ * Slot storage spreading writers over a number of independent shards, to avoid contention between threads
+ * on hosts with many cores. Each thread records into the shard given by a hash of its thread id,
+ * and queries merge the results of all shards. Queries add up the sums of each shard directly into the result,
+ * so summing does not allocate.
+ */
+class ShardedSlotStorage implements SlotStorage {
+
+  private static final long serialVersionUID = 4425140719640532185L;
+
+  private final RingSlotStorage[] shards;
+
+  ShardedSlotStorage(RingSlotStorage[] shards) {
+    if (shards == null || shards.length == 0) throw new IllegalArgumentException("Shards not set");
+    this.shards = shards;
+  }
+
+  @Override
+  public void add(long now, long invocations, long timeSpent, boolean timed) {
+    shards[shard()].add(now, invocations, timeSpent, timed);
+  }
+
+  @Override
+  public long sumInvocations(long now, long firstTime) {
+    long sum = 0;
+    for (RingSlotStorage shard : shards) {
+      sum += shard.sumInvocations(now, firstTime);
+    }
+    return sum;
+  }
+
+  @Override
+  public long sumTimeSpent(long now, long firstTime) {
+    long sum = 0;
+    for (RingSlotStorage shard : shards) {
+      sum += shard.sumTimeSpent(now, firstTime);
+    }
+    return sum;
+  }
+
+  @Override
+  public void sum(long now, long[] firstTimes, long[] invocations, long[] timeSpent) {
+    for (int i = 0; i < firstTimes.length; i++) {
+      invocations[i] = 0;
+      timeSpent[i] = 0;
+    }
+    for (RingSlotStorage shard : shards) {
+      shard.addSums(now, firstTimes, invocations, timeSpent);
+    }
+  }
+
+  @Override
+  public Histogram histogram(long now, long firstTime) {
+    Histogram result = shards[0].histogram(now, firstTime);
+    if (result == null) return null;
+    for (int i = 1; i < shards.length; i++) {
+      result.merge(shards[i].histogram(now, firstTime));
+    }
+    return result;
+  }
+
+  int getShardCount() {
+    return shards.length;
+  }
+
+  //private methods
+
+  private int shard() {
+    //spread sequential thread ids over the shards
+    long hash = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+    return (int) Math.floorMod(hash >>> 32, (long) shards.length);
+  }
+}
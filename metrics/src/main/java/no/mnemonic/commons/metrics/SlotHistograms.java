@@ -0,0 +1,36 @@
+package no.mnemonic.commons.metrics;
+
+import java.io.Serializable;
+
+/**
+ * Configuration of the histograms kept for each timeslot of a {@link PerformanceMonitor}
+ */
+class SlotHistograms implements Serializable {
+
+  private static final long serialVersionUID = -1744531480431474003L;
+
+  private final long highestTrackableValue;
+  private final int precision;
+
+  SlotHistograms(long highestTrackableValue, int precision) {
+    if (precision < 1 || precision > 14) throw new IllegalArgumentException("Histogram precision must be between 1 and 14");
+    if (highestTrackableValue < 1) throw new IllegalArgumentException("Histogram highest trackable value must be positive");
+    this.highestTrackableValue = highestTrackableValue;
+    this.precision = precision;
+  }
+
+  /**
+   * @return a new empty histogram with this configuration
+   */
+  Histogram create() {
+    return new Histogram(highestTrackableValue, precision);
+  }
+
+  /**
+   * Record the average time spent per invocation, once for each invocation
+   */
+  static void record(Histogram histogram, long invocations, long timeSpent) {
+    if (invocations < 1) return;
+    histogram.record(timeSpent / invocations, invocations);
+  }
+}
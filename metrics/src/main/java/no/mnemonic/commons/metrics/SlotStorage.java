@@ -0,0 +1,58 @@
+package no.mnemonic.commons.metrics;
+
+import java.io.Serializable;
+
+/**
+ * Storage of the timeslots kept by a {@link PerformanceMonitor}.
+ * The monitor resolves the current time, and passes it on to the storage.
+ */
+interface SlotStorage extends Serializable {
+
+  /**
+   * Add invocations and time spent to the timeslot of the given time
+   *
+   * @param now         current time in milliseconds
+   * @param invocations number of invocations to add
+   * @param timeSpent   time spent to add
+   * @param timed       true if the time spent should be recorded in the timeslot histogram, if enabled
+   */
+  void add(long now, long invocations, long timeSpent, boolean timed);
+
+  /**
+   * Sum the invocations of all timeslots registered after the given time, which are not expired from memory
+   *
+   * @param now       current time in milliseconds
+   * @param firstTime only include timeslots starting after this time
+   * @return the sum of invocations of all matching timeslots
+   */
+  long sumInvocations(long now, long firstTime);
+
+  /**
+   * Sum the time spent of all timeslots registered after the given time, which are not expired from memory
+   *
+   * @param now       current time in milliseconds
+   * @param firstTime only include timeslots starting after this time
+   * @return the sum of time spent of all matching timeslots
+   */
+  long sumTimeSpent(long now, long firstTime);
+
+  /**
+   * Sum the timeslots registered after each of the given times, from one consistent view of the storage
+   *
+   * @param now         current time in milliseconds
+   * @param firstTimes  the times to sum timeslots after
+   * @param invocations array to put the sum of invocations after each time into
+   * @param timeSpent   array to put the sum of time spent after each time into
+   */
+  void sum(long now, long[] firstTimes, long[] invocations, long[] timeSpent);
+
+  /**
+   * Merge the histograms of all timeslots registered after the given time, which are not expired from memory
+   *
+   * @param now       current time in milliseconds
+   * @param firstTime only include timeslots starting after this time
+   * @return a new histogram with the merged values of all matching timeslots, or null if histograms are not enabled
+   */
+  Histogram histogram(long now, long firstTime);
+
+}
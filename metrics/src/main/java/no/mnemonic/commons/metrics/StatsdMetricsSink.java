@@ -0,0 +1,181 @@
+package no.mnemonic.commons.metrics;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Sink sending each value of a snapshot as a StatsD gauge over UDP, e.g. <code>myapp.service.requests:10|g</code>.
+ *
+ * Values are batched into packets of up to the maximum packet size, separated by newlines, so a snapshot is sent
+ * with as few packets as possible. Packets are built in a reused buffer. Characters which are not allowed
+ * in StatsD names are replaced by underscores, and values which are not finite are skipped.
+ * StatsD reads a signed gauge value as a change to the current value, so a negative value is sent as a reset to zero
+ * followed by a decrement, e.g. <code>myapp.heapMax:0|g</code> and <code>myapp.heapMax:-1|g</code>,
+ * in the same packet.
+ */
+public class StatsdMetricsSink extends FlatMetricsSink {
+
+  public static final int DEFAULT_PORT = 8125;
+  //fits in a single ethernet frame
+  public static final int DEFAULT_MAX_PACKET_SIZE = 1432;
+
+  private final InetSocketAddress address;
+  private final String prefix;
+  private final ByteBuffer packet;
+  private final StringBuilder line = new StringBuilder(256);
+  private DatagramChannel channel;
+
+  private StatsdMetricsSink(Builder builder) {
+    if (builder.host == null) throw new IllegalArgumentException("Host not set");
+    if (builder.port < 1 || builder.port > 65535) throw new IllegalArgumentException("Invalid port");
+    if (builder.maxPacketSize < 64) throw new IllegalArgumentException("Max packet size must be at least 64 bytes");
+    this.address = new InetSocketAddress(builder.host, builder.port);
+    this.prefix = builder.prefix;
+    this.packet = ByteBuffer.allocate(builder.maxPacketSize);
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  //interface methods
+
+  @Override
+  public void close() throws IOException {
+    if (channel != null) channel.close();
+    channel = null;
+  }
+
+  //protected methods
+
+  @Override
+  protected void begin(long timestamp) throws IOException {
+    if (channel == null) channel = DatagramChannel.open();
+    packet.clear();
+  }
+
+  @Override
+  protected void value(CharSequence path, long value) throws IOException {
+    startLine(path, value < 0);
+    line.append(value);
+    endLine();
+  }
+
+  @Override
+  protected void value(CharSequence path, double value) throws IOException {
+    if (!Double.isFinite(value)) return;
+    //a negative zero would be read as a change of zero
+    if (value == 0) value = 0.0;
+    startLine(path, value < 0);
+    line.append(value);
+    endLine();
+  }
+
+  @Override
+  protected void end() throws IOException {
+    send();
+  }
+
+  //private methods
+
+  /**
+   * @param negative true to start with a reset of the gauge to zero, so the negative value is applied to zero
+   */
+  private void startLine(CharSequence path, boolean negative) {
+    line.setLength(0);
+    if (negative) {
+      appendGauge(path);
+      line.append("0|g\n");
+    }
+    appendGauge(path);
+  }
+
+  private void appendGauge(CharSequence path) {
+    if (prefix != null) appendName(prefix).append('.');
+    appendName(path).append(':');
+  }
+
+  private void endLine() throws IOException {
+    line.append("|g");
+    int length = line.length();
+    //values are separated by newlines
+    if (packet.position() > 0 && packet.remaining() < length + 1) send();
+    //skip values too long to fit in a packet
+    if (length > packet.capacity()) return;
+    if (packet.position() > 0) packet.put((byte) '\n');
+    for (int i = 0; i < length; i++) {
+      packet.put((byte) line.charAt(i));
+    }
+  }
+
+  private StringBuilder appendName(CharSequence name) {
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      boolean valid = c > ' ' && c < 127 && c != ':' && c != '|' && c != '@';
+      line.append(valid ? c : '_');
+    }
+    return line;
+  }
+
+  private void send() throws IOException {
+    if (packet.position() == 0) return;
+    packet.flip();
+    channel.send(packet, address);
+    packet.clear();
+  }
+
+  /**
+   * Builder for creating a {@link StatsdMetricsSink}
+   */
+  public static class Builder {
+    private String host = "localhost";
+    private int port = DEFAULT_PORT;
+    private String prefix;
+    private int maxPacketSize = DEFAULT_MAX_PACKET_SIZE;
+
+    private Builder() {
+    }
+
+    public StatsdMetricsSink build() {
+      return new StatsdMetricsSink(this);
+    }
+
+    /**
+     * @param host host of the StatsD server, defaults to localhost
+     * @return builder
+     */
+    public Builder setHost(String host) {
+      this.host = host;
+      return this;
+    }
+
+    /**
+     * @param port port of the StatsD server, defaults to {@value StatsdMetricsSink#DEFAULT_PORT}
+     * @return builder
+     */
+    public Builder setPort(int port) {
+      this.port = port;
+      return this;
+    }
+
+    /**
+     * @param prefix prefix of all names, or null for no prefix
+     * @return builder
+     */
+    public Builder setPrefix(String prefix) {
+      this.prefix = prefix;
+      return this;
+    }
+
+    /**
+     * @param maxPacketSize maximum size of each packet in bytes, defaults to {@value StatsdMetricsSink#DEFAULT_MAX_PACKET_SIZE}
+     * @return builder
+     */
+    public Builder setMaxPacketSize(int maxPacketSize) {
+      this.maxPacketSize = maxPacketSize;
+      return this;
+    }
+  }
+}
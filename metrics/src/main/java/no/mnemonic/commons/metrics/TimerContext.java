@@ -1,13 +1,13 @@
 package no.mnemonic.commons.metrics;
 
+import jdk.jfr.EventType;
 import no.mnemonic.commons.logging.Logger;
 import no.mnemonic.commons.logging.Logging;
 
-import java.time.Clock;
-import java.time.Instant;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
-import java.util.function.Supplier;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
 
 /**
  * A timer context is a helper to register timing metrics for your code.
@@ -23,64 +23,196 @@ import java.util.function.Supplier;
  *
  * For long-living worker components, a good use case is to define a LongAdder in your component instance
  * for measuring accumulated time for an operation, by appending to it for every execution.
+ *
+ * Timers measure elapsed time using the monotonic {@link System#nanoTime()}, so all timer types report
+ * real elapsed time in their unit, and are not affected by adjustments to the wall clock.
+ *
+ * The <code>timerX</code> factories accept a <code>Consumer&lt;Long&gt;</code>, which boxes the measured value.
+ * Use the <code>ofX</code> factories to report the value to a {@link LongConsumer} instead,
+ * and use a {@link ReusableTimer} to avoid allocating a timer context for each timed block.
+ * For code paths called too often to time every call, use a {@link TimerSampler} to time only a sample of the calls.
+ *
+ * Timers created with a name also emit a JDK Flight Recorder event named
+ * <code>no.mnemonic.commons.metrics.Timer</code> for each timed block when the event is enabled in a running recording,
+ * carrying the name, duration and thread, so timed blocks can be correlated with GC, lock and I/O events.
+ * When the event is not enabled, no event is created.
+ *
+ * <code>
+ *   try (TimerContext ignored = TimerContext.ofMillis("lookup", executionTimeInMillis::add)) {
+ *     //do some work
+ *   }
+ * </code>
  */
 public class TimerContext implements AutoCloseable {
 
   private static final Logger LOGGER = Logging.getLogger(TimerContext.class);
-  private static Clock clock = Clock.systemUTC();
+  private static LongSupplier ticker = System::nanoTime;
 
   enum MetricType {
 
-    millis(clock::millis),
-    nanos(() -> TimeUnit.MILLISECONDS.toNanos(clock.millis())),
-    seconds(() -> TimeUnit.MILLISECONDS.toSeconds(clock.millis()));
+    millis(TimeUnit.MILLISECONDS),
+    micros(TimeUnit.MICROSECONDS),
+    nanos(TimeUnit.NANOSECONDS),
+    seconds(TimeUnit.SECONDS);
 
-    private final Supplier<Long> currentSupplier;
+    private final TimeUnit unit;
 
-    MetricType(Supplier<Long> currentSupplier) {
-      this.currentSupplier = currentSupplier;
+    MetricType(TimeUnit unit) {
+      this.unit = unit;
     }
 
-    public long getCurrent() {
-      return currentSupplier.get();
+    public long fromNanos(long nanos) {
+      return unit.convert(nanos, TimeUnit.NANOSECONDS);
     }
   }
 
-  private final Consumer<Long> metric;
+  /**
+   * Timer which does not measure or report anything, returned for calls not sampled by a {@link TimerSampler}
+   */
+  static final TimerContext NOOP = new TimerContext();
+
+  private final LongConsumer metric;
   private final MetricType type;
+  private final TimerEvent event;
+  private final long scale;
   private final long startTime;
 
-  private TimerContext(Consumer<Long> metric, MetricType type) {
+  private TimerContext() {
+    this.metric = null;
+    this.type = null;
+    this.event = null;
+    this.scale = 0;
+    this.startTime = 0;
+  }
+
+  private TimerContext(LongConsumer metric, MetricType type) {
+    this(null, metric, type, 1);
+  }
+
+  private TimerContext(String name, LongConsumer metric, MetricType type, long scale) {
     if (metric == null) throw new IllegalArgumentException("Metric not set");
     if (type == null) throw new IllegalArgumentException("Type not set");
     this.metric = metric;
     this.type = type;
-    this.startTime = type.getCurrent();
+    this.event = name != null ? beginEvent(name) : null;
+    this.scale = scale;
+    this.startTime = ticker.getAsLong();
   }
 
   @Override
   public void close() {
+    if (metric == null) return;
     try {
-      metric.accept(type.getCurrent() - startTime);
+      metric.accept(type.fromNanos((ticker.getAsLong() - startTime) * scale));
     } catch (Throwable e) {
       LOGGER.warning(e, "Error updating timer metric");
     }
+    if (event != null) event.commit();
   }
 
   public static TimerContext timerMillis(Consumer<Long> metric) {
-    return new TimerContext(metric, MetricType.millis);
+    return new TimerContext(boxed(metric), MetricType.millis);
+  }
+
+  public static TimerContext timerMicros(Consumer<Long> metric) {
+    return new TimerContext(boxed(metric), MetricType.micros);
   }
 
   public static TimerContext timerNanos(Consumer<Long> metric) {
-    return new TimerContext(metric, MetricType.nanos);
+    return new TimerContext(boxed(metric), MetricType.nanos);
   }
 
   public static TimerContext timerSeconds(Consumer<Long> metric) {
+    return new TimerContext(boxed(metric), MetricType.seconds);
+  }
+
+  public static TimerContext ofMillis(LongConsumer metric) {
+    return new TimerContext(metric, MetricType.millis);
+  }
+
+  public static TimerContext ofMicros(LongConsumer metric) {
+    return new TimerContext(metric, MetricType.micros);
+  }
+
+  public static TimerContext ofNanos(LongConsumer metric) {
+    return new TimerContext(metric, MetricType.nanos);
+  }
+
+  public static TimerContext ofSeconds(LongConsumer metric) {
     return new TimerContext(metric, MetricType.seconds);
   }
 
-  static void setClock(Clock clock) {
-    TimerContext.clock = clock;
+  /**
+   * @param name   name of the timed block in Flight Recorder events
+   * @param metric metric to report the elapsed milliseconds to
+   * @return a started timer
+   */
+  public static TimerContext ofMillis(String name, LongConsumer metric) {
+    return new TimerContext(name, metric, MetricType.millis, 1);
+  }
+
+  /**
+   * @param name   name of the timed block in Flight Recorder events
+   * @param metric metric to report the elapsed microseconds to
+   * @return a started timer
+   */
+  public static TimerContext ofMicros(String name, LongConsumer metric) {
+    return new TimerContext(name, metric, MetricType.micros, 1);
+  }
+
+  /**
+   * @param name   name of the timed block in Flight Recorder events
+   * @param metric metric to report the elapsed nanoseconds to
+   * @return a started timer
+   */
+  public static TimerContext ofNanos(String name, LongConsumer metric) {
+    return new TimerContext(name, metric, MetricType.nanos, 1);
+  }
+
+  /**
+   * @param name   name of the timed block in Flight Recorder events
+   * @param metric metric to report the elapsed seconds to
+   * @return a started timer
+   */
+  public static TimerContext ofSeconds(String name, LongConsumer metric) {
+    return new TimerContext(name, metric, MetricType.seconds, 1);
+  }
+
+  /**
+   * Create a timer reporting the elapsed time multiplied by the given scale, used by {@link TimerSampler}
+   * to report an estimate of the time spent by all calls represented by the sampled call.
+   */
+  static TimerContext scaled(LongConsumer metric, MetricType type, long scale) {
+    return new TimerContext(null, metric, type, scale);
+  }
+
+  static long nanoTime() {
+    return ticker.getAsLong();
+  }
+
+  private static TimerEvent beginEvent(String name) {
+    //check the event type first, so no event is allocated while it is not enabled
+    if (!TimerEventType.TYPE.isEnabled()) return null;
+    TimerEvent event = new TimerEvent();
+    event.name = name;
+    event.begin();
+    return event;
+  }
+
+  private static LongConsumer boxed(Consumer<Long> metric) {
+    return metric != null ? metric::accept : null;
+  }
+
+  /**
+   * Holder of the event type, so Flight Recorder is only initialized when the first named timer is used
+   */
+  private static class TimerEventType {
+    private static final EventType TYPE = EventType.getEventType(TimerEvent.class);
+  }
+
+  //for testing
+  static void setTicker(LongSupplier ticker) {
+    TimerContext.ticker = ticker;
   }
 
 }
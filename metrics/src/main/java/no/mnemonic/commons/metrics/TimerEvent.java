@@ -0,0 +1,25 @@
+package no.mnemonic.commons.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for a named {@link TimerContext}, spanning the timed block.
+ * The event duration and thread are recorded by Flight Recorder.
+ */
+@Name(TimerEvent.NAME)
+@Label("Timer")
+@Category({"Mnemonic", "Metrics"})
+@Description("A timed block of code")
+@StackTrace(false)
+class TimerEvent extends jdk.jfr.Event {
+
+  static final String NAME = "no.mnemonic.commons.metrics.Timer";
+
+  @Label("Name")
+  String name;
+
+}
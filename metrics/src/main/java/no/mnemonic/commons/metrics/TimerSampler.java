@@ -0,0 +1,127 @@
+package no.mnemonic.commons.metrics;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongConsumer;
+
+/**
+ * A timer sampler times only a sample of the calls to a block of code, for code paths where timing every call
+ * costs more than the work being measured. Sampled calls get a {@link TimerContext} reporting the elapsed time
+ * multiplied by the sample rate, so the reported total is an unbiased estimate of the time spent by all calls.
+ * Calls which are not sampled get a shared timer which does not read the clock or report anything.
+ * To keep calls which are not sampled allocation-free, keep the metric consumer in a field, as in the example below,
+ * instead of passing a new method reference for each call.
+ *
+ * Example:
+ * <code>
+ *   private final LongAdder executionTimeInMicros = new LongAdder();
+ *   private final LongConsumer executionTime = executionTimeInMicros::add;
+ *   private final TimerSampler sampler = TimerSampler.random(100);
+ *
+ *   try (TimerContext ignored = sampler.ofMicros(executionTime)) {
+ *     //do some work
+ *   }
+ * </code>
+ *
+ * When timing into a {@link PerformanceMonitor}, use {@link #monitor(PerformanceMonitor)}, which registers each
+ * sampled call as <code>rate</code> invocations, so both invocation counts and time spent are scaled.
+ *
+ * A {@link #random(int)} sampler samples each call with a probability of <code>1/rate</code>, using the
+ * thread-local random generator, while an {@link #everyNth(int)} sampler samples every <code>rate</code>th call
+ * on each thread. Prefer random sampling for code with periodic behaviour, which could align with every Nth call.
+ */
+public class TimerSampler {
+
+  private final int rate;
+  private final boolean random;
+  private final ThreadLocal<Countdown> countdowns = ThreadLocal.withInitial(Countdown::new);
+
+  private TimerSampler(int rate, boolean random) {
+    if (rate < 1) throw new IllegalArgumentException("Rate must be positive");
+    this.rate = rate;
+    this.random = random;
+  }
+
+  /**
+   * @param rate sample one call out of rate calls, at random
+   * @return a random sampler
+   */
+  public static TimerSampler random(int rate) {
+    return new TimerSampler(rate, true);
+  }
+
+  /**
+   * @param rate sample every rate call on each thread
+   * @return a deterministic sampler
+   */
+  public static TimerSampler everyNth(int rate) {
+    return new TimerSampler(rate, false);
+  }
+
+  //public methods
+
+  /**
+   * @return the sample rate, the number of calls represented by each sampled call
+   */
+  public int getRate() {
+    return rate;
+  }
+
+  /**
+   * Decide whether the current call should be sampled
+   *
+   * @return true if the call is sampled
+   */
+  public boolean sample() {
+    if (rate == 1) return true;
+    return random ? ThreadLocalRandom.current().nextInt(rate) == 0 : countdowns.get().next(rate);
+  }
+
+  public TimerContext ofMillis(LongConsumer metric) {
+    return start(metric, TimerContext.MetricType.millis);
+  }
+
+  public TimerContext ofMicros(LongConsumer metric) {
+    return start(metric, TimerContext.MetricType.micros);
+  }
+
+  public TimerContext ofNanos(LongConsumer metric) {
+    return start(metric, TimerContext.MetricType.nanos);
+  }
+
+  public TimerContext ofSeconds(LongConsumer metric) {
+    return start(metric, TimerContext.MetricType.seconds);
+  }
+
+  /**
+   * Time a call into a performance monitor. Each sampled call is registered as <code>rate</code> invocations,
+   * spending <code>rate</code> times the elapsed milliseconds.
+   *
+   * @param monitor monitor to register sampled calls to
+   * @return a started timer if the call is sampled, or a timer doing nothing if not
+   */
+  public TimerContext monitor(PerformanceMonitor monitor) {
+    if (monitor == null) throw new IllegalArgumentException("Monitor not set");
+    if (!sample()) return TimerContext.NOOP;
+    return TimerContext.scaled(timeSpent -> monitor.invoked(rate, timeSpent), TimerContext.MetricType.millis, rate);
+  }
+
+  //private methods
+
+  private TimerContext start(LongConsumer metric, TimerContext.MetricType type) {
+    if (metric == null) throw new IllegalArgumentException("Metric not set");
+    if (!sample()) return TimerContext.NOOP;
+    return TimerContext.scaled(metric, type, rate);
+  }
+
+  private static class Countdown {
+    //start each thread at a random offset, so threads starting together are not sampled together
+    private int remaining = -1;
+
+    private boolean next(int rate) {
+      if (remaining < 0) remaining = ThreadLocalRandom.current().nextInt(rate);
+      if (remaining-- > 0) return false;
+      remaining = rate - 1;
+      return true;
+    }
+  }
+}
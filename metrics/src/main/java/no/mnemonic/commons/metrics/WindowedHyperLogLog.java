@@ -0,0 +1,253 @@
+package no.mnemonic.commons.metrics;
+
+import no.mnemonic.commons.logging.Logger;
+import no.mnemonic.commons.logging.Logging;
+
+import java.io.Serializable;
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A windowed HyperLogLog estimates the number of distinct values added within a timeframe, such as distinct users
+ * during the last 5 minutes. Like a {@link PerformanceMonitor}, it divides time into timeslots (based on resolution),
+ * and remembers the timeslots for a defined memory period, keeping a {@link HyperLogLog} sketch per timeslot.
+ * Queries merge the sketches of all timeslots within the queried timeframe.
+ *
+ * Example:
+ * <code>
+ *   WindowedHyperLogLog users = WindowedHyperLogLog.builder()
+ *           .setTimeUnit(TimeUnit.MINUTES)
+ *           .setMemory(60)
+ *           .setResolution(1)
+ *           .build();
+ *
+ *   //.... component code
+ *   users.add(userID);
+ *
+ *   //.... metrics collection
+ *   metrics.addData("distinctUsers5min", users.getCardinalityLast(TimeUnit.MINUTES, 5));
+ * </code>
+ *
+ * Timeslots are kept in a fixed-size ring, like {@link PerformanceMonitor.StorageMode#RING_BUFFER}: the slot for a
+ * timestamp is found at index <code>(slotTime / resolution) % capacity</code>, and is rolled over to a new timeslot by
+ * publishing a new sketch for the timeslot with a CAS, so adding values and querying is lock-free, and no thread ever
+ * waits for a rollover. The sketch of a timeslot is allocated the first time a value is added in the timeslot,
+ * and the sketch of the expired timeslot is left to the garbage collector, so memory use is bounded by the number
+ * of slots times the size of a sketch, and a sketch is allocated per timeslot in use.
+ * With {@value HyperLogLog#DEFAULT_PRECISION} bits of precision each sketch takes about 13 KB,
+ * so use a lower precision (see {@link Builder#setPrecision(int)}) for windows with many timeslots.
+ * Values added to an expired timeslot concurrently with its rollover may be lost.
+ */
+public class WindowedHyperLogLog implements Serializable {
+
+  private static final long serialVersionUID = 8719584310735460958L;
+
+  private static final Logger LOGGER = Logging.getLogger(WindowedHyperLogLog.class);
+
+  private static Clock clock = Clock.systemUTC();
+
+  private final long memory;
+  private final long resolution;
+  private final int precision;
+  private final int capacity;
+  private final AtomicReferenceArray<Slot> slots;
+
+  private WindowedHyperLogLog(Builder builder) {
+    if (builder.timeUnit == null) throw new IllegalArgumentException("TimeUnit not set");
+    if (builder.resolution < 1) throw new IllegalArgumentException("Resolution invalid");
+    if (builder.memory <= builder.resolution) throw new IllegalArgumentException("Memory must be greater than resolution");
+    if (builder.precision < HyperLogLog.MIN_PRECISION || builder.precision > HyperLogLog.MAX_PRECISION) {
+      throw new IllegalArgumentException("Precision must be between " + HyperLogLog.MIN_PRECISION + " and " + HyperLogLog.MAX_PRECISION);
+    }
+    this.memory = builder.timeUnit.toMillis(builder.memory);
+    this.resolution = builder.timeUnit.toMillis(builder.resolution);
+    this.precision = builder.precision;
+    //keep all slots within memory, in addition to the current slot
+    this.capacity = (int) (memory / resolution) + 2;
+    this.slots = new AtomicReferenceArray<>(capacity);
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  //public methods
+
+  /**
+   * @param value value to add to the current timeslot
+   */
+  public void add(long value) {
+    addHash(HyperLogLog.mix(value));
+  }
+
+  /**
+   * @param value value to add to the current timeslot
+   */
+  public void add(CharSequence value) {
+    if (value == null) throw new IllegalArgumentException("Value not set");
+    addHash(HyperLogLog.hash(value));
+  }
+
+  /**
+   * @param hash the 64-bit hash of a value to add to the current timeslot, see {@link HyperLogLog#addHash(long)}
+   */
+  public void addHash(long hash) {
+    HyperLogLog sketch = sketch(slotTime(clock.millis()));
+    if (sketch != null) sketch.addHash(hash);
+  }
+
+  /**
+   * Query the memory for the number of distinct values added. If the query specifies a timeframe
+   * which goes beyond the memory window, the timeslots outside the memory window will be ignored.
+   *
+   * @param timeUnit  timeunit to query in
+   * @param timeframe the number of timeunits to query
+   * @return the estimated number of distinct values added within the specified timeframe
+   */
+  public long getCardinalityLast(TimeUnit timeUnit, long timeframe) {
+    return getSketchLast(timeUnit, timeframe).getCardinality();
+  }
+
+  /**
+   * Merge the sketches of all timeslots within the timeframe, for instance to merge them with the sketches of other nodes
+   *
+   * @param timeUnit  timeunit to query in
+   * @param timeframe the number of timeunits to query
+   * @return a new sketch with the merged registers of all timeslots within the specified timeframe
+   */
+  public HyperLogLog getSketchLast(TimeUnit timeUnit, long timeframe) {
+    long millis = timeUnit.toMillis(timeframe);
+    if (millis < 1) throw new IllegalArgumentException("Invalid timeframe: " + timeframe);
+    if (millis > memory) LOGGER.warning("Using larger timeframe than defined memory, will give inaccurate results");
+    long now = clock.millis();
+    long firstTime = now - millis;
+    long expiry = slotTime(now) - memory;
+    HyperLogLog result = new HyperLogLog(precision);
+    for (int idx = 0; idx < capacity; idx++) {
+      Slot slot = slots.get(idx);
+      if (slot == null || slot.stamp <= firstTime || slot.stamp < expiry) continue;
+      result.merge(slot.sketch);
+    }
+    return result;
+  }
+
+  /**
+   * @return the configured resolution, in milliseconds
+   */
+  public long getResolution() {
+    return resolution;
+  }
+
+  /**
+   * @return the configured memory period, in milliseconds
+   */
+  public long getMemory() {
+    return memory;
+  }
+
+  public int getPrecision() {
+    return precision;
+  }
+
+  //private methods
+
+  /**
+   * @return the sketch of the given timeslot, rolling the slot over to this timeslot with a new sketch if needed,
+   * or null if the slot already holds a newer timeslot
+   */
+  private HyperLogLog sketch(long stamp) {
+    int idx = index(stamp);
+    Slot created = null;
+    while (true) {
+      Slot current = slots.get(idx);
+      if (current != null && current.stamp == stamp) return current.sketch;
+      if (current != null && current.stamp > stamp) return null;
+      //the sketch is created before publishing it, so no thread waits for the rollover
+      if (created == null) created = new Slot(stamp, new HyperLogLog(precision));
+      if (slots.compareAndSet(idx, current, created)) return created.sketch;
+    }
+  }
+
+  private int index(long slot) {
+    return (int) Math.floorMod(slot / resolution, (long) capacity);
+  }
+
+  private long slotTime(long timestamp) {
+    return Math.floorDiv(timestamp, resolution) * resolution;
+  }
+
+  /**
+   * The sketch of a timeslot
+   */
+  private static class Slot implements Serializable {
+    private static final long serialVersionUID = -5107386426392473317L;
+
+    private final long stamp;
+    private final HyperLogLog sketch;
+
+    private Slot(long stamp, HyperLogLog sketch) {
+      this.stamp = stamp;
+      this.sketch = sketch;
+    }
+  }
+
+  /**
+   * Builder for creating a {@link WindowedHyperLogLog}
+   */
+  public static class Builder {
+    private TimeUnit timeUnit;
+    private long memory;
+    private long resolution;
+    private int precision = HyperLogLog.DEFAULT_PRECISION;
+
+    private Builder() {
+    }
+
+    public WindowedHyperLogLog build() {
+      return new WindowedHyperLogLog(this);
+    }
+
+    /**
+     * @param timeUnit the timeUnit used for memory and resolution
+     * @return builder
+     */
+    public Builder setTimeUnit(TimeUnit timeUnit) {
+      this.timeUnit = timeUnit;
+      return this;
+    }
+
+    /**
+     * @param memory the number of timeUnits to remember
+     * @return builder
+     */
+    public Builder setMemory(long memory) {
+      this.memory = memory;
+      return this;
+    }
+
+    /**
+     * @param resolution resolution in timeUnits
+     * @return builder
+     */
+    public Builder setResolution(long resolution) {
+      this.resolution = resolution;
+      return this;
+    }
+
+    /**
+     * @param precision the precision of the sketch of each timeslot, see {@link HyperLogLog#HyperLogLog(int)}.
+     *                  Defaults to {@value HyperLogLog#DEFAULT_PRECISION}.
+     * @return builder
+     */
+    public Builder setPrecision(int precision) {
+      this.precision = precision;
+      return this;
+    }
+  }
+
+  //for testing
+  static void setClock(Clock clock) {
+    WindowedHyperLogLog.clock = clock;
+  }
+}
@@ -0,0 +1,103 @@
+package no.mnemonic.commons.metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class AsyncTimerTest {
+
+  private final AtomicLong nanoTime = new AtomicLong();
+  private final PerformanceMonitor successMonitor = new PerformanceMonitor(TimeUnit.MINUTES, 10, 1);
+  private final PerformanceMonitor failureMonitor = new PerformanceMonitor(TimeUnit.MINUTES, 10, 1);
+  private final Histogram successHistogram = new Histogram();
+  private final Histogram failureHistogram = new Histogram();
+  private AsyncTimer timer;
+
+  @Before
+  public void setup() {
+    nanoTime.set(TimeUnit.MILLISECONDS.toNanos(10000));
+    TimerContext.setTicker(nanoTime::get);
+    timer = AsyncTimer.builder()
+            .setSuccessMonitor(successMonitor)
+            .setFailureMonitor(failureMonitor)
+            .setSuccessHistogram(successHistogram)
+            .setFailureHistogram(failureHistogram)
+            .setHistogramTimeUnit(TimeUnit.MICROSECONDS)
+            .build();
+  }
+
+  @After
+  public void cleanup() {
+    TimerContext.setTicker(System::nanoTime);
+  }
+
+  @Test
+  public void registerDurationWhenStageCompletes() throws MetricException {
+    CompletableFuture<String> future = timer.time(new CompletableFuture<>());
+    nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(20));
+    assertEquals(1L, timer.getMetrics().getData("pending"));
+    assertEquals(0, successMonitor.getTotalInvocations());
+
+    future.complete("result");
+    assertEquals(1, successMonitor.getTotalInvocations());
+    assertEquals(20, successMonitor.getTotalTimeSpent());
+    assertEquals(1, successHistogram.getCount());
+    assertEquals(20000, successHistogram.getMax());
+    assertEquals(0, failureMonitor.getTotalInvocations());
+    assertEquals(1L, timer.getMetrics().getData("succeeded"));
+    assertEquals(0L, timer.getMetrics().getData("pending"));
+  }
+
+  @Test
+  public void registerFailuresSeparately() {
+    CompletableFuture<String> failing = timer.time(new CompletableFuture<>());
+    CompletableFuture<String> cancelled = timer.time(new CompletableFuture<>());
+    nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(5));
+    failing.completeExceptionally(new IllegalStateException());
+    cancelled.cancel(false);
+    assertEquals(2, timer.getFailed());
+    assertEquals(0, timer.getSucceeded());
+    assertEquals(2, failureMonitor.getTotalInvocations());
+    assertEquals(10, failureMonitor.getTotalTimeSpent());
+    assertEquals(2, failureHistogram.getCount());
+    assertEquals(0, successHistogram.getCount());
+  }
+
+  @Test
+  public void returnTheTimedStage() {
+    CompletableFuture<String> future = CompletableFuture.completedFuture("result");
+    assertSame(future, timer.time(future));
+    assertEquals(1, timer.getSucceeded());
+  }
+
+  @Test
+  public void registerInCompletingThread() throws Exception {
+    CompletableFuture<String> future = timer.time(new CompletableFuture<>());
+    AtomicLong completingThread = new AtomicLong();
+    future.whenComplete((r, e) -> completingThread.set(Thread.currentThread().getId()));
+    Thread thread = new Thread(() -> future.complete("result"));
+    thread.start();
+    thread.join();
+    assertEquals(thread.getId(), completingThread.get());
+    assertEquals(1, timer.getSucceeded());
+  }
+
+  @Test
+  public void timerWithoutMonitorsOnlyCounts() {
+    AsyncTimer counting = AsyncTimer.builder().build();
+    counting.time(CompletableFuture.completedFuture("result"));
+    assertEquals(1, counting.getSucceeded());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void stageNotSet() {
+    timer.time(null);
+  }
+}
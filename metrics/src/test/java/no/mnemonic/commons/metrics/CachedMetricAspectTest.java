@@ -0,0 +1,188 @@
+package no.mnemonic.commons.metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class CachedMetricAspectTest {
+
+  private final AtomicLong ticker = new AtomicLong(1000000L);
+  private final AtomicInteger calls = new AtomicInteger();
+  private final List<Runnable> tasks = new ArrayList<>();
+
+  @Before
+  public void setup() {
+    TimerContext.setTicker(ticker::get);
+  }
+
+  @After
+  public void cleanup() {
+    TimerContext.setTicker(System::nanoTime);
+  }
+
+  @Test
+  public void serveCachedMetricsWithinTimeToLive() throws MetricException {
+    CachedMetricAspect cached = cached(this::count);
+    Metrics first = cached.getMetrics();
+    ticker.addAndGet(TimeUnit.MILLISECONDS.toNanos(999));
+    assertSame(first, cached.getMetrics());
+    assertEquals(1, calls.get());
+    assertEquals(0, tasks.size());
+  }
+
+  @Test
+  public void serveStaleMetricsWhileRefreshing() throws MetricException {
+    CachedMetricAspect cached = cached(this::count);
+    Metrics first = cached.getMetrics();
+    ticker.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    assertSame(first, cached.getMetrics());
+    assertSame(first, cached.getMetrics());
+    //one refresh is scheduled for several stale calls
+    assertEquals(1, tasks.size());
+    tasks.remove(0).run();
+    assertEquals(2L, cached.getMetrics().getData("calls"));
+    assertEquals(2, calls.get());
+  }
+
+  @Test
+  public void serveStaleMetricsWhenRefreshFails() throws MetricException {
+    AtomicInteger failures = new AtomicInteger();
+    CachedMetricAspect cached = cached(() -> {
+      if (calls.get() > 0) {
+        failures.incrementAndGet();
+        throw new MetricException("failed");
+      }
+      return count();
+    });
+    Metrics first = cached.getMetrics();
+    ticker.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    cached.getMetrics();
+    tasks.remove(0).run();
+    assertEquals(1, failures.get());
+    assertSame(first, cached.getMetrics());
+    //the failed refresh is not retried within the time to live
+    assertEquals(0, tasks.size());
+    ticker.addAndGet(TimeUnit.MILLISECONDS.toNanos(999));
+    assertSame(first, cached.getMetrics());
+    assertEquals(0, tasks.size());
+    ticker.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+    assertSame(first, cached.getMetrics());
+    assertEquals(1, tasks.size());
+  }
+
+  @Test
+  public void errorIsThrownToWaitingCallers() throws MetricException {
+    AtomicInteger attempts = new AtomicInteger();
+    CachedMetricAspect cached = cached(() -> {
+      if (attempts.incrementAndGet() == 1) throw new StackOverflowError();
+      return count();
+    });
+    try {
+      cached.getMetrics();
+      fail("Expected error");
+    } catch (StackOverflowError ignored) {
+    }
+    assertEquals(1L, cached.getMetrics().getData("calls"));
+  }
+
+  @Test
+  public void refreshUsingDefaultExecutor() throws Exception {
+    CachedMetricAspect cached = CachedMetricAspect.builder().setAspect(this::count).build();
+    assertEquals(1L, cached.getMetrics().getData("calls"));
+    ticker.addAndGet(TimeUnit.MILLISECONDS.toNanos(CachedMetricAspect.DEFAULT_TIME_TO_LIVE_MILLIS));
+    cached.getMetrics();
+    long deadline = System.currentTimeMillis() + 10000;
+    while (calls.get() < 2 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(2, calls.get());
+  }
+
+  @Test
+  public void firstFailureIsThrownAndRetried() throws MetricException {
+    AtomicInteger attempts = new AtomicInteger();
+    CachedMetricAspect cached = cached(() -> {
+      if (attempts.incrementAndGet() == 1) throw new MetricException("failed");
+      return count();
+    });
+    try {
+      cached.getMetrics();
+      fail("Expected exception");
+    } catch (MetricException ignored) {
+    }
+    assertEquals(1L, cached.getMetrics().getData("calls"));
+  }
+
+  @Test
+  public void concurrentFirstCallersAreCoalesced() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CachedMetricAspect cached = cached(() -> {
+      started.countDown();
+      await(release);
+      return count();
+    });
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Metrics>> results = new ArrayList<>();
+      results.add(pool.submit(cached::getMetrics));
+      started.await();
+      for (int i = 0; i < 3; i++) {
+        results.add(pool.submit(cached::getMetrics));
+      }
+      //give the other callers time to join the running computation
+      Thread.sleep(100);
+      release.countDown();
+      for (Future<Metrics> result : results) {
+        assertEquals(1L, result.get(10, TimeUnit.SECONDS).getData("calls"));
+      }
+      assertEquals(1, calls.get());
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void aspectNotSet() {
+    CachedMetricAspect.builder().build();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void negativeTimeToLive() {
+    CachedMetricAspect.builder().setAspect(this::count).setTimeToLiveMillis(-1).build();
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private Metrics count() throws MetricException {
+    return new MetricsData().addData("calls", (long) calls.incrementAndGet());
+  }
+
+  private CachedMetricAspect cached(MetricAspect aspect) {
+    return CachedMetricAspect.builder()
+            .setAspect(aspect)
+            .setTimeToLiveMillis(1000)
+            .setExecutor(tasks::add)
+            .build();
+  }
+}
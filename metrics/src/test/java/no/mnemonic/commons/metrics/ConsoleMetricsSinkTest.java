@@ -0,0 +1,33 @@
+package no.mnemonic.commons.metrics;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class ConsoleMetricsSinkTest {
+
+  @Test
+  public void printValuesWithPath() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ConsoleMetricsSink sink = new ConsoleMetricsSink(new PrintStream(out, true, "UTF-8"));
+    sink.report(0, new MetricsGroup()
+            .addSubMetrics("service", new MetricsGroup()
+                    .addSubMetrics("meter", PrimitiveMetricsData.builder().addData("count", 3).addData("rate", 0.5).build())));
+    assertEquals("metrics 1970-01-01T00:00:00Z\n  service.meter.count=3\n  service.meter.rate=0.5\n",
+            out.toString(StandardCharsets.UTF_8.name()));
+  }
+
+  @Test
+  public void reuseSinkForSeveralSnapshots() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ConsoleMetricsSink sink = new ConsoleMetricsSink(new PrintStream(out, true, "UTF-8"));
+    sink.report(0, new MetricsData().addData("value", 1L));
+    sink.report(1000, new MetricsData().addData("value", 2L));
+    assertEquals("metrics 1970-01-01T00:00:00Z\n  value=1\nmetrics 1970-01-01T00:00:01Z\n  value=2\n",
+            out.toString(StandardCharsets.UTF_8.name()));
+  }
+}
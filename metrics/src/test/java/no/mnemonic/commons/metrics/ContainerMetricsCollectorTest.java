@@ -0,0 +1,225 @@
+package no.mnemonic.commons.metrics;
+
+import no.mnemonic.commons.container.ComponentContainer;
+import no.mnemonic.commons.container.providers.BeanProvider;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static no.mnemonic.commons.utilities.collections.MapUtils.map;
+import static no.mnemonic.commons.utilities.collections.MapUtils.pair;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ContainerMetricsCollectorTest {
+
+  private final CountDownLatch release = new CountDownLatch(1);
+  private ComponentContainer container;
+
+  @After
+  public void cleanup() {
+    release.countDown();
+    if (container != null) container.destroy();
+  }
+
+  @Test
+  public void collectMetricsOfAllComponents() throws MetricException {
+    ContainerMetricsCollector collector = ContainerMetricsCollector.builder().build();
+    container = ComponentContainer.create(beans(map(
+            pair("collector", collector),
+            pair("component1", fixed(1)),
+            pair("component2", fixed(2)),
+            pair("other", new Object())
+    ))).initialize();
+    Metrics metrics = collector.getMetrics();
+    assertEquals(3, metrics.getSubMetrics().size());
+    assertEquals(1L, metrics.getSubMetrics("component1").getData("value"));
+    assertEquals(2L, metrics.getSubMetrics("component2").getData("value"));
+    Metrics stats = metrics.getSubMetrics(ContainerMetricsCollector.COLLECTOR_METRICS);
+    assertEquals(2, stats.getData("components"));
+    assertEquals(2, stats.getData("collected"));
+    assertEquals(0, stats.getData("stale"));
+  }
+
+  @Test
+  public void slowComponentIsReportedAsStale() throws MetricException {
+    ContainerMetricsCollector collector = ContainerMetricsCollector.builder().setTimeoutMillis(100).build();
+    AtomicBoolean slow = new AtomicBoolean(false);
+    collector.addComponent("fast", fixed(1));
+    collector.addComponent("slow", () -> {
+      if (slow.get()) await(release);
+      return new MetricsData().addData("value", 2L);
+    });
+    assertEquals(2L, collector.getMetrics().getSubMetrics("slow").getData("value"));
+
+    slow.set(true);
+    long start = System.nanoTime();
+    Metrics metrics = collector.getMetrics();
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    assertEquals(1L, metrics.getSubMetrics("fast").getData("value"));
+    //the last metrics of the slow component are still reported
+    assertEquals(2L, metrics.getSubMetrics("slow").getData("value"));
+    Metrics stats = metrics.getSubMetrics(ContainerMetricsCollector.COLLECTOR_METRICS);
+    assertEquals(1, stats.getData("collected"));
+    assertEquals(1, stats.getData("stale"));
+    assertTrue(stats.getData("stale.slow").longValue() >= 0);
+  }
+
+  @Test
+  public void slowComponentIsNotCalledAgainWhileRunning() throws MetricException {
+    ContainerMetricsCollector collector = ContainerMetricsCollector.builder().setTimeoutMillis(50).setThreads(1).build();
+    Map<String, Integer> calls = new HashMap<>();
+    collector.addComponent("slow", () -> {
+      synchronized (calls) {
+        calls.merge("slow", 1, Integer::sum);
+      }
+      await(release);
+      return new MetricsData().addData("value", 1L);
+    });
+    collector.getMetrics();
+    Metrics metrics = collector.getMetrics();
+    assertNull(metrics.getSubMetrics("slow"));
+    assertEquals(-1L, metrics.getSubMetrics(ContainerMetricsCollector.COLLECTOR_METRICS).getData("stale.slow"));
+    synchronized (calls) {
+      assertEquals(1, (int) calls.get("slow"));
+    }
+  }
+
+  @Test
+  public void slowComponentIsCalledOnceByConcurrentCollections() throws Exception {
+    ContainerMetricsCollector collector = ContainerMetricsCollector.builder().setTimeoutMillis(50).build();
+    AtomicInteger calls = new AtomicInteger();
+    collector.addComponent("slow", () -> {
+      calls.incrementAndGet();
+      await(release);
+      return new MetricsData().addData("value", 1L);
+    });
+    CountDownLatch start = new CountDownLatch(1);
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Metrics>> results = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        results.add(pool.submit(() -> {
+          start.await();
+          return collector.getMetrics();
+        }));
+      }
+      start.countDown();
+      for (Future<Metrics> result : results) {
+        result.get(10, TimeUnit.SECONDS);
+      }
+      assertEquals(1, calls.get());
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void failingComponentIsReportedAsStale() throws MetricException {
+    ContainerMetricsCollector collector = ContainerMetricsCollector.builder().build();
+    collector.addComponent("ok", fixed(1));
+    collector.addComponent("failing", () -> {
+      throw new MetricException("failed");
+    });
+    collector.addComponent("empty", () -> null);
+    Metrics metrics = collector.getMetrics();
+    assertNotNull(metrics.getSubMetrics("ok"));
+    assertNull(metrics.getSubMetrics("failing"));
+    Metrics stats = metrics.getSubMetrics(ContainerMetricsCollector.COLLECTOR_METRICS);
+    assertEquals(2, stats.getData("stale"));
+    assertEquals(-1L, stats.getData("stale.failing"));
+    assertEquals(-1L, stats.getData("stale.empty"));
+  }
+
+  @Test
+  public void collectFromSeveralContainers() throws MetricException {
+    ContainerMetricsCollector collector = ContainerMetricsCollector.builder().build();
+    container = ComponentContainer.create(beans(map(pair("collector", collector), pair("component1", fixed(1))))).initialize();
+    ComponentContainer other = ComponentContainer.create(beans(map(pair("collector", collector), pair("component2", fixed(2))))).initialize();
+    assertEquals(2L, collector.getMetrics().getSubMetrics("component2").getData("value"));
+    assertEquals(1L, collector.getMetrics().getSubMetrics("component1").getData("value"));
+
+    other.destroy();
+    Metrics metrics = collector.getMetrics();
+    assertNull(metrics.getSubMetrics("component2"));
+    assertNotNull(metrics.getSubMetrics("component1"));
+  }
+
+  @Test
+  public void keepComponentOfRunningContainerWithSameName() throws MetricException {
+    ContainerMetricsCollector collector = ContainerMetricsCollector.builder().build();
+    MetricAspect shared = fixed(3);
+    container = ComponentContainer.create(beans(map(pair("collector", collector), pair("component", fixed(1)), pair("shared", shared)))).initialize();
+    ComponentContainer child = ComponentContainer.create(beans(map(pair("collector", collector), pair("component", fixed(2)), pair("shared", shared)))).initialize();
+    assertEquals(2L, collector.getMetrics().getSubMetrics("component").getData("value"));
+
+    child.destroy();
+    Metrics metrics = collector.getMetrics();
+    assertEquals(1L, metrics.getSubMetrics("component").getData("value"));
+    assertEquals(3L, metrics.getSubMetrics("shared").getData("value"));
+
+    ComponentContainer other = ComponentContainer.create(beans(map(pair("collector", collector), pair("component", fixed(4))))).initialize();
+    container.destroy();
+    container = other;
+    assertEquals(4L, collector.getMetrics().getSubMetrics("component").getData("value"));
+    assertNull(collector.getMetrics().getSubMetrics("shared"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidThreads() {
+    ContainerMetricsCollector.builder().setThreads(0).build();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidTimeout() {
+    ContainerMetricsCollector.builder().setTimeoutMillis(0).build();
+  }
+
+  private static MetricAspect fixed(long value) {
+    return () -> new MetricsData().addData("value", value);
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static BeanProvider beans(Map<String, Object> beans) {
+    return new BeanProvider() {
+      @Override
+      public <T> Optional<T> getBean(Class<T> ofType) {
+        return beans.values().stream().filter(ofType::isInstance).map(ofType::cast).findAny();
+      }
+
+      @Override
+      public <T> Map<String, T> getBeans(Class<T> ofType) {
+        return beans.entrySet().stream()
+                .filter(e -> ofType.isInstance(e.getValue()))
+                .collect(Collectors.toMap(Map.Entry::getKey, e -> ofType.cast(e.getValue())));
+      }
+
+      @Override
+      public Map<String, Object> getBeans() {
+        return beans;
+      }
+    };
+  }
+}
@@ -0,0 +1,119 @@
+package no.mnemonic.commons.metrics;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class FlightRecorderEventsTest {
+
+  private Path file;
+
+  @Before
+  public void setup() throws Exception {
+    assumeTrue(FlightRecorder.isAvailable());
+    file = Files.createTempFile("metrics", ".jfr");
+  }
+
+  @After
+  public void cleanup() throws Exception {
+    if (file != null) Files.deleteIfExists(file);
+  }
+
+  @Test
+  public void namedTimerEmitsEvent() throws Exception {
+    AtomicLong metric = new AtomicLong();
+    List<RecordedEvent> events = record(TimerEvent.NAME, () -> {
+      try (TimerContext ignored = TimerContext.ofMillis("lookup", metric::addAndGet)) {
+        sleep(5);
+      }
+    });
+    assertEquals(1, events.size());
+    RecordedEvent event = events.get(0);
+    assertEquals("lookup", event.getString("name"));
+    assertEquals(Thread.currentThread().getName(), event.getThread().getJavaName());
+    assertTrue(event.getDuration().compareTo(Duration.ofMillis(5)) >= 0);
+  }
+
+  @Test
+  public void unnamedTimerEmitsNoEvent() throws Exception {
+    AtomicLong metric = new AtomicLong();
+    List<RecordedEvent> events = record(TimerEvent.NAME, () -> {
+      try (TimerContext ignored = TimerContext.ofMillis(metric::addAndGet)) {
+        sleep(1);
+      }
+    });
+    assertTrue(events.isEmpty());
+  }
+
+  @Test
+  public void timerEmitsNoEventWhenNotRecording() {
+    AtomicLong metric = new AtomicLong();
+    try (TimerContext ignored = TimerContext.ofMillis("lookup", metric::addAndGet)) {
+      sleep(1);
+    }
+    assertTrue(metric.get() >= 1);
+  }
+
+  @Test
+  public void namedMonitorEmitsEvents() throws Exception {
+    PerformanceMonitor monitor = PerformanceMonitor.builder()
+            .setTimeUnit(TimeUnit.SECONDS)
+            .setMemory(60)
+            .setResolution(1)
+            .setName("requests")
+            .build();
+    List<RecordedEvent> events = record(PerformanceMonitorEvent.NAME, () -> {
+      monitor.invoked(10);
+      monitor.invoked(3, 30);
+    });
+    assertEquals(2, events.size());
+    assertEquals("requests", events.get(0).getString("name"));
+    assertEquals(1, events.get(0).getLong("invocations"));
+    assertEquals(Duration.ofMillis(10), events.get(0).getDuration("timeSpent"));
+    assertEquals(3, events.get(1).getLong("invocations"));
+    assertEquals(Duration.ofMillis(30), events.get(1).getDuration("timeSpent"));
+  }
+
+  @Test
+  public void unnamedMonitorEmitsNoEvents() throws Exception {
+    PerformanceMonitor monitor = new PerformanceMonitor(TimeUnit.SECONDS, 60, 1);
+    assertTrue(record(PerformanceMonitorEvent.NAME, () -> monitor.invoked(10)).isEmpty());
+  }
+
+  private List<RecordedEvent> record(String eventName, Runnable task) throws Exception {
+    try (Recording recording = new Recording()) {
+      recording.enable(eventName).withThreshold(Duration.ZERO);
+      recording.start();
+      task.run();
+      recording.stop();
+      recording.dump(file);
+    }
+    return RecordingFile.readAllEvents(file).stream()
+            .filter(e -> e.getEventType().getName().equals(eventName))
+            .collect(Collectors.toList());
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,108 @@
+package no.mnemonic.commons.metrics;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HeavyHittersTest {
+
+  @Test
+  public void countKeysExactlyWithinCapacity() {
+    HeavyHitters hitters = HeavyHitters.builder().setCapacity(10).build();
+    hitters.add("a", 5);
+    hitters.add("b");
+    hitters.add("c", 3);
+    hitters.add("b");
+    List<HeavyHitters.Entry> top = hitters.getTop(10);
+    assertEquals(3, top.size());
+    assertEntry(top.get(0), "a", 5, 0);
+    assertEntry(top.get(1), "c", 3, 0);
+    assertEntry(top.get(2), "b", 2, 0);
+    assertEquals(10, hitters.getTotal());
+  }
+
+  @Test
+  public void replaceLowestCountWhenFull() {
+    HeavyHitters hitters = HeavyHitters.builder().setCapacity(2).build();
+    hitters.add("a", 5);
+    hitters.add("b", 2);
+    hitters.add("c");
+    List<HeavyHitters.Entry> top = hitters.getTop(10);
+    assertEquals(2, top.size());
+    assertEntry(top.get(0), "a", 5, 0);
+    assertEntry(top.get(1), "c", 3, 2);
+  }
+
+  @Test
+  public void findHeavyHittersInSkewedStream() {
+    HeavyHitters hitters = HeavyHitters.builder().setCapacity(100).setTopK(5).build();
+    Map<String, Long> exact = new HashMap<>();
+    Random random = new Random(1);
+    for (int i = 0; i < 100000; i++) {
+      //five heavy keys make up half the stream, the rest is spread over 10000 keys
+      String key = random.nextBoolean() ? "heavy" + random.nextInt(5) : "key" + random.nextInt(10000);
+      hitters.add(key);
+      exact.merge(key, 1L, Long::sum);
+    }
+    List<HeavyHitters.Entry> top = hitters.getTop(5);
+    for (HeavyHitters.Entry entry : top) {
+      assertTrue(entry.getKey().startsWith("heavy"));
+      long trueCount = exact.get(entry.getKey());
+      assertTrue(entry.getCount() >= trueCount);
+      assertTrue(entry.getCount() - entry.getError() <= trueCount);
+    }
+  }
+
+  @Test
+  public void shardedSketchesTrackAllKeys() {
+    HeavyHitters hitters = HeavyHitters.builder().setCapacity(64).setShards(4).build();
+    IntStream.range(0, 1000).parallel().forEach(i -> hitters.add("key" + (i % 10), 1));
+    List<HeavyHitters.Entry> top = hitters.getTop(20);
+    assertEquals(10, top.size());
+    for (HeavyHitters.Entry entry : top) {
+      assertEntry(entry, entry.getKey(), 100, 0);
+    }
+    assertEquals(1000, hitters.getTotal());
+  }
+
+  @Test
+  public void exportTopKeysAsMetrics() throws MetricException {
+    HeavyHitters hitters = HeavyHitters.builder().setCapacity(2).setTopK(1).build();
+    hitters.add("a", 5);
+    hitters.add("b", 2);
+    hitters.add("c");
+    Metrics metrics = hitters.getMetrics();
+    Metrics summary = metrics.getSubMetrics("summary");
+    assertEquals(8L, summary.getData("total"));
+    assertEquals(2L, summary.getData("tracked"));
+    assertEquals(3L, summary.getData("maxError"));
+    Metrics top = metrics.getSubMetrics("top");
+    assertEquals(1, top.getSubMetrics().size());
+    assertEquals(1L, top.getSubMetrics("a").getData("rank"));
+    assertEquals(5L, top.getSubMetrics("a").getData("count"));
+    assertEquals(0L, top.getSubMetrics("a").getData("error"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void keyNotSet() {
+    HeavyHitters.builder().build().add(null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidCapacity() {
+    HeavyHitters.builder().setCapacity(2).setShards(4).build();
+  }
+
+  private static void assertEntry(HeavyHitters.Entry entry, String key, long count, long error) {
+    assertEquals(key, entry.getKey());
+    assertEquals(count, entry.getCount());
+    assertEquals(error, entry.getError());
+  }
+}
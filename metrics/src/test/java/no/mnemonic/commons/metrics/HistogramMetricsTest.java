@@ -0,0 +1,61 @@
+package no.mnemonic.commons.metrics;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramMetricsTest {
+
+  @Test
+  public void snapshotHasHistogramMetrics() throws MetricException {
+    Histogram histogram = new Histogram();
+    histogram.record(10);
+    histogram.record(20);
+    HistogramMetrics snapshot = HistogramMetrics.of(histogram);
+    assertEquals(histogram.getMetrics().getData(), snapshot.getData());
+    assertTrue(snapshot.hasData());
+    assertFalse(snapshot.hasSubMetrics());
+    assertNull(snapshot.getSubMetrics());
+  }
+
+  @Test
+  public void snapshotIsNotChangedByHistogram() {
+    Histogram histogram = new Histogram();
+    histogram.record(10);
+    HistogramMetrics snapshot = HistogramMetrics.of(histogram);
+    histogram.record(20);
+    assertEquals(1L, snapshot.getData("count"));
+    assertEquals(1, snapshot.getHistogram().getCount());
+  }
+
+  @Test
+  public void mergeSnapshots() {
+    Histogram h1 = new Histogram();
+    Histogram h2 = new Histogram();
+    h1.record(10);
+    h2.record(20);
+    HistogramMetrics merged = HistogramMetrics.merge(Arrays.asList(HistogramMetrics.of(h1), null, HistogramMetrics.of(h2)));
+    assertEquals(2L, merged.getData("count"));
+    assertEquals(30L, merged.getData("sum"));
+  }
+
+  @Test
+  public void mergeSkipsIncompatibleSnapshots() {
+    Histogram h1 = new Histogram();
+    Histogram h2 = new Histogram(1000, 3);
+    h1.record(10);
+    h2.record(20);
+    HistogramMetrics merged = HistogramMetrics.merge(Arrays.asList(HistogramMetrics.of(h1), HistogramMetrics.of(h2)));
+    assertEquals(1L, merged.getData("count"));
+  }
+
+  @Test
+  public void mergeNoSnapshots() {
+    assertNull(HistogramMetrics.merge(Arrays.asList()));
+  }
+}
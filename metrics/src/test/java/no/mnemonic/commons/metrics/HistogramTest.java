@@ -0,0 +1,193 @@
+package no.mnemonic.commons.metrics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+  private final Histogram histogram = new Histogram();
+
+  @Test
+  public void emptyHistogram() throws MetricException {
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getMin());
+    assertEquals(0, histogram.getMax());
+    assertEquals(0, histogram.getMean(), 0);
+    assertEquals(0, histogram.getValueAtPercentile(99));
+    assertEquals(0L, histogram.getMetrics().getData("p99"));
+  }
+
+  @Test
+  public void smallValuesAreExact() {
+    for (int i = 0; i < 32; i++) {
+      histogram.record(i);
+    }
+    assertEquals(32, histogram.getCount());
+    assertEquals(0, histogram.getMin());
+    assertEquals(31, histogram.getMax());
+    assertEquals(15, histogram.getValueAtPercentile(50));
+    assertEquals(31, histogram.getValueAtPercentile(100));
+    assertEquals(0, histogram.getValueAtPercentile(0));
+  }
+
+  @Test
+  public void percentilesWithinPrecision() {
+    for (int i = 1; i <= 100000; i++) {
+      histogram.record(i);
+    }
+    assertWithinPrecision(50000, histogram.getValueAtPercentile(50));
+    assertWithinPrecision(90000, histogram.getValueAtPercentile(90));
+    assertWithinPrecision(99000, histogram.getValueAtPercentile(99));
+    assertWithinPrecision(99900, histogram.getValueAtPercentile(99.9));
+    assertEquals(100000, histogram.getValueAtPercentile(100));
+    assertEquals(50000.5, histogram.getMean(), 0.001);
+  }
+
+  @Test
+  public void percentilesOfLargeValues() {
+    histogram.record(TimeUnit.HOURS.toNanos(1), 99);
+    histogram.record(TimeUnit.DAYS.toNanos(1));
+    assertWithinPrecision(TimeUnit.HOURS.toNanos(1), histogram.getValueAtPercentile(99));
+    assertEquals(TimeUnit.DAYS.toNanos(1), histogram.getValueAtPercentile(100));
+  }
+
+  @Test
+  public void multiplePercentilesInOneWalk() {
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i);
+    }
+    long[] values = histogram.getValuesAtPercentiles(50, 99);
+    assertEquals(histogram.getValueAtPercentile(50), values[0]);
+    assertEquals(histogram.getValueAtPercentile(99), values[1]);
+  }
+
+  @Test
+  public void valuesAboveHighestTrackableValueAreClamped() {
+    Histogram bounded = new Histogram(1000, 3);
+    bounded.record(10);
+    bounded.record(1000000);
+    assertEquals(1000000, bounded.getMax());
+    assertEquals(1000000, bounded.getValueAtPercentile(100));
+    assertTrue(bounded.getBucketCount() < 100);
+  }
+
+  @Test
+  public void negativeValuesAreRecordedAsZero() {
+    histogram.record(-5);
+    assertEquals(0, histogram.getMin());
+    assertEquals(0, histogram.getValueAtPercentile(100));
+  }
+
+  @Test
+  public void mergeHistograms() {
+    Histogram other = new Histogram();
+    histogram.record(10, 50);
+    other.record(1000, 50);
+    histogram.merge(other);
+    assertEquals(100, histogram.getCount());
+    assertEquals(10, histogram.getMin());
+    assertEquals(1000, histogram.getMax());
+    assertEquals(10, histogram.getValueAtPercentile(50));
+    assertWithinPrecision(1000, histogram.getValueAtPercentile(51));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void mergeIncompatibleHistograms() {
+    histogram.merge(new Histogram(1000, 3));
+  }
+
+  @Test
+  public void resetHistogram() {
+    histogram.record(10);
+    histogram.reset();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getMax());
+    assertEquals(0, histogram.getValueAtPercentile(50));
+  }
+
+  @Test
+  public void exportMetrics() throws MetricException {
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i);
+    }
+    Metrics metrics = histogram.getMetrics();
+    assertEquals(1000L, metrics.getData("count"));
+    assertEquals(1L, metrics.getData("min"));
+    assertEquals(1000L, metrics.getData("max"));
+    assertEquals(histogram.getValueAtPercentile(50), metrics.getData("p50"));
+    assertEquals(histogram.getValueAtPercentile(90), metrics.getData("p90"));
+    assertEquals(histogram.getValueAtPercentile(99), metrics.getData("p99"));
+    assertEquals(histogram.getValueAtPercentile(99.9), metrics.getData("p999"));
+  }
+
+  @Test
+  public void recordFromTimerContext() {
+    AtomicLong ticker = new AtomicLong();
+    TimerContext.setTicker(ticker::get);
+    try {
+      try (TimerContext ignored = TimerContext.ofNanos(histogram::record)) {
+        ticker.addAndGet(1500);
+      }
+    } finally {
+      TimerContext.setTicker(System::nanoTime);
+    }
+    assertEquals(1, histogram.getCount());
+    assertEquals(1500, histogram.getMax());
+  }
+
+  @Test
+  public void concurrentRecording() throws InterruptedException {
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 8; t++) {
+      Thread thread = new Thread(() -> {
+        for (int i = 0; i < 10000; i++) {
+          histogram.record(ThreadLocalRandom.current().nextLong(1, 1000000));
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(80000, histogram.getCount());
+    assertEquals(histogram.getMax(), histogram.getValueAtPercentile(100));
+  }
+
+  @Test
+  public void compatibility() {
+    assertTrue(histogram.isCompatible(new Histogram()));
+    assertFalse(histogram.isCompatible(new Histogram(1000, 5)));
+    assertFalse(histogram.isCompatible(null));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidPrecision() {
+    new Histogram(1000, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidHighestTrackableValue() {
+    new Histogram(0, 3);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidPercentile() {
+    histogram.record(1);
+    histogram.getValueAtPercentile(101);
+  }
+
+  private void assertWithinPrecision(long expected, long actual) {
+    double error = Math.abs(actual - expected) / (double) expected;
+    assertTrue("Expected " + expected + " but was " + actual, error <= 1.0 / (1 << Histogram.DEFAULT_PRECISION));
+  }
+}
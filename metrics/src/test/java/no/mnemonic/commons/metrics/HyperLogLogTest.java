@@ -0,0 +1,120 @@
+package no.mnemonic.commons.metrics;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.stream.LongStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HyperLogLogTest {
+
+  @Test
+  public void emptySketchHasZeroCardinality() {
+    assertEquals(0, new HyperLogLog().getCardinality());
+  }
+
+  @Test
+  public void estimateSmallCardinalitiesClosely() {
+    HyperLogLog sketch = new HyperLogLog();
+    for (int i = 0; i < 100; i++) {
+      sketch.add("user" + i);
+      sketch.add("user" + i);
+    }
+    assertEquals(100, sketch.getCardinality(), 2);
+  }
+
+  @Test
+  public void estimateWithinErrorBoundsAcrossRange() {
+    for (int precision : new int[]{10, 14}) {
+      HyperLogLog sketch = new HyperLogLog(precision);
+      //allow 4 standard errors
+      double error = 4 * 1.04 / Math.sqrt(1 << precision);
+      long added = 0;
+      for (long cardinality : new long[]{1000, 10000, 100000, 1000000}) {
+        for (; added < cardinality; added++) {
+          sketch.add(added);
+        }
+        assertEquals(cardinality, sketch.getCardinality(), cardinality * error);
+      }
+    }
+  }
+
+  @Test
+  public void mergeSketches() {
+    HyperLogLog a = new HyperLogLog(12);
+    HyperLogLog b = new HyperLogLog(12);
+    for (long i = 0; i < 20000; i++) {
+      a.add(i);
+      b.add(i + 10000);
+    }
+    a.merge(b);
+    assertEquals(30000, a.getCardinality(), 30000 * 0.07);
+    assertEquals(20000, b.getCardinality(), 20000 * 0.07);
+  }
+
+  @Test
+  public void concurrentUpdatesEqualSequentialUpdates() {
+    HyperLogLog concurrent = new HyperLogLog(10);
+    HyperLogLog sequential = new HyperLogLog(10);
+    LongStream.range(0, 200000).parallel().forEach(concurrent::add);
+    LongStream.range(0, 200000).forEach(sequential::add);
+    assertEquals(sequential.getCardinality(), concurrent.getCardinality());
+  }
+
+  @Test
+  public void copyAndReset() {
+    HyperLogLog sketch = new HyperLogLog(8);
+    sketch.add("a");
+    HyperLogLog copy = sketch.copy();
+    sketch.reset();
+    assertEquals(0, sketch.getCardinality());
+    assertEquals(1, copy.getCardinality());
+  }
+
+  @Test
+  public void serializedSketchCanBeMerged() throws Exception {
+    HyperLogLog sketch = new HyperLogLog(8);
+    for (long i = 0; i < 100; i++) {
+      sketch.add(i);
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(sketch);
+    }
+    HyperLogLog received;
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      received = (HyperLogLog) in.readObject();
+    }
+    HyperLogLog merged = new HyperLogLog(8);
+    merged.merge(received);
+    assertEquals(sketch.getCardinality(), merged.getCardinality());
+  }
+
+  @Test
+  public void exportCardinality() throws MetricException {
+    HyperLogLog sketch = new HyperLogLog();
+    sketch.add(1);
+    assertEquals(1L, sketch.getMetrics().getData("cardinality"));
+  }
+
+  @Test
+  public void sameStringsGiveSameHash() {
+    assertEquals(HyperLogLog.hash("value"), HyperLogLog.hash(new StringBuilder("value")));
+    assertTrue(HyperLogLog.hash("value") != HyperLogLog.hash("valuf"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void mergeDifferentPrecision() {
+    new HyperLogLog(10).merge(new HyperLogLog(11));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidPrecision() {
+    new HyperLogLog(3);
+  }
+}
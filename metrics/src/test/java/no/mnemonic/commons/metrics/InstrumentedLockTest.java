@@ -0,0 +1,153 @@
+package no.mnemonic.commons.metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InstrumentedLockTest {
+
+  private final AtomicLong nanoTime = new AtomicLong();
+  private final ReentrantLock delegate = new ReentrantLock();
+  private final PerformanceMonitor waitMonitor = new PerformanceMonitor(TimeUnit.MINUTES, 10, 1);
+  private final PerformanceMonitor holdMonitor = new PerformanceMonitor(TimeUnit.MINUTES, 10, 1);
+  private InstrumentedLock lock;
+
+  @Before
+  public void setup() {
+    nanoTime.set(TimeUnit.SECONDS.toNanos(100));
+    TimerContext.setTicker(nanoTime::get);
+    lock = InstrumentedLock.builder()
+            .setLock(delegate)
+            .setWaitMonitor(waitMonitor)
+            .setHoldMonitor(holdMonitor)
+            .build();
+  }
+
+  @After
+  public void cleanup() {
+    TimerContext.setTicker(System::nanoTime);
+  }
+
+  @Test
+  public void recordUncontendedAcquisitionAndHoldTime() throws MetricException {
+    lock.lock();
+    nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(5));
+    lock.unlock();
+    assertFalse(delegate.isLocked());
+    Metrics metrics = lock.getMetrics();
+    assertEquals(1L, metrics.getSubMetrics("summary").getData("acquisitions"));
+    assertEquals(0L, metrics.getSubMetrics("summary").getData("contended"));
+    assertEquals(1L, metrics.getSubMetrics("holdMicros").getData("count"));
+    assertEquals(5000L, metrics.getSubMetrics("holdMicros").getData("sum"));
+    assertEquals(5, holdMonitor.getTotalTimeSpent());
+    assertEquals(0, waitMonitor.getTotalInvocations());
+  }
+
+  @Test
+  public void measureHoldTimeOfOutermostAcquisition() throws MetricException {
+    lock.lock();
+    nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+    lock.lock();
+    nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+    lock.unlock();
+    nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+    lock.unlock();
+    Metrics metrics = lock.getMetrics();
+    assertEquals(2L, metrics.getSubMetrics("summary").getData("acquisitions"));
+    assertEquals(1L, metrics.getSubMetrics("holdMicros").getData("count"));
+    assertEquals(3000L, metrics.getSubMetrics("holdMicros").getData("sum"));
+  }
+
+  @Test
+  public void recordContendedAcquisitionAndWaitTime() throws Exception {
+    lock.lock();
+    Thread waiter = new Thread(() -> {
+      lock.lock();
+      lock.unlock();
+    });
+    waiter.start();
+    while (!delegate.hasQueuedThreads()) {
+      Thread.sleep(1);
+    }
+    nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(3));
+    lock.unlock();
+    waiter.join();
+    Metrics metrics = lock.getMetrics();
+    assertEquals(2L, metrics.getSubMetrics("summary").getData("acquisitions"));
+    assertEquals(1L, metrics.getSubMetrics("summary").getData("contended"));
+    assertEquals(1L, metrics.getSubMetrics("waitMicros").getData("count"));
+    assertEquals(3000L, metrics.getSubMetrics("waitMicros").getData("sum"));
+    assertEquals(1, waitMonitor.getTotalInvocations());
+    assertEquals(3, waitMonitor.getTotalTimeSpent());
+  }
+
+  @Test
+  public void countFailedTryLockAsContended() throws Exception {
+    Thread holder = new Thread(lock::lock);
+    holder.start();
+    holder.join();
+    assertFalse(lock.tryLock());
+    assertFalse(lock.tryLock(1, TimeUnit.MILLISECONDS));
+    Metrics summary = lock.getMetrics().getSubMetrics("summary");
+    assertEquals(1L, summary.getData("acquisitions"));
+    assertEquals(1L, summary.getData("contended"));
+  }
+
+  @Test
+  public void sampleTimings() throws MetricException {
+    InstrumentedLock sampled = InstrumentedLock.builder().setSampleRate(10).build();
+    for (int i = 0; i < 10000; i++) {
+      sampled.lock();
+      nanoTime.addAndGet(TimeUnit.MICROSECONDS.toNanos(1));
+      sampled.unlock();
+    }
+    Metrics metrics = sampled.getMetrics();
+    assertEquals(10000L, metrics.getSubMetrics("summary").getData("acquisitions"));
+    assertEquals(10L, metrics.getSubMetrics("summary").getData("sampleRate"));
+    //each sampled hold is recorded 10 times
+    long count = metrics.getSubMetrics("holdMicros").getData("count").longValue();
+    assertEquals(0, count % 10);
+    assertTrue(count > 8000 && count < 12000);
+  }
+
+  @Test
+  public void carrySubMillisecondHoldTimeToMonitor() throws MetricException {
+    for (int i = 0; i < 10; i++) {
+      lock.lock();
+      nanoTime.addAndGet(TimeUnit.MICROSECONDS.toNanos(300));
+      lock.unlock();
+    }
+    assertEquals(10, holdMonitor.getTotalInvocations());
+    assertEquals(3, holdMonitor.getTotalTimeSpent());
+    assertEquals(3000L, lock.getMetrics().getSubMetrics("holdMicros").getData("sum"));
+  }
+
+  @Test
+  public void scaleSampledSubMillisecondHoldTimeToMonitor() throws MetricException {
+    PerformanceMonitor monitor = new PerformanceMonitor(TimeUnit.MINUTES, 10, 1);
+    InstrumentedLock sampled = InstrumentedLock.builder().setSampleRate(10).setHoldMonitor(monitor).build();
+    for (int i = 0; i < 10000; i++) {
+      sampled.lock();
+      nanoTime.addAndGet(TimeUnit.MICROSECONDS.toNanos(300));
+      sampled.unlock();
+    }
+    long recorded = sampled.getMetrics().getSubMetrics("holdMicros").getData("count").longValue();
+    assertTrue(recorded > 0);
+    assertEquals(recorded, monitor.getTotalInvocations());
+    //each sampled hold of 0.3 ms counts as 3 ms
+    assertEquals(recorded * 300 / 1000, monitor.getTotalTimeSpent());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void lockNotSet() {
+    InstrumentedLock.builder().setLock(null).build();
+  }
+}
@@ -0,0 +1,68 @@
+package no.mnemonic.commons.metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class InstrumentedReadWriteLockTest {
+
+  private final AtomicLong nanoTime = new AtomicLong();
+  private final ReentrantReadWriteLock delegate = new ReentrantReadWriteLock();
+  private InstrumentedReadWriteLock lock;
+
+  @Before
+  public void setup() {
+    nanoTime.set(TimeUnit.SECONDS.toNanos(100));
+    TimerContext.setTicker(nanoTime::get);
+    lock = InstrumentedReadWriteLock.builder().setLock(delegate).build();
+  }
+
+  @After
+  public void cleanup() {
+    TimerContext.setTicker(System::nanoTime);
+  }
+
+  @Test
+  public void recordReadAndWriteLocksSeparately() throws MetricException {
+    lock.readLock().lock();
+    lock.readLock().lock();
+    lock.readLock().unlock();
+    lock.readLock().unlock();
+    lock.writeLock().lock();
+    nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(2));
+    lock.writeLock().unlock();
+
+    Metrics read = lock.getMetrics().getSubMetrics("read");
+    assertEquals(2L, read.getSubMetrics("summary").getData("acquisitions"));
+    assertNull(read.getSubMetrics("holdMicros"));
+    Metrics write = lock.getMetrics().getSubMetrics("write");
+    assertEquals(1L, write.getSubMetrics("summary").getData("acquisitions"));
+    assertEquals(2000L, write.getSubMetrics("holdMicros").getData("sum"));
+  }
+
+  @Test
+  public void recordReadersWaitingForWriter() throws Exception {
+    lock.writeLock().lock();
+    Thread reader = new Thread(() -> {
+      lock.readLock().lock();
+      lock.readLock().unlock();
+    });
+    reader.start();
+    while (!delegate.hasQueuedThreads()) {
+      Thread.sleep(1);
+    }
+    nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(4));
+    lock.writeLock().unlock();
+    reader.join();
+    Metrics read = lock.getMetrics().getSubMetrics("read");
+    assertEquals(1L, read.getSubMetrics("summary").getData("contended"));
+    assertEquals(4000L, read.getSubMetrics("waitMicros").getData("sum"));
+  }
+}
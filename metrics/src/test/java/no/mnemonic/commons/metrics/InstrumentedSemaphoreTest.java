@@ -0,0 +1,92 @@
+package no.mnemonic.commons.metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InstrumentedSemaphoreTest {
+
+  private final AtomicLong nanoTime = new AtomicLong();
+  private InstrumentedSemaphore semaphore;
+
+  @Before
+  public void setup() {
+    nanoTime.set(TimeUnit.SECONDS.toNanos(100));
+    TimerContext.setTicker(nanoTime::get);
+    semaphore = InstrumentedSemaphore.builder().setPermits(2).build();
+  }
+
+  @After
+  public void cleanup() {
+    TimerContext.setTicker(System::nanoTime);
+  }
+
+  @Test
+  public void recordAcquisitions() throws Exception {
+    semaphore.acquire();
+    assertTrue(semaphore.tryAcquire());
+    assertFalse(semaphore.tryAcquire());
+    assertEquals(0, semaphore.availablePermits());
+    semaphore.release(2);
+    Metrics summary = semaphore.getMetrics().getSubMetrics("summary");
+    assertEquals(2L, summary.getData("acquisitions"));
+    assertEquals(0L, summary.getData("contended"));
+  }
+
+  @Test
+  public void recordContendedAcquisitionAndWaitTime() throws Exception {
+    semaphore.acquire(2);
+    Thread waiter = new Thread(() -> {
+      semaphore.acquireUninterruptibly();
+      semaphore.release();
+    });
+    waiter.start();
+    while (!semaphore.hasQueuedThreads()) {
+      Thread.sleep(1);
+    }
+    nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(2));
+    semaphore.release(2);
+    waiter.join();
+    Metrics metrics = semaphore.getMetrics();
+    assertEquals(2L, metrics.getSubMetrics("summary").getData("acquisitions"));
+    assertEquals(1L, metrics.getSubMetrics("summary").getData("contended"));
+    assertEquals(2000L, metrics.getSubMetrics("waitMicros").getData("sum"));
+  }
+
+  @Test
+  public void recordTimedOutAcquisitionAsContended() throws Exception {
+    semaphore.acquire(2);
+    assertFalse(semaphore.tryAcquire(1, TimeUnit.MILLISECONDS));
+    Metrics metrics = semaphore.getMetrics();
+    assertEquals(1L, metrics.getSubMetrics("summary").getData("acquisitions"));
+    assertEquals(1L, metrics.getSubMetrics("summary").getData("contended"));
+    assertEquals(1L, metrics.getSubMetrics("waitMicros").getData("count"));
+  }
+
+  @Test
+  public void recordAcquisitionsAfterDeserialization() throws Exception {
+    semaphore.acquire();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(semaphore);
+    }
+    InstrumentedSemaphore copy;
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      copy = (InstrumentedSemaphore) in.readObject();
+    }
+    assertEquals(1, copy.availablePermits());
+    copy.acquire();
+    assertEquals(1L, copy.getMetrics().getSubMetrics("summary").getData("acquisitions"));
+  }
+}
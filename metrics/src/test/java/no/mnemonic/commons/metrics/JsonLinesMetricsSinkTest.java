@@ -0,0 +1,64 @@
+package no.mnemonic.commons.metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class JsonLinesMetricsSinkTest {
+
+  private Path file;
+
+  @Before
+  public void setup() throws IOException {
+    file = Files.createTempFile("metrics", ".jsonl");
+  }
+
+  @After
+  public void cleanup() throws IOException {
+    Files.deleteIfExists(file);
+  }
+
+  @Test
+  public void appendSnapshotsAsLines() throws Exception {
+    try (JsonLinesMetricsSink sink = new JsonLinesMetricsSink(file)) {
+      sink.report(1, new MetricsGroup().addSubMetrics("service", PrimitiveMetricsData.builder()
+              .addData("requests", 10)
+              .addData("load", 0.5)
+              .build()));
+      sink.report(2, new MetricsGroup().addSubMetrics("service", PrimitiveMetricsData.builder()
+              .addData("requests", 20)
+              .build()));
+    }
+    assertEquals(Arrays.asList(
+            "{\"timestamp\":1,\"metrics\":{\"service\":{\"requests\":10,\"load\":0.5}}}",
+            "{\"timestamp\":2,\"metrics\":{\"service\":{\"requests\":20}}}"
+    ), Files.readAllLines(file, StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void escapeKeysAndWriteNonFiniteValuesAsNull() throws Exception {
+    try (JsonLinesMetricsSink sink = new JsonLinesMetricsSink(file)) {
+      sink.report(1, new MetricsData().addData("a\"b\\c\n", Double.NaN));
+    }
+    assertEquals(Arrays.asList("{\"timestamp\":1,\"metrics\":{\"a\\\"b\\\\c\\u000a\":null}}"),
+            Files.readAllLines(file, StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void reopenFileAfterClose() throws Exception {
+    JsonLinesMetricsSink sink = new JsonLinesMetricsSink(file);
+    sink.report(1, new MetricsGroup());
+    sink.close();
+    sink.report(2, new MetricsGroup());
+    sink.close();
+    assertEquals(2, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+  }
+}
@@ -0,0 +1,117 @@
+package no.mnemonic.commons.metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class JvmMetricsTest {
+
+  private final AtomicLong nanoTime = new AtomicLong();
+
+  @Before
+  public void setup() {
+    nanoTime.set(TimeUnit.SECONDS.toNanos(100));
+    TimerContext.setTicker(nanoTime::get);
+  }
+
+  @After
+  public void cleanup() {
+    TimerContext.setTicker(System::nanoTime);
+  }
+
+  @Test
+  public void reportJvmMetrics() throws MetricException {
+    Metrics metrics = JvmMetrics.builder().build().getMetrics();
+    Metrics memory = metrics.getSubMetrics("memory");
+    assertTrue(memory.getData("heapUsed").longValue() > 0);
+    assertTrue(memory.getData("heapCommitted").longValue() >= memory.getData("heapUsed").longValue());
+    assertTrue(memory.getData("nonHeapUsed").longValue() > 0);
+    assertEquals(ManagementFactory.getGarbageCollectorMXBeans().size(), metrics.getSubMetrics("gc").getSubMetrics().size());
+    for (Metrics collector : metrics.getSubMetrics("gc").getSubMetrics().values()) {
+      assertNotNull(collector.getData("count"));
+      assertNotNull(collector.getData("timeMillis"));
+    }
+    assertTrue(metrics.getSubMetrics("threads").getData("count").longValue() > 0);
+    assertNotNull(metrics.getSubMetrics("bufferPools").getSubMetrics("direct"));
+    assertNotNull(metrics.getSubMetrics("bufferPools").getSubMetrics("mapped"));
+  }
+
+  @Test
+  public void reportAllocationRate() throws MetricException {
+    JvmMetrics jvm = JvmMetrics.builder().setTimeToLiveMillis(0).build();
+    Metrics first = jvm.getMetrics().getSubMetrics("allocation");
+    //the JVM used for testing supports measuring allocation
+    assertNotNull(first);
+    assertEquals(0.0, first.getData("bytesPerSecond"));
+    byte[][] garbage = new byte[100][];
+    for (int i = 0; i < garbage.length; i++) {
+      garbage[i] = new byte[10000];
+    }
+    nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    Metrics second = jvm.getMetrics().getSubMetrics("allocation");
+    assertTrue(second.getData("bytes").longValue() - first.getData("bytes").longValue() >= 1000000);
+    assertTrue(second.getData("bytesPerSecond").doubleValue() >= 1000000);
+    assertFalse(garbage.length == 0);
+  }
+
+  @Test
+  public void terminatedThreadDoesNotHideAllocationRate() throws Exception {
+    CountDownLatch allocated = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Thread allocator = new Thread(() -> {
+      long sum = 0;
+      for (int i = 0; i < 1000; i++) {
+        sum += new byte[100000].length;
+      }
+      allocated.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      assertTrue(sum > 0);
+    });
+    allocator.start();
+    allocated.await();
+    JvmMetrics jvm = JvmMetrics.builder().setTimeToLiveMillis(0).build();
+    jvm.getMetrics();
+    //the allocating thread terminates between the refreshes, dropping out of the total
+    release.countDown();
+    allocator.join();
+    byte[][] garbage = new byte[100][];
+    for (int i = 0; i < garbage.length; i++) {
+      garbage[i] = new byte[10000];
+    }
+    nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    Metrics allocation = jvm.getMetrics().getSubMetrics("allocation");
+    assertTrue(allocation.getData("bytesPerSecond").doubleValue() >= 1000000);
+    assertFalse(garbage.length == 0);
+  }
+
+  @Test
+  public void cacheMetricsForTimeToLive() throws MetricException {
+    JvmMetrics jvm = JvmMetrics.builder().setTimeToLiveMillis(1000).build();
+    Metrics first = jvm.getMetrics();
+    nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(999));
+    assertSame(first, jvm.getMetrics());
+    nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+    assertNotSame(first, jvm.getMetrics());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidTimeToLive() {
+    JvmMetrics.builder().setTimeToLiveMillis(-1).build();
+  }
+}
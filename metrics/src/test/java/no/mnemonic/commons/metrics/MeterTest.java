@@ -0,0 +1,116 @@
+package no.mnemonic.commons.metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+public class MeterTest {
+
+  private final AtomicLong ticker = new AtomicLong(1000000L);
+  private Meter meter;
+
+  @Before
+  public void setup() {
+    TimerContext.setTicker(ticker::get);
+    meter = new Meter();
+  }
+
+  @After
+  public void cleanup() {
+    TimerContext.setTicker(System::nanoTime);
+  }
+
+  @Test
+  public void newMeterHasNoRates() {
+    assertEquals(0, meter.getCount());
+    assertEquals(0, meter.getMeanRate(), 0);
+    assertEquals(0, meter.getOneMinuteRate(), 0);
+    assertEquals(0, meter.getFifteenMinuteRate(), 0);
+  }
+
+  @Test
+  public void ratesAreUpdatedAfterTickInterval() {
+    meter.mark(300);
+    assertEquals(300, meter.getCount());
+    assertEquals(0, meter.getOneMinuteRate(), 0);
+    advanceSeconds(5);
+    assertEquals(60, meter.getOneMinuteRate(), 0.001);
+    assertEquals(60, meter.getFiveMinuteRate(), 0.001);
+    assertEquals(60, meter.getFifteenMinuteRate(), 0.001);
+    assertEquals(60, meter.getMeanRate(), 0.001);
+  }
+
+  @Test
+  public void ratesDecayWithoutEvents() {
+    meter.mark(300);
+    advanceSeconds(5);
+    meter.getOneMinuteRate();
+    advanceSeconds(60);
+    assertEquals(60 * Math.exp(-1), meter.getOneMinuteRate(), 0.001);
+    assertEquals(60 * Math.exp(-0.2), meter.getFiveMinuteRate(), 0.001);
+    assertEquals(60 * Math.exp(-60 / 900.0), meter.getFifteenMinuteRate(), 0.001);
+    assertEquals(300 / 65.0, meter.getMeanRate(), 0.001);
+  }
+
+  @Test
+  public void idleIntervalsAreDecayedAtOnce() {
+    meter.mark(300);
+    //a single read after 13 intervals counts the events in the first interval, and decays for the rest
+    advanceSeconds(65);
+    assertEquals(60 * Math.exp(-1), meter.getOneMinuteRate(), 0.001);
+  }
+
+  @Test
+  public void steadyRateConverges() {
+    for (int i = 0; i < 600; i++) {
+      meter.mark(10);
+      advanceSeconds(1);
+    }
+    assertEquals(10, meter.getOneMinuteRate(), 0.01);
+    assertEquals(10, meter.getFiveMinuteRate(), 0.1);
+    assertEquals(10, meter.getMeanRate(), 0.01);
+  }
+
+  @Test
+  public void exportMetrics() throws MetricException {
+    meter.mark(50);
+    advanceSeconds(5);
+    Metrics metrics = meter.getMetrics();
+    assertEquals(50L, metrics.getData("count"));
+    assertEquals(10, metrics.getData("m1Rate").doubleValue(), 0.001);
+    assertEquals(10, metrics.getData("m5Rate").doubleValue(), 0.001);
+    assertEquals(10, metrics.getData("m15Rate").doubleValue(), 0.001);
+    assertEquals(10, metrics.getData("meanRate").doubleValue(), 0.001);
+  }
+
+  @Test
+  public void concurrentMarking() throws InterruptedException {
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 8; t++) {
+      Thread thread = new Thread(() -> {
+        for (int i = 0; i < 10000; i++) {
+          meter.mark();
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    advanceSeconds(5);
+    assertEquals(80000, meter.getCount());
+    assertEquals(16000, meter.getOneMinuteRate(), 0.001);
+  }
+
+  private void advanceSeconds(long seconds) {
+    ticker.addAndGet(TimeUnit.SECONDS.toNanos(seconds));
+  }
+}
@@ -0,0 +1,170 @@
+package no.mnemonic.commons.metrics;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static no.mnemonic.commons.utilities.collections.SetUtils.set;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsAggregatorTest {
+
+  @Test
+  public void sumValuesByDefault() throws MetricException {
+    MetricsAggregator aggregator = MetricsAggregator.builder().build();
+    aggregator.update("node1", node(1, 1.5));
+    aggregator.update("node2", node(2, 2.5));
+    Metrics service = aggregator.getMetrics().getSubMetrics("service");
+    assertEquals(3L, service.getData("requests"));
+    assertEquals(4.0, service.getData("load"));
+  }
+
+  @Test
+  public void mergeUsingFirstMatchingRule() throws MetricException {
+    MetricsAggregator aggregator = MetricsAggregator.builder()
+            .addRule("service.requests", MetricsAggregator.MergeRule.MIN)
+            .addRule("service.*", MetricsAggregator.MergeRule.MAX)
+            .addRule("*", MetricsAggregator.MergeRule.SUM)
+            .build();
+    aggregator.update("node1", node(1, 1.5));
+    aggregator.update("node2", node(2, 2.5));
+    Metrics service = aggregator.getMetrics().getSubMetrics("service");
+    assertEquals(1L, service.getData("requests"));
+    assertEquals(2.5, service.getData("load"));
+  }
+
+  @Test
+  public void averageValues() throws MetricException {
+    MetricsAggregator aggregator = MetricsAggregator.builder().setDefaultRule(MetricsAggregator.MergeRule.AVG).build();
+    aggregator.update("node1", node(1, 1.5));
+    aggregator.update("node2", node(2, 2.5));
+    Metrics service = aggregator.getMetrics().getSubMetrics("service");
+    assertEquals(1.5, service.getData("requests"));
+    assertEquals(2.0, service.getData("load"));
+  }
+
+  @Test
+  public void updateReplacesValuesOfNode() throws MetricException {
+    MetricsAggregator aggregator = MetricsAggregator.builder().build();
+    aggregator.update("node1", node(1, 1.5));
+    aggregator.update("node2", node(2, 2.5));
+    aggregator.update("node1", node(10, 1.5));
+    assertEquals(12L, aggregator.getMetrics().getSubMetrics("service").getData("requests"));
+  }
+
+  @Test
+  public void valuesMissingFromLatestSnapshotAreRemoved() throws MetricException {
+    MetricsAggregator aggregator = MetricsAggregator.builder().build();
+    aggregator.update("node1", node(1, 1.5));
+    aggregator.update("node1", new MetricsGroup().addSubMetrics("service", new MetricsData().addData("requests", 5L)));
+    Metrics service = aggregator.getMetrics().getSubMetrics("service");
+    assertEquals(5L, service.getData("requests"));
+    assertNull(service.getData("load"));
+  }
+
+  @Test
+  public void removeNode() throws MetricException {
+    MetricsAggregator aggregator = MetricsAggregator.builder().build();
+    aggregator.update("node1", node(1, 1.5));
+    aggregator.update("node2", node(2, 2.5));
+    aggregator.remove("node2");
+    assertEquals(set("node1"), aggregator.getNodes());
+    assertEquals(1L, aggregator.getMetrics().getSubMetrics("service").getData("requests"));
+    aggregator.remove("node1");
+    assertNull(aggregator.getMetrics().getSubMetrics("service"));
+    //slots of removed nodes are reused
+    aggregator.update("node3", node(3, 3.5));
+    assertEquals(3L, aggregator.getMetrics().getSubMetrics("service").getData("requests"));
+  }
+
+  @Test
+  public void unchangedPathsAreReused() throws MetricException {
+    MetricsAggregator aggregator = MetricsAggregator.builder().build();
+    aggregator.update("node1", new MetricsGroup()
+            .addSubMetrics("a", new MetricsData().addData("value", 1L))
+            .addSubMetrics("b", new MetricsData().addData("value", 1L)));
+    Metrics first = aggregator.getMetrics();
+    assertSame(first, aggregator.getMetrics());
+    aggregator.update("node1", new MetricsGroup()
+            .addSubMetrics("a", new MetricsData().addData("value", 2L))
+            .addSubMetrics("b", new MetricsData().addData("value", 1L)));
+    Metrics second = aggregator.getMetrics();
+    assertNotSame(first, second);
+    assertNotSame(first.getSubMetrics("a"), second.getSubMetrics("a"));
+    assertSame(first.getSubMetrics("b"), second.getSubMetrics("b"));
+    assertEquals(2L, second.getSubMetrics("a").getData("value"));
+  }
+
+  @Test
+  public void mergeHistograms() throws MetricException {
+    Histogram h1 = new Histogram();
+    Histogram h2 = new Histogram();
+    for (int i = 1; i <= 100; i++) {
+      h1.record(i);
+      h2.record(i + 100);
+    }
+    MetricsAggregator aggregator = MetricsAggregator.builder().build();
+    aggregator.update("node1", new MetricsGroup().addSubMetrics("latency", HistogramMetrics.of(h1)));
+    aggregator.update("node2", new MetricsGroup().addSubMetrics("latency", HistogramMetrics.of(h2)));
+    Metrics latency = aggregator.getMetrics().getSubMetrics("latency");
+    assertTrue(latency instanceof HistogramMetrics);
+    assertEquals(200L, latency.getData("count"));
+    assertEquals(1L, latency.getData("min"));
+    assertEquals(200L, latency.getData("max"));
+    long p50 = latency.getData("p50").longValue();
+    assertTrue(p50 >= 97 && p50 <= 103);
+  }
+
+  @Test
+  public void mismatchingTypesAreSkipped() throws MetricException {
+    MetricsAggregator aggregator = MetricsAggregator.builder().build();
+    aggregator.update("node1", node(1, 1.5));
+    aggregator.update("node2", new MetricsGroup().addSubMetrics("service", new MetricsGroup()
+            .addSubMetrics("requests", new MetricsData().addData("value", 1L))));
+    assertEquals(1L, aggregator.getMetrics().getSubMetrics("service").getData("requests"));
+  }
+
+  @Test
+  public void updateAllInParallel() throws MetricException {
+    MetricsAggregator aggregator = MetricsAggregator.builder().build();
+    Map<String, Metrics> snapshots = new HashMap<>();
+    for (int i = 0; i < 100; i++) {
+      snapshots.put("node" + i, node(i, 1));
+    }
+    aggregator.updateAll(snapshots);
+    assertEquals(100, aggregator.getNodes().size());
+    Metrics service = aggregator.getMetrics().getSubMetrics("service");
+    assertEquals(4950L, service.getData("requests"));
+    assertEquals(100.0, service.getData("load"));
+  }
+
+  @Test
+  public void updateWithPrimitiveMetricsData() throws MetricException {
+    MetricsAggregator aggregator = MetricsAggregator.builder().build();
+    aggregator.update("node1", new MetricsGroup().addSubMetrics("meter", PrimitiveMetricsData.builder().addData("count", 2).build()));
+    aggregator.update("node2", new MetricsGroup().addSubMetrics("meter", PrimitiveMetricsData.builder().addData("count", 3).build()));
+    assertEquals(5L, aggregator.getMetrics().getSubMetrics("meter").getData("count"));
+  }
+
+  @Test
+  public void emptyAggregator() {
+    Metrics metrics = MetricsAggregator.builder().build().getMetrics();
+    assertTrue(metrics.getSubMetrics().isEmpty());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidDefaultRule() {
+    MetricsAggregator.builder().setDefaultRule(null).build();
+  }
+
+  private static Metrics node(long requests, double load) throws MetricException {
+    return new MetricsGroup().addSubMetrics("service", new MetricsData()
+            .addData("requests", requests)
+            .addData("load", load));
+  }
+}
@@ -0,0 +1,91 @@
+package no.mnemonic.commons.metrics;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Benchmark comparing {@link MetricsCodec} with Java serialization, for a tree of 400 components
+ * with a group of 10 long values and a {@link PrimitiveMetricsData} of 5 values each.
+ * Reports the encoded size and the average time to encode and decode the tree, after warming up,
+ * for Java serialization, the codec, and the codec encoding a delta against the previous snapshot.
+ *
+ * This is not run as part of the test suite. Run the main method manually, optionally with
+ * the number of iterations to measure as the first argument.
+ */
+public class MetricsCodecBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    Metrics previous = createMetrics(400, 0);
+    Metrics metrics = createMetrics(400, 1);
+    System.out.printf("%-20s %10s %12s %12s%n", "format", "bytes", "encode ms", "decode ms");
+    for (int round = 0; round < 2; round++) {
+      //the first round warms up
+      boolean print = round == 1;
+      measure("Java serialization", iterations, print, () -> serialize(metrics), MetricsCodecBenchmark::deserialize);
+      measure("MetricsCodec", iterations, print, () -> MetricsCodec.encode(metrics), MetricsCodec::decode);
+      measure("MetricsCodec delta", iterations, print, () -> MetricsCodec.encode(metrics, previous),
+              bytes -> MetricsCodec.decode(bytes, previous));
+    }
+  }
+
+  private static void measure(String name, int iterations, boolean print, Encode encode, Decode decode) throws Exception {
+    byte[] bytes = encode.encode();
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      bytes = encode.encode();
+    }
+    double encodeMillis = (System.nanoTime() - start) / 1e6 / iterations;
+    start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      decode.decode(bytes);
+    }
+    double decodeMillis = (System.nanoTime() - start) / 1e6 / iterations;
+    if (print) System.out.printf("%-20s %10d %12.3f %12.3f%n", name, bytes.length, encodeMillis, decodeMillis);
+  }
+
+  private static Metrics createMetrics(int components, long offset) throws MetricException {
+    MetricsGroup root = new MetricsGroup();
+    for (int c = 0; c < components; c++) {
+      MetricsData monitor = new MetricsData();
+      for (int v = 0; v < 10; v++) {
+        monitor.addData("value" + v, 1000L * c * v + offset * v);
+      }
+      root.addSubMetrics("component" + c, new MetricsGroup()
+              .addSubMetrics("monitor", monitor)
+              .addSubMetrics("meter", PrimitiveMetricsData.builder()
+                      .addData("count", 100L * c + offset)
+                      .addData("meanRate", c / 7.0)
+                      .addData("m1Rate", c / 3.0 + offset)
+                      .addData("m5Rate", c / 3.0)
+                      .addData("m15Rate", c / 3.0)
+                      .build()));
+    }
+    return root;
+  }
+
+  private static byte[] serialize(Metrics metrics) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(metrics);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static Metrics deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+      return (Metrics) in.readObject();
+    }
+  }
+
+  private interface Encode {
+    byte[] encode() throws Exception;
+  }
+
+  private interface Decode {
+    Metrics decode(byte[] bytes) throws Exception;
+  }
+}
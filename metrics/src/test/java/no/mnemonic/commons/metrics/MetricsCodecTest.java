@@ -0,0 +1,169 @@
+package no.mnemonic.commons.metrics;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsCodecTest {
+
+  @Test
+  public void roundTripAllValueTypes() throws MetricException {
+    MetricsData data = new MetricsData()
+            .addData("long", Long.MIN_VALUE)
+            .addData("int", Integer.MAX_VALUE)
+            .addData("short", (short) -3)
+            .addData("byte", (byte) 7)
+            .addData("double", -0.0)
+            .addData("nan", Double.NaN)
+            .addData("float", 1.5f)
+            .addData("bigInteger", new BigInteger("123456789012345678901234567890"))
+            .addData("bigDecimal", new BigDecimal("-1234.5678"));
+    assertMetricsEquals(data, MetricsCodec.decode(MetricsCodec.encode(data)));
+  }
+
+  @Test
+  public void roundTripTree() throws MetricException {
+    Metrics metrics = createTree(10, 0);
+    Metrics decoded = MetricsCodec.decode(MetricsCodec.encode(metrics));
+    assertMetricsEquals(metrics, decoded);
+  }
+
+  @Test
+  public void roundTripPrimitiveMetricsData() throws MetricException {
+    PrimitiveMetricsData data = PrimitiveMetricsData.builder()
+            .addData("count", 5)
+            .addData("rate", 1.5)
+            .addData("count", 6)
+            .build();
+    PrimitiveMetricsData decoded = (PrimitiveMetricsData) MetricsCodec.decode(MetricsCodec.encode(data));
+    assertEquals(3, decoded.size());
+    assertEquals(5, decoded.getLong(0));
+    assertTrue(decoded.isDouble(1));
+    assertEquals(1.5, decoded.getDouble(1), 0);
+    assertEquals(6L, decoded.getData("count"));
+  }
+
+  @Test
+  public void roundTripEmptyMetrics() throws MetricException {
+    assertMetricsEquals(new MetricsGroup(), MetricsCodec.decode(MetricsCodec.encode(new MetricsGroup())));
+    assertMetricsEquals(new MetricsData(), MetricsCodec.decode(MetricsCodec.encode(new MetricsData())));
+  }
+
+  @Test
+  public void otherNumberTypesAreDecodedAsLong() throws MetricException {
+    Metrics decoded = MetricsCodec.decode(MetricsCodec.encode(new MetricsData().addData("atomic", new AtomicLong(3))));
+    assertEquals(3L, decoded.getData("atomic"));
+  }
+
+  @Test
+  public void repeatedNamesAreWrittenOnce() throws MetricException {
+    byte[] one = MetricsCodec.encode(new MetricsGroup()
+            .addSubMetrics("a", new MetricsData().addData("someLongKeyName", 1L)));
+    byte[] two = MetricsCodec.encode(new MetricsGroup()
+            .addSubMetrics("a", new MetricsData().addData("someLongKeyName", 1L))
+            .addSubMetrics("b", new MetricsData().addData("someLongKeyName", 1L)));
+    //the second component adds its new name (3 bytes), node type, size, key reference and value (2 bytes)
+    assertEquals(one.length + 8, two.length);
+  }
+
+  @Test
+  public void roundTripDelta() throws MetricException {
+    Metrics previous = createTree(10, 0);
+    Metrics current = createTree(10, 3);
+    ((MetricsGroup) current).addSubMetrics("new", new MetricsData().addData("value", 1L));
+    byte[] delta = MetricsCodec.encode(current, previous);
+    assertTrue(delta.length < MetricsCodec.encode(current).length);
+    assertMetricsEquals(current, MetricsCodec.decode(delta, previous));
+    //decoding against a previous snapshot which was itself decoded
+    Metrics decodedPrevious = MetricsCodec.decode(MetricsCodec.encode(previous));
+    assertMetricsEquals(current, MetricsCodec.decode(delta, decodedPrevious));
+  }
+
+  @Test
+  public void deltaWithChangedValueType() throws MetricException {
+    Metrics previous = new MetricsData().addData("value", 1).addData("double", 1.0);
+    Metrics current = new MetricsData().addData("value", 2L).addData("double", 1.0f);
+    assertMetricsEquals(current, MetricsCodec.decode(MetricsCodec.encode(current, previous), previous));
+  }
+
+  @Test(expected = MetricException.class)
+  public void decodeDeltaWithoutPrevious() throws MetricException {
+    Metrics previous = new MetricsData().addData("value", 1L);
+    MetricsCodec.decode(MetricsCodec.encode(previous, previous));
+  }
+
+  @Test(expected = MetricException.class)
+  public void decodeDeltaWithWrongPrevious() throws MetricException {
+    Metrics previous = new MetricsData().addData("value", 1L);
+    MetricsCodec.decode(MetricsCodec.encode(previous, previous), new MetricsData());
+  }
+
+  @Test
+  public void decodeInvalidData() throws MetricException {
+    byte[] bytes = MetricsCodec.encode(createTree(2, 0));
+    for (int length = 0; length < bytes.length; length++) {
+      assertDecodeFails(Arrays.copyOf(bytes, length));
+    }
+    assertDecodeFails(Arrays.copyOf(bytes, bytes.length + 1));
+    byte[] version = bytes.clone();
+    version[0] = (byte) (MetricsCodec.VERSION + 1);
+    assertDecodeFails(version);
+  }
+
+  @Test(expected = MetricException.class)
+  public void encodeMetricsWithDataAndSubMetrics() throws MetricException {
+    MetricsCodec.encode(new MetricsData() {
+      @Override
+      public boolean hasSubMetrics() {
+        return true;
+      }
+    });
+  }
+
+  private static void assertDecodeFails(byte[] bytes) {
+    try {
+      MetricsCodec.decode(bytes);
+    } catch (MetricException e) {
+      return;
+    }
+    throw new AssertionError("Expected decoding to fail for " + Arrays.toString(bytes));
+  }
+
+  private static Metrics createTree(int components, long offset) throws MetricException {
+    MetricsGroup root = new MetricsGroup();
+    for (int c = 0; c < components; c++) {
+      root.addSubMetrics("component" + c, new MetricsGroup()
+              .addSubMetrics("monitor", new MetricsData()
+                      .addData("invocations", 1000L * c + offset)
+                      .addData("timeSpent", 20000L * c + offset * 7)
+                      .addData("ratio", c / 3.0))
+              .addSubMetrics("meter", PrimitiveMetricsData.builder()
+                      .addData("count", c + offset)
+                      .addData("m1Rate", offset / 5.0)
+                      .build()));
+    }
+    return root;
+  }
+
+  static void assertMetricsEquals(Metrics expected, Metrics actual) {
+    assertSame(expected.getClass() == PrimitiveMetricsData.class ? PrimitiveMetricsData.class :
+            expected.hasData() ? MetricsData.class : MetricsGroup.class, actual.getClass());
+    assertEquals(expected.getData(), actual.getData());
+    if (!expected.hasSubMetrics()) {
+      assertNull(actual.getSubMetrics());
+      return;
+    }
+    assertEquals(expected.getSubMetrics().keySet(), actual.getSubMetrics().keySet());
+    for (String name : expected.getSubMetrics().keySet()) {
+      assertMetricsEquals(expected.getSubMetrics(name), actual.getSubMetrics(name));
+    }
+  }
+}
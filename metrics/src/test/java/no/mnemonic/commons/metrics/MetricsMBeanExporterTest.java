@@ -0,0 +1,167 @@
+package no.mnemonic.commons.metrics;
+
+import no.mnemonic.commons.container.ComponentContainer;
+import no.mnemonic.commons.container.providers.BeanProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.AttributeNotFoundException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static no.mnemonic.commons.utilities.collections.MapUtils.map;
+import static no.mnemonic.commons.utilities.collections.MapUtils.pair;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsMBeanExporterTest {
+
+  private final AtomicLong nanoTime = new AtomicLong();
+  private final AtomicInteger calls = new AtomicInteger();
+  private MBeanServer server;
+  private MetricsMBeanExporter exporter;
+  private ComponentContainer container;
+
+  @Before
+  public void setup() {
+    nanoTime.set(TimeUnit.SECONDS.toNanos(100));
+    TimerContext.setTicker(nanoTime::get);
+    server = MBeanServerFactory.newMBeanServer();
+    exporter = MetricsMBeanExporter.builder().setMBeanServer(server).build();
+  }
+
+  @After
+  public void cleanup() {
+    TimerContext.setTicker(System::nanoTime);
+    if (container != null) container.destroy();
+  }
+
+  @Test
+  public void registerComponentsWhileContainerIsRunning() throws Exception {
+    container = ComponentContainer.create(beans(map(
+            pair("exporter", exporter),
+            pair("component1", counting()),
+            pair("other", new Object())
+    ))).initialize();
+    ObjectName name = exporter.getObjectName("component1");
+    assertEquals("no.mnemonic.commons.metrics", name.getDomain());
+    assertTrue(server.isRegistered(name));
+    assertEquals(1, server.queryNames(new ObjectName("no.mnemonic.commons.metrics:type=Metrics,*"), null).size());
+
+    container.destroy();
+    assertFalse(server.isRegistered(name));
+  }
+
+  @Test
+  public void keepParentComponentWhenChildWithSameNameIsDestroyed() throws Exception {
+    container = ComponentContainer.create(beans(map(
+            pair("exporter", exporter),
+            pair("component", counting())
+    ))).initialize();
+    ComponentContainer child = ComponentContainer.create(beans(map(
+            pair("exporter", exporter),
+            pair("component", counting())
+    ))).initialize();
+    ObjectName name = exporter.getObjectName("component");
+    assertTrue(server.isRegistered(name));
+
+    child.destroy();
+    assertTrue(server.isRegistered(name));
+    container.destroy();
+    assertFalse(server.isRegistered(name));
+  }
+
+  @Test
+  public void readMetricsLazily() throws Exception {
+    exporter.addComponent("component", counting());
+    ObjectName name = exporter.getObjectName("component");
+    assertEquals(0, calls.get());
+
+    assertEquals(1L, server.getAttribute(name, "summary.calls"));
+    assertEquals(2.5, server.getAttribute(name, "group.value"));
+    assertEquals(2, server.getAttributes(name, new String[]{"summary.calls", "group.value", "unknown"}).size());
+    assertEquals(1, calls.get());
+
+    nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(MetricsMBeanExporter.DEFAULT_TIME_TO_LIVE_MILLIS));
+    assertEquals(2L, server.getAttribute(name, "summary.calls"));
+  }
+
+  @Test
+  public void describeAttributes() throws Exception {
+    exporter.addComponent("component", counting());
+    ObjectName name = exporter.getObjectName("component");
+    MBeanAttributeInfo[] attributes = server.getMBeanInfo(name).getAttributes();
+    Set<String> names = Arrays.stream(attributes).map(MBeanAttributeInfo::getName).collect(Collectors.toSet());
+    assertEquals(Set.of("summary.calls", "group.value"), names);
+    assertEquals(Double.class.getName(), attributes[0].getType());
+    assertEquals(Long.class.getName(), attributes[1].getType());
+    assertTrue(attributes[0].isReadable());
+    assertFalse(attributes[0].isWritable());
+  }
+
+  @Test(expected = AttributeNotFoundException.class)
+  public void readUnknownAttribute() throws Exception {
+    exporter.addComponent("component", counting());
+    server.getAttribute(exporter.getObjectName("component"), "unknown");
+  }
+
+  @Test(expected = MBeanException.class)
+  public void readFailingComponent() throws Exception {
+    exporter.addComponent("component", () -> {
+      throw new MetricException("failed");
+    });
+    server.getAttribute(exporter.getObjectName("component"), "summary.calls");
+  }
+
+  @Test
+  public void removeComponent() {
+    exporter.addComponent("component", counting());
+    exporter.removeComponent("component");
+    assertFalse(server.isRegistered(exporter.getObjectName("component")));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void domainNotSet() {
+    MetricsMBeanExporter.builder().setDomain(null).build();
+  }
+
+  private MetricAspect counting() {
+    return () -> new MetricsGroup()
+            .addSubMetrics("group", new MetricsData().addData("value", 2.5))
+            .addSubMetrics("summary", PrimitiveMetricsData.builder(1).addData("calls", (long) calls.incrementAndGet()).build());
+  }
+
+  private static BeanProvider beans(Map<String, Object> beans) {
+    return new BeanProvider() {
+      @Override
+      public <T> Optional<T> getBean(Class<T> ofType) {
+        return beans.values().stream().filter(ofType::isInstance).map(ofType::cast).findAny();
+      }
+
+      @Override
+      public <T> Map<String, T> getBeans(Class<T> ofType) {
+        return beans.entrySet().stream()
+                .filter(e -> ofType.isInstance(e.getValue()))
+                .collect(Collectors.toMap(Map.Entry::getKey, e -> ofType.cast(e.getValue())));
+      }
+
+      @Override
+      public Map<String, Object> getBeans() {
+        return beans;
+      }
+    };
+  }
+}
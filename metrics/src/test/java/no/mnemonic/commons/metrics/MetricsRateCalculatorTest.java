@@ -0,0 +1,131 @@
+package no.mnemonic.commons.metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsRateCalculatorTest {
+
+  private final AtomicLong ticker = new AtomicLong(1000000L);
+
+  @Before
+  public void setup() {
+    TimerContext.setTicker(ticker::get);
+  }
+
+  @After
+  public void cleanup() {
+    TimerContext.setTicker(System::nanoTime);
+  }
+
+  @Test
+  public void firstSnapshotHasNoRates() throws MetricException {
+    MetricsRateCalculator calculator = MetricsRateCalculator.builder().build();
+    assertTrue(calculator.update(snapshot(10, 1.0)).getSubMetrics().isEmpty());
+  }
+
+  @Test
+  public void calculateDeltasAndRates() throws MetricException {
+    MetricsRateCalculator calculator = MetricsRateCalculator.builder().build();
+    calculator.update(snapshot(10, 1.0));
+    ticker.addAndGet(TimeUnit.SECONDS.toNanos(2));
+    Metrics service = calculator.update(snapshot(30, 2.0)).getSubMetrics("service");
+    assertEquals(20L, service.getData("invocations.delta"));
+    assertEquals(10.0, service.getData("invocations.rate"));
+    assertEquals(1.0, service.getData("timeSpent.delta"));
+    assertEquals(0.5, service.getData("timeSpent.rate"));
+    assertNull(service.getData("invocations"));
+  }
+
+  @Test
+  public void counterResetCountsFromZero() throws MetricException {
+    MetricsRateCalculator calculator = MetricsRateCalculator.builder().build();
+    calculator.update(snapshot(100, 10.0));
+    ticker.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    Metrics service = calculator.update(snapshot(5, 2.0)).getSubMetrics("service");
+    assertEquals(5L, service.getData("invocations.delta"));
+    assertEquals(2.0, service.getData("timeSpent.delta"));
+  }
+
+  @Test
+  public void newAndRemovedKeys() throws MetricException {
+    MetricsRateCalculator calculator = MetricsRateCalculator.builder().build();
+    calculator.update(new MetricsGroup().addSubMetrics("service", new MetricsData().addData("a", 1L)));
+    ticker.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    Metrics service = calculator.update(new MetricsGroup().addSubMetrics("service", new MetricsData().addData("b", 1L)))
+            .getSubMetrics("service");
+    //neither key is present in both snapshots
+    assertNull(service);
+    ticker.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    service = calculator.update(new MetricsGroup().addSubMetrics("service", new MetricsData().addData("a", 5L).addData("b", 3L)))
+            .getSubMetrics("service");
+    //the key removed in the previous snapshot starts over
+    assertNull(service.getData("a.delta"));
+    assertEquals(2L, service.getData("b.delta"));
+  }
+
+  @Test
+  public void calculateRatesOfPrimitiveMetricsData() throws MetricException {
+    MetricsRateCalculator calculator = MetricsRateCalculator.builder().build();
+    calculator.update(new MetricsGroup().addSubMetrics("meter", PrimitiveMetricsData.builder().addData("count", 1).addData("sum", 0.5).build()));
+    ticker.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    Metrics meter = calculator.update(new MetricsGroup().addSubMetrics("meter", PrimitiveMetricsData.builder()
+            .addData("count", 4)
+            .addData("sum", 1.0)
+            .build())).getSubMetrics("meter");
+    assertEquals(3L, meter.getData("count.delta"));
+    assertEquals(0.5, meter.getData("sum.delta"));
+    //keys at changed positions
+    ticker.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    meter = calculator.update(new MetricsGroup().addSubMetrics("meter", PrimitiveMetricsData.builder()
+            .addData("sum", 2.0)
+            .addData("count", 8)
+            .build())).getSubMetrics("meter");
+    assertEquals(4L, meter.getData("count.delta"));
+    assertEquals(1.0, meter.getData("sum.delta"));
+  }
+
+  @Test
+  public void changedValueType() throws MetricException {
+    MetricsRateCalculator calculator = MetricsRateCalculator.builder().build();
+    calculator.update(new MetricsData().addData("value", 1L));
+    ticker.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    assertEquals(1.5, calculator.update(new MetricsData().addData("value", 2.5)).getData("value.delta"));
+    ticker.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    assertEquals(0.5, calculator.update(new MetricsData().addData("value", 3L)).getData("value.delta"));
+  }
+
+  @Test
+  public void filterValues() throws MetricException {
+    MetricsRateCalculator calculator = MetricsRateCalculator.builder()
+            .setFilter(path -> path.equals("service.invocations"))
+            .build();
+    calculator.update(snapshot(10, 1.0));
+    ticker.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    Metrics service = calculator.update(snapshot(30, 2.0)).getSubMetrics("service");
+    assertEquals(20L, service.getData("invocations.delta"));
+    assertNull(service.getData("timeSpent.delta"));
+  }
+
+  @Test
+  public void snapshotsWithoutElapsedTimeHaveZeroRate() throws MetricException {
+    MetricsRateCalculator calculator = MetricsRateCalculator.builder().build();
+    calculator.update(snapshot(10, 1.0));
+    Metrics service = calculator.update(snapshot(30, 2.0)).getSubMetrics("service");
+    assertEquals(20L, service.getData("invocations.delta"));
+    assertEquals(0.0, service.getData("invocations.rate"));
+  }
+
+  private static Metrics snapshot(long invocations, double timeSpent) throws MetricException {
+    return new MetricsGroup().addSubMetrics("service", new MetricsData()
+            .addData("invocations", invocations)
+            .addData("timeSpent", timeSpent));
+  }
+}
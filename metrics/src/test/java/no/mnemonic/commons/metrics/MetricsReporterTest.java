@@ -0,0 +1,180 @@
+package no.mnemonic.commons.metrics;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MetricsReporterTest {
+
+  private final CountDownLatch release = new CountDownLatch(1);
+  private MetricsReporter reporter;
+
+  @After
+  public void cleanup() {
+    release.countDown();
+    if (reporter != null) reporter.stopComponent();
+  }
+
+  @Test
+  public void reportSnapshotOfAllAspects() throws MetricException {
+    RecordingSink sink = new RecordingSink();
+    reporter = MetricsReporter.builder()
+            .addMetrics("a", fixed(1))
+            .addMetrics("b", fixed(2))
+            .addSink(sink)
+            .build();
+    reporter.report();
+    assertEquals(1, sink.snapshots.size());
+    Metrics snapshot = sink.snapshots.get(0);
+    assertEquals(1L, snapshot.getSubMetrics("a").getData("value"));
+    assertEquals(2L, snapshot.getSubMetrics("b").getData("value"));
+    assertEquals(1L, reporter.getMetrics().getData("reported"));
+  }
+
+  @Test
+  public void failingAspectIsLeftOut() throws MetricException {
+    RecordingSink sink = new RecordingSink();
+    reporter = MetricsReporter.builder()
+            .addMetrics("ok", fixed(1))
+            .addMetrics("failing", () -> {
+              throw new MetricException("failed");
+            })
+            .addSink(sink)
+            .build();
+    reporter.report();
+    assertNull(sink.snapshots.get(0).getSubMetrics("failing"));
+    assertEquals(1L, reporter.getMetrics().getData("aspectFailures"));
+  }
+
+  @Test
+  public void reportAtFixedRateWhenStarted() throws InterruptedException {
+    CountDownLatch reported = new CountDownLatch(3);
+    reporter = MetricsReporter.builder()
+            .addMetrics("a", fixed(1))
+            .addSink((timestamp, metrics) -> reported.countDown())
+            .setIntervalMillis(10)
+            .build();
+    reporter.startComponent();
+    assertTrue(reported.await(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void slowSinkSkipsSnapshotsWithoutBlockingOtherSinks() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    RecordingSink slow = new RecordingSink() {
+      @Override
+      public void report(long timestamp, Metrics metrics) {
+        started.countDown();
+        await(release);
+        super.report(timestamp, metrics);
+      }
+    };
+    RecordingSink fast = new RecordingSink();
+    reporter = MetricsReporter.builder()
+            .addMetrics("a", fixed(1))
+            .addSink(slow)
+            .addSink(fast)
+            .build();
+    reporter.startComponent();
+    reporter.report();
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    //while the slow sink is blocked, the first snapshot is pending, and is replaced by each following snapshot
+    for (int i = 0; i < 5; i++) {
+      reporter.report();
+    }
+    //the fast sink keeps reporting while the slow sink is blocked
+    assertTrue(fast.awaitSnapshots(1));
+    release.countDown();
+    reporter.stopComponent();
+    assertEquals(2, slow.snapshots.size());
+    //each snapshot is either reported or skipped by each sink
+    Metrics metrics = reporter.getMetrics();
+    assertEquals(12L, metrics.getData("reported").longValue() + metrics.getData("skipped").longValue());
+    assertEquals(10L - fast.snapshots.size(), metrics.getData("skipped").longValue());
+    assertTrue(slow.closed.get());
+    assertTrue(fast.closed.get());
+  }
+
+  @Test
+  public void failingSinkIsCounted() throws MetricException {
+    reporter = MetricsReporter.builder()
+            .addMetrics("a", fixed(1))
+            .addSink((timestamp, metrics) -> {
+              throw new java.io.IOException("failed");
+            })
+            .build();
+    reporter.report();
+    assertEquals(1L, reporter.getMetrics().getData("failed"));
+  }
+
+  @Test
+  public void stoppedReporterSkipsSnapshotsAndCannotBeRestarted() throws MetricException {
+    RecordingSink sink = new RecordingSink();
+    reporter = MetricsReporter.builder().addMetrics("a", fixed(1)).addSink(sink).build();
+    reporter.startComponent();
+    reporter.stopComponent();
+    assertTrue(sink.closed.get());
+    reporter.report();
+    assertEquals(0, sink.snapshots.size());
+    assertEquals(1L, reporter.getMetrics().getData("skipped"));
+    try {
+      reporter.startComponent();
+      fail("Expected exception");
+    } catch (IllegalStateException ignored) {
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void sinksNotSet() {
+    MetricsReporter.builder().addMetrics("a", fixed(1)).build();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidInterval() {
+    MetricsReporter.builder().addSink(new RecordingSink()).setIntervalMillis(0).build();
+  }
+
+  private static MetricAspect fixed(long value) {
+    return () -> new MetricsData().addData("value", value);
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static class RecordingSink implements MetricsSink {
+    final List<Metrics> snapshots = new CopyOnWriteArrayList<>();
+    final AtomicBoolean closed = new AtomicBoolean();
+
+    @Override
+    public void report(long timestamp, Metrics metrics) {
+      snapshots.add(metrics);
+    }
+
+    @Override
+    public void close() {
+      closed.set(true);
+    }
+
+    boolean awaitSnapshots(int count) throws InterruptedException {
+      for (int i = 0; i < 1000 && snapshots.size() < count; i++) {
+        Thread.sleep(10);
+      }
+      return snapshots.size() >= count;
+    }
+  }
+}
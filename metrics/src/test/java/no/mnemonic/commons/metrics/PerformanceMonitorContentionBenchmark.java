@@ -0,0 +1,75 @@
+package no.mnemonic.commons.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contention benchmark comparing the storage modes of {@link PerformanceMonitor}.
+ * Each round lets a number of threads call {@link PerformanceMonitor#invoked(long)} on the same monitor,
+ * and reports the total throughput.
+ *
+ * This is not run as part of the test suite. Run the main method manually, optionally with
+ * the round duration in milliseconds as the first argument.
+ */
+public class PerformanceMonitorContentionBenchmark {
+
+  private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16, 32, 64};
+
+  public static void main(String[] args) throws InterruptedException {
+    long duration = args.length > 0 ? Long.parseLong(args[0]) : 2000;
+    //warm up both implementations before measuring
+    for (PerformanceMonitor.StorageMode mode : PerformanceMonitor.StorageMode.values()) {
+      run(mode, 4, duration);
+    }
+    System.out.printf("%-8s %16s %16s%n", "threads", "LINKED_LIST", "RING_BUFFER");
+    for (int threads : THREAD_COUNTS) {
+      double linked = run(PerformanceMonitor.StorageMode.LINKED_LIST, threads, duration);
+      double ring = run(PerformanceMonitor.StorageMode.RING_BUFFER, threads, duration);
+      System.out.printf("%-8d %16.0f %16.0f ops/s%n", threads, linked, ring);
+    }
+  }
+
+  private static double run(PerformanceMonitor.StorageMode mode, int threads, long duration) throws InterruptedException {
+    PerformanceMonitor monitor = PerformanceMonitor.builder()
+            .setTimeUnit(TimeUnit.SECONDS)
+            .setMemory(600)
+            .setResolution(1)
+            .setStorageMode(mode)
+            .build();
+    AtomicBoolean running = new AtomicBoolean(true);
+    CountDownLatch start = new CountDownLatch(1);
+    LongAdder operations = new LongAdder();
+    List<Thread> workers = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      Thread worker = new Thread(() -> {
+        long count = 0;
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+        while (running.get()) {
+          monitor.invoked(1);
+          count++;
+        }
+        operations.add(count);
+      });
+      worker.start();
+      workers.add(worker);
+    }
+    long startTime = System.nanoTime();
+    start.countDown();
+    Thread.sleep(duration);
+    running.set(false);
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    long elapsed = System.nanoTime() - startTime;
+    return operations.sum() / (elapsed / (double) TimeUnit.SECONDS.toNanos(1));
+  }
+}
@@ -0,0 +1,85 @@
+package no.mnemonic.commons.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Scaling benchmark comparing an unsharded {@link PerformanceMonitor} in {@link PerformanceMonitor.StorageMode#RING_BUFFER}
+ * mode with a monitor sharded over one ring per available processor, both with timeslot histograms enabled.
+ * Each round lets a number of threads call {@link PerformanceMonitor#invoked(long)} on the same monitor,
+ * and reports the total throughput, along with the speedup relative to a single thread.
+ * With sharding, the throughput should grow close to linearly with the number of threads, up to the number of cores.
+ *
+ * This is not run as part of the test suite. Run the main method manually, optionally with
+ * the round duration in milliseconds as the first argument.
+ */
+public class PerformanceMonitorScalingBenchmark {
+
+  public static void main(String[] args) throws InterruptedException {
+    long duration = args.length > 0 ? Long.parseLong(args[0]) : 2000;
+    int processors = Runtime.getRuntime().availableProcessors();
+    //warm up both configurations before measuring
+    run(1, 4, duration);
+    run(processors, 4, duration);
+    System.out.printf("%d available processors%n", processors);
+    System.out.printf("%-8s %16s %8s %16s %8s%n", "threads", "unsharded", "speedup", "sharded", "speedup");
+    double unshardedBase = 0;
+    double shardedBase = 0;
+    for (int threads = 1; threads <= processors * 2; threads *= 2) {
+      double unsharded = run(1, threads, duration);
+      double sharded = run(processors, threads, duration);
+      if (threads == 1) {
+        unshardedBase = unsharded;
+        shardedBase = sharded;
+      }
+      System.out.printf("%-8d %16.0f %8.2f %16.0f %8.2f%n", threads,
+              unsharded, unsharded / unshardedBase, sharded, sharded / shardedBase);
+    }
+  }
+
+  private static double run(int shards, int threads, long duration) throws InterruptedException {
+    PerformanceMonitor monitor = PerformanceMonitor.builder()
+            .setTimeUnit(TimeUnit.SECONDS)
+            .setMemory(600)
+            .setResolution(1)
+            .setStorageMode(PerformanceMonitor.StorageMode.RING_BUFFER)
+            .setHistogramEnabled(true)
+            .setShards(shards)
+            .build();
+    AtomicBoolean running = new AtomicBoolean(true);
+    CountDownLatch start = new CountDownLatch(1);
+    LongAdder operations = new LongAdder();
+    List<Thread> workers = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      Thread worker = new Thread(() -> {
+        long count = 0;
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+        while (running.get()) {
+          monitor.invoked(count & 1023);
+          count++;
+        }
+        operations.add(count);
+      });
+      worker.start();
+      workers.add(worker);
+    }
+    long startTime = System.nanoTime();
+    start.countDown();
+    Thread.sleep(duration);
+    running.set(false);
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    long elapsed = System.nanoTime() - startTime;
+    return operations.sum() / (elapsed / (double) TimeUnit.SECONDS.toNanos(1));
+  }
+}
@@ -3,21 +3,48 @@ package no.mnemonic.commons.metrics;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
 import org.mockito.Mockito;
 
 import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
 import static org.mockito.Mockito.when;
 
+@RunWith(Parameterized.class)
 public class PerformanceMonitorTest {
 
   private AtomicLong clockTime = new AtomicLong(100000L);
   private Clock clock = Mockito.mock(Clock.class);
-  private PerformanceMonitor monitor = new PerformanceMonitor(SECONDS, 10, 1);
+  private final PerformanceMonitor.StorageMode storageMode;
+  private PerformanceMonitor monitor;
+
+  public PerformanceMonitorTest(PerformanceMonitor.StorageMode storageMode) {
+    this.storageMode = storageMode;
+    monitor = PerformanceMonitor.builder()
+            .setTimeUnit(SECONDS)
+            .setMemory(10)
+            .setResolution(1)
+            .setStorageMode(storageMode)
+            .build();
+  }
+
+  @Parameterized.Parameters(name = "{0}")
+  public static Collection<Object[]> storageModes() {
+    return Arrays.asList(new Object[][]{{PerformanceMonitor.StorageMode.LINKED_LIST}, {PerformanceMonitor.StorageMode.RING_BUFFER}});
+  }
 
   @Before
   public void setup() {
@@ -45,6 +72,24 @@ public class PerformanceMonitorTest {
     assertEquals(200, monitor.getTotalTimeSpent());
   }
 
+  @Test
+  public void defaultConstructor() {
+    PerformanceMonitor m = new PerformanceMonitor(SECONDS, 10, 1);
+    m.invoked(100);
+    assertEquals(1, m.getInvocationsLast(SECONDS, 10));
+    assertEquals(100, m.getTimeSpentLast(SECONDS, 10));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void builderWithoutTimeUnit() {
+    PerformanceMonitor.builder().setMemory(10).setResolution(1).build();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void builderWithoutStorageMode() {
+    PerformanceMonitor.builder().setTimeUnit(SECONDS).setMemory(10).setResolution(1).setStorageMode(null).build();
+  }
+
   @Test(expected = IllegalArgumentException.class)
   public void zeroTimeframe() {
     monitor.getInvocationsLast(MILLISECONDS, 0);
@@ -124,4 +169,213 @@ public class PerformanceMonitorTest {
     assertEquals(2 / 10.0, monitor.getInvocationsPerSecondLast(SECONDS, 10), 0.01);
     assertEquals(1100 / 10.0, monitor.getTimeSpentPerSecondLast(SECONDS, 10), 0.01);
   }
+
+  @Test
+  public void monitorReusesExpiredTimeframes() {
+    for (int i = 0; i < 30; i++) {
+      monitor.invoked(i);
+      clockTime.addAndGet(1000);
+    }
+    assertEquals(30, monitor.getTotalInvocations());
+    assertEquals(0, monitor.getInvocationsLast(SECONDS, 1));
+    assertEquals(1, monitor.getInvocationsLast(SECONDS, 2));
+    assertEquals(29, monitor.getTimeSpentLast(SECONDS, 2));
+    assertEquals(9, monitor.getInvocationsLast(SECONDS, 10));
+    assertEquals(21 + 22 + 23 + 24 + 25 + 26 + 27 + 28 + 29, monitor.getTimeSpentLast(SECONDS, 10));
+  }
+
+  @Test
+  public void windowsFromSameSnapshot() {
+    for (int i = 0; i < 30; i++) {
+      monitor.invoked(i);
+      clockTime.addAndGet(1000);
+    }
+    PerformanceMonitor.WindowStats stats = monitor.getWindowsLast(SECONDS, 2, 5, 10);
+    assertEquals(3, stats.size());
+    assertEquals(5000, stats.getTimeframe(1));
+    assertEquals(1, stats.getInvocations(0));
+    assertEquals(29, stats.getTimeSpent(0));
+    assertEquals(4, stats.getInvocations(1));
+    assertEquals(26 + 27 + 28 + 29, stats.getTimeSpent(1));
+    assertEquals(9, stats.getInvocations(2));
+    assertEquals(0.9, stats.getInvocationsPerSecond(2), 0.01);
+    assertEquals(25, stats.getTimeSpentPerInvocation(2), 0.01);
+    assertEquals(monitor.getTimeSpentPerSecondLast(SECONDS, 10), stats.getTimeSpentPerSecond(2), 0.01);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void windowsWithInvalidTimeframe() {
+    monitor.getWindowsLast(SECONDS, 10, 0);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void histogramNotEnabled() {
+    assertFalse(monitor.isHistogramEnabled());
+    monitor.getTimeSpentPercentileLast(SECONDS, 10, 99);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void histogramInvalidPrecision() {
+    histogramMonitor().setHistogramPrecision(0).build();
+  }
+
+  @Test
+  public void histogramPercentilesWithinTimeframe() {
+    PerformanceMonitor m = histogramMonitor().build();
+    assertTrue(m.isHistogramEnabled());
+    for (int i = 1; i <= 99; i++) {
+      m.invoked(10);
+    }
+    m.invoked(1000);
+    assertEquals(100, m.getTimeSpentHistogramLast(SECONDS, 10).getCount());
+    assertEquals(10, m.getTimeSpentPercentileLast(SECONDS, 10, 50));
+    assertEquals(10, m.getTimeSpentPercentileLast(SECONDS, 10, 99));
+    assertEquals(1000, m.getTimeSpentPercentileLast(SECONDS, 10, 99.9));
+  }
+
+  @Test
+  public void histogramMergesTimeslots() {
+    PerformanceMonitor m = histogramMonitor().build();
+    m.invoked(100);
+    clockTime.addAndGet(1000);
+    m.invoked(200);
+    clockTime.addAndGet(1000);
+    m.invoked(300);
+    assertEquals(1, m.getTimeSpentHistogramLast(SECONDS, 1).getCount());
+    assertEquals(300, m.getTimeSpentPercentileLast(SECONDS, 1, 50));
+    assertEquals(3, m.getTimeSpentHistogramLast(SECONDS, 10).getCount());
+    assertEquals(200, m.getTimeSpentPercentileLast(SECONDS, 10, 50), 200 / 8);
+  }
+
+  @Test
+  public void histogramExpiresTimeslots() {
+    PerformanceMonitor m = histogramMonitor().build();
+    m.invoked(100);
+    clockTime.addAndGet(11000);
+    m.invoked(5);
+    assertEquals(1, m.getTimeSpentHistogramLast(SECONDS, 10).getCount());
+    assertEquals(5, m.getTimeSpentPercentileLast(SECONDS, 10, 100));
+  }
+
+  @Test
+  public void histogramRecordsAveragePerInvocation() {
+    PerformanceMonitor m = histogramMonitor().build();
+    m.invoked(4, 400);
+    m.invoked();
+    Histogram histogram = m.getTimeSpentHistogramLast(SECONDS, 10);
+    assertEquals(4, histogram.getCount());
+    assertEquals(100, histogram.getMin());
+    assertEquals(100, histogram.getMax());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void tiersRequireRingBuffer() {
+    assumeTrue(storageMode == PerformanceMonitor.StorageMode.LINKED_LIST);
+    tieredMonitor().build();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void tierWithInvalidResolution() {
+    assumeTrue(storageMode == PerformanceMonitor.StorageMode.RING_BUFFER);
+    tieredMonitor().addTier(SECONDS, 1200, 7).build();
+  }
+
+  @Test
+  public void tieredMonitorKeepsRolledUpTimeslots() {
+    assumeTrue(storageMode == PerformanceMonitor.StorageMode.RING_BUFFER);
+    PerformanceMonitor m = tieredMonitor().build();
+    assertEquals(1000, m.getResolution());
+    assertEquals(600000, m.getMemory());
+    for (int i = 0; i < 30; i++) {
+      m.invoked(i);
+      clockTime.addAndGet(1000);
+    }
+    assertEquals(30, m.getInvocationsLast(SECONDS, 60));
+    assertEquals(435, m.getTimeSpentLast(SECONDS, 60));
+    assertEquals(0, m.getInvocationsLast(SECONDS, 1));
+
+    clockTime.addAndGet(300000);
+    m.invoked(1000);
+    assertEquals(1, m.getInvocationsLast(SECONDS, 10));
+    assertEquals(31, m.getInvocationsLast(MINUTES, 10));
+    assertEquals(1435, m.getTimeSpentLast(MINUTES, 10));
+
+    clockTime.addAndGet(300000);
+    assertEquals(1, m.getInvocationsLast(MINUTES, 10));
+  }
+
+  @Test
+  public void tieredMonitorRollsUpHistograms() {
+    assumeTrue(storageMode == PerformanceMonitor.StorageMode.RING_BUFFER);
+    PerformanceMonitor m = tieredMonitor().setHistogramEnabled(true).build();
+    m.invoked(10);
+    clockTime.addAndGet(12000);
+    m.invoked(1000);
+    Histogram histogram = m.getTimeSpentHistogramLast(SECONDS, 60);
+    assertEquals(2, histogram.getCount());
+    assertEquals(10, m.getTimeSpentPercentileLast(SECONDS, 60, 50));
+    assertEquals(1000, m.getTimeSpentPercentileLast(SECONDS, 60, 100));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidShards() {
+    histogramMonitor().setShards(0).build();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shardsRequireRingBuffer() {
+    assumeTrue(storageMode == PerformanceMonitor.StorageMode.LINKED_LIST);
+    histogramMonitor().setShards(4).build();
+  }
+
+  @Test
+  public void shardedMonitorMergesShards() throws InterruptedException {
+    assumeTrue(storageMode == PerformanceMonitor.StorageMode.RING_BUFFER);
+    PerformanceMonitor m = histogramMonitor().setShards(4).build();
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 8; t++) {
+      Thread thread = new Thread(() -> {
+        for (int i = 0; i < 1000; i++) {
+          m.invoked(10);
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    m.invoked(1000);
+    assertEquals(8001, m.getTotalInvocations());
+    assertEquals(8001, m.getInvocationsLast(SECONDS, 10));
+    assertEquals(81000, m.getTimeSpentLast(SECONDS, 10));
+    PerformanceMonitor.WindowStats stats = m.getWindowsLast(SECONDS, 1, 10);
+    assertEquals(8001, stats.getInvocations(0));
+    assertEquals(81000, stats.getTimeSpent(1));
+    assertEquals(8001, m.getTimeSpentHistogramLast(SECONDS, 10).getCount());
+    assertEquals(10, m.getTimeSpentPercentileLast(SECONDS, 10, 99));
+    assertEquals(1000, m.getTimeSpentPercentileLast(SECONDS, 10, 100));
+
+    clockTime.addAndGet(10000);
+    assertEquals(0, m.getInvocationsLast(SECONDS, 10));
+  }
+
+  private PerformanceMonitor.Builder tieredMonitor() {
+    return PerformanceMonitor.builder()
+            .setTimeUnit(SECONDS)
+            .setMemory(10)
+            .setResolution(1)
+            .setStorageMode(storageMode)
+            .addTier(SECONDS, 60, 5)
+            .addTier(MINUTES, 10, 1);
+  }
+
+  private PerformanceMonitor.Builder histogramMonitor() {
+    return PerformanceMonitor.builder()
+            .setTimeUnit(SECONDS)
+            .setMemory(10)
+            .setResolution(1)
+            .setStorageMode(storageMode)
+            .setHistogramEnabled(true);
+  }
 }
@@ -0,0 +1,107 @@
+package no.mnemonic.commons.metrics;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PrimitiveMetricsDataTest {
+
+  @Test
+  public void addLongAndDoubleValues() throws MetricException {
+    PrimitiveMetricsData m = PrimitiveMetricsData.builder()
+            .addData("key1", 1)
+            .addData("key2", 2.5)
+            .build();
+    assertEquals(2, m.size());
+    assertEquals("key1", m.getKey(0));
+    assertFalse(m.isDouble(0));
+    assertEquals(1, m.getLong(0));
+    assertEquals(1.0, m.getDouble(0), 0);
+    assertTrue(m.isDouble(1));
+    assertEquals(2.5, m.getDouble(1), 0);
+    assertEquals(2, m.getLong(1));
+    assertTrue(m.hasData());
+    assertFalse(m.hasSubMetrics());
+    assertNull(m.getSubMetrics());
+  }
+
+  @Test
+  public void dataViewIsCompatibleWithMetricsData() throws MetricException {
+    PrimitiveMetricsData m = PrimitiveMetricsData.builder()
+            .addData("key1", 1)
+            .addData("key2", 2.5)
+            .build();
+    MetricsData expected = new MetricsData()
+            .addData("key1", 1L)
+            .addData("key2", 2.5);
+    assertEquals(expected.getData(), m.getData());
+    assertEquals(1L, m.getData("key1"));
+    assertEquals(2.5, m.getData("key2"));
+    assertNull(m.getData("unknownkey"));
+    assertSame(m.getData(), m.getData());
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void dataViewIsUnmodifiable() throws MetricException {
+    PrimitiveMetricsData.builder().addData("key1", 1).build().getData().put("key2", 2);
+  }
+
+  @Test
+  public void dataViewKeepsInsertionOrder() throws MetricException {
+    PrimitiveMetricsData.Builder builder = PrimitiveMetricsData.builder(2);
+    for (int i = 0; i < 100; i++) {
+      builder.addData("key" + i, i);
+    }
+    PrimitiveMetricsData m = builder.build();
+    assertEquals(100, m.size());
+    assertEquals(99, m.getLong(99));
+    Map<String, Number> data = m.getData();
+    assertEquals("key0", data.keySet().iterator().next());
+    assertEquals(100, data.size());
+  }
+
+  @Test
+  public void lastValueWinsForDuplicateKeys() throws MetricException {
+    PrimitiveMetricsData m = PrimitiveMetricsData.builder()
+            .addData("key1", 1)
+            .addData("key1", 2)
+            .build();
+    assertEquals(2, m.size());
+    assertEquals(1, m.indexOf("key1"));
+    assertEquals(2L, m.getData("key1"));
+    assertEquals(1, m.getData().size());
+  }
+
+  @Test
+  public void builderCanBeReused() throws MetricException {
+    PrimitiveMetricsData.Builder builder = PrimitiveMetricsData.builder().addData("key1", 1);
+    PrimitiveMetricsData first = builder.build();
+    builder.addData("key2", 2);
+    assertEquals(1, first.size());
+    assertEquals(Arrays.asList("key1", "key2"), Arrays.asList(builder.build().getData().keySet().toArray()));
+  }
+
+  @Test(expected = MetricException.class)
+  public void addNullKeyName() throws MetricException {
+    PrimitiveMetricsData.builder().addData(null, 1);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void indexOutOfBounds() throws MetricException {
+    PrimitiveMetricsData.builder().addData("key1", 1).build().getLong(1);
+  }
+
+  @Test
+  public void addAsSubMetrics() throws MetricException {
+    PrimitiveMetricsData sub = PrimitiveMetricsData.builder().addData("key1", 1).build();
+    MetricsGroup m = new MetricsGroup().addSubMetrics("sub1", sub);
+    assertEquals(1L, m.getSubMetrics("sub1").getData("key1"));
+  }
+}
@@ -0,0 +1,113 @@
+package no.mnemonic.commons.metrics;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PrometheusExporterTest {
+
+  @Test
+  public void exportNamesFromGroupPath() throws Exception {
+    Metrics metrics = new MetricsGroup()
+            .addSubMetrics("service", new MetricsData().addData("requests", 10L))
+            .addSubMetrics("db", new MetricsGroup()
+                    .addSubMetrics("pool", new MetricsData().addData("active", 3)));
+    assertEquals(lines("service_requests 10", "db_pool_active 3"), export(PrometheusExporter.builder().build(), metrics));
+  }
+
+  @Test
+  public void exportWithPrefix() throws Exception {
+    Metrics metrics = new MetricsGroup().addSubMetrics("service", new MetricsData().addData("requests", 10L));
+    assertEquals(lines("myapp_service_requests 10"), export(PrometheusExporter.builder().setPrefix("myapp").build(), metrics));
+  }
+
+  @Test
+  public void exportSanitizesNames() throws Exception {
+    Metrics metrics = new MetricsGroup()
+            .addSubMetrics("my-service", new MetricsData().addData("stale.slow", 1L))
+            .addSubMetrics("1st", new MetricsData().addData("value", 2L));
+    assertEquals(lines("my_service_stale_slow 1", "_1st_value 2"), export(PrometheusExporter.builder().build(), metrics));
+  }
+
+  @Test
+  public void exportDoubleValues() throws Exception {
+    Metrics metrics = new MetricsData()
+            .addData("fraction", 0.25)
+            .addData("integral", 2.0)
+            .addData("nan", Double.NaN)
+            .addData("posinf", Double.POSITIVE_INFINITY)
+            .addData("neginf", Double.NEGATIVE_INFINITY)
+            .addData("large", 1e300);
+    assertEquals(lines("fraction 0.25", "integral 2", "nan NaN", "posinf +Inf", "neginf -Inf", "large 1.0E300"),
+            export(PrometheusExporter.builder().build(), metrics));
+  }
+
+  @Test
+  public void exportPrimitiveMetricsData() throws Exception {
+    Metrics metrics = new MetricsGroup().addSubMetrics("meter", PrimitiveMetricsData.builder()
+            .addData("count", 5)
+            .addData("rate", 1.5)
+            .build());
+    assertEquals(lines("meter_count 5", "meter_rate 1.5"), export(PrometheusExporter.builder().build(), metrics));
+  }
+
+  @Test
+  public void exportToStream() throws Exception {
+    PrometheusExporter exporter = PrometheusExporter.builder().build();
+    MetricsData metrics = new MetricsData();
+    for (int i = 0; i < 1000; i++) {
+      metrics.addData("value" + i, (long) i);
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    exporter.export(metrics, out);
+    StringBuilder expected = new StringBuilder();
+    exporter.export(metrics, expected);
+    //more than the stream buffer, so it is flushed several times
+    assertTrue(out.size() > 8192);
+    assertEquals(expected.toString(), out.toString(StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  public void exportIsRepeatableWhenPathsChange() throws Exception {
+    PrometheusExporter exporter = PrometheusExporter.builder().build();
+    assertEquals(lines("a_value 1"), export(exporter, new MetricsGroup().addSubMetrics("a", new MetricsData().addData("value", 1L))));
+    assertEquals(lines("b_value 2"), export(exporter, new MetricsGroup().addSubMetrics("b", new MetricsData().addData("value", 2L))));
+    assertEquals(lines("a_value 3"), export(exporter, new MetricsGroup().addSubMetrics("a", new MetricsData().addData("value", 3L))));
+  }
+
+  @Test(expected = IOException.class)
+  public void exportPropagatesStreamErrors() throws Exception {
+    OutputStream failing = new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        throw new IOException("failed");
+      }
+    };
+    PrometheusExporter.builder().build().export(new MetricsData().addData("value", 1L), failing);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void exportNullMetrics() throws IOException {
+    PrometheusExporter.builder().build().export(null, new StringBuilder());
+  }
+
+  private static Set<String> export(PrometheusExporter exporter, Metrics metrics) throws IOException {
+    StringBuilder out = new StringBuilder();
+    exporter.export(metrics, out);
+    assertTrue(out.length() == 0 || out.charAt(out.length() - 1) == '\n');
+    return new HashSet<>(Arrays.asList(out.toString().split("\n")));
+  }
+
+  private static Set<String> lines(String... lines) {
+    return new HashSet<>(Arrays.asList(lines));
+  }
+}
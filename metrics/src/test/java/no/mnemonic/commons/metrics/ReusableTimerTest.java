@@ -0,0 +1,160 @@
+package no.mnemonic.commons.metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class ReusableTimerTest {
+
+  private final AtomicLong nanoTime = new AtomicLong();
+  private long measured;
+
+  @Before
+  public void setup() {
+    nanoTime.set(TimeUnit.MILLISECONDS.toNanos(10000));
+    TimerContext.setTicker(nanoTime::get);
+  }
+
+  @After
+  public void cleanup() {
+    TimerContext.setTicker(System::nanoTime);
+  }
+
+  @Test
+  public void timerReportsElapsedTime() {
+    AtomicLong metric = new AtomicLong();
+    ReusableTimer timer = ReusableTimer.ofMicros(metric::addAndGet);
+    try (ReusableTimer.Timing ignored = timer.start()) {
+      nanoTime.addAndGet(2500);
+    }
+    try (ReusableTimer.Timing ignored = timer.start()) {
+      nanoTime.addAndGet(1500);
+    }
+    //each timed block is truncated to whole microseconds
+    assertEquals(3, metric.get());
+  }
+
+  @Test
+  public void timerReportsInConfiguredUnit() {
+    AtomicLong millis = new AtomicLong();
+    AtomicLong nanos = new AtomicLong();
+    AtomicLong seconds = new AtomicLong();
+    try (ReusableTimer.Timing ignored1 = ReusableTimer.ofMillis(millis::set).start();
+         ReusableTimer.Timing ignored2 = ReusableTimer.ofNanos(nanos::set).start();
+         ReusableTimer.Timing ignored3 = ReusableTimer.ofSeconds(seconds::set).start()) {
+      nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(2001));
+    }
+    assertEquals(2001, millis.get());
+    assertEquals(2001000000L, nanos.get());
+    assertEquals(2, seconds.get());
+  }
+
+  @Test
+  public void timerReusesTimingOnSameThread() {
+    ReusableTimer timer = ReusableTimer.ofNanos(v -> {
+    });
+    ReusableTimer.Timing first;
+    try (ReusableTimer.Timing timing = timer.start()) {
+      first = timing;
+    }
+    try (ReusableTimer.Timing timing = timer.start()) {
+      assertSame(first, timing);
+    }
+  }
+
+  @Test
+  public void timerSupportsNestedTimings() {
+    AtomicLong metric = new AtomicLong();
+    ReusableTimer timer = ReusableTimer.ofNanos(metric::addAndGet);
+    try (ReusableTimer.Timing outer = timer.start()) {
+      nanoTime.addAndGet(10);
+      for (int i = 0; i < 10; i++) {
+        try (ReusableTimer.Timing inner = timer.start()) {
+          nanoTime.addAndGet(1);
+        }
+      }
+    }
+    //10 inner blocks of 1ns, and an outer block of 20ns
+    assertEquals(30, metric.get());
+  }
+
+  @Test
+  public void closingTwiceIsIgnored() {
+    AtomicLong metric = new AtomicLong();
+    ReusableTimer.Timing timing = ReusableTimer.ofNanos(metric::addAndGet).start();
+    nanoTime.addAndGet(5);
+    timing.close();
+    timing.close();
+    assertEquals(5, metric.get());
+  }
+
+  @Test
+  public void timerSeparatesThreads() throws InterruptedException {
+    AtomicLong metric = new AtomicLong();
+    ReusableTimer timer = ReusableTimer.ofNanos(metric::addAndGet);
+    ReusableTimer.Timing[] otherThreadTiming = new ReusableTimer.Timing[1];
+    try (ReusableTimer.Timing timing = timer.start()) {
+      Thread thread = new Thread(() -> {
+        try (ReusableTimer.Timing other = timer.start()) {
+          otherThreadTiming[0] = other;
+        }
+      });
+      thread.start();
+      thread.join();
+      assertTrue(timing != otherThreadTiming[0]);
+    }
+  }
+
+  @Test
+  public void failingMetricIsIgnored() {
+    try (ReusableTimer.Timing ignored = ReusableTimer.ofNanos(v -> {
+      throw new IllegalStateException();
+    }).start()) {
+      nanoTime.addAndGet(5);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void timerThrowsIllegalArgumentIfConsumerIsNull() {
+    ReusableTimer.ofMillis(null);
+  }
+
+  @Test
+  public void timedBlockDoesNotAllocate() {
+    java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+    assumeTrue(allocationBean.isThreadAllocatedMemorySupported() && allocationBean.isThreadAllocatedMemoryEnabled());
+
+    TimerContext.setTicker(System::nanoTime);
+    ReusableTimer timer = ReusableTimer.ofNanos(v -> measured += v);
+    int iterations = 100000;
+    //first pass initializes the thread local timing
+    runTimedBlocks(timer, iterations);
+
+    long before = allocationBean.getCurrentThreadAllocatedBytes();
+    runTimedBlocks(timer, iterations);
+    long allocated = allocationBean.getCurrentThreadAllocatedBytes() - before;
+
+    //allow for allocation by the measurement itself, far below one byte per timed block
+    assertTrue("Bytes allocated by " + iterations + " timed blocks: " + allocated, allocated < 1024);
+    assertTrue(measured > 0);
+  }
+
+  private void runTimedBlocks(ReusableTimer timer, int iterations) {
+    for (int i = 0; i < iterations; i++) {
+      try (ReusableTimer.Timing ignored = timer.start()) {
+        measured++;
+      }
+    }
+  }
+}
@@ -0,0 +1,220 @@
+package no.mnemonic.commons.metrics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RingSlotStorageTest {
+
+  private final RingSlotStorage storage = new RingSlotStorage(10000, 1000, null);
+
+  @Test
+  public void capacityCoversMemoryAndCurrentSlot() {
+    assertEquals(12, storage.getCapacity());
+  }
+
+  @Test
+  public void sumIgnoresEmptyAndExpiredSlots() {
+    storage.add(100000, 1, 10, true);
+    storage.add(105500, 2, 20, true);
+    assertEquals(3, storage.sumInvocations(105500, 90000));
+    assertEquals(30, storage.sumTimeSpent(105500, 90000));
+    assertEquals(2, storage.sumInvocations(105500, 100000));
+    assertEquals(2, storage.sumInvocations(115000, 90000));
+    assertEquals(0, storage.sumInvocations(116000, 90000));
+  }
+
+  @Test
+  public void rolloverResetsReusedSlot() {
+    storage.add(100000, 1, 10, true);
+    storage.add(112000, 5, 50, true);
+    assertEquals(5, storage.sumInvocations(112000, 90000));
+    assertEquals(50, storage.sumTimeSpent(112000, 90000));
+  }
+
+  @Test
+  public void delayedWriterIsCountedInCurrentTimeslot() {
+    storage.add(112000, 5, 50, true);
+    storage.add(100000, 1, 10, true);
+    assertEquals(6, storage.sumInvocations(112000, 111000));
+    assertEquals(0, storage.sumInvocations(112000, 112000));
+  }
+
+  @Test
+  public void sumUsesTotalsWhenTimeslotsWereOpened() {
+    storage.add(100000, 1, 10, true);
+    storage.add(103000, 2, 20, true);
+    storage.add(103500, 4, 40, true);
+    //idle timeslots between registered timeslots are opened as well
+    assertEquals(6, storage.sumInvocations(104000, 100000));
+    assertEquals(6, storage.sumInvocations(104000, 102000));
+    assertEquals(0, storage.sumInvocations(104000, 103000));
+    assertEquals(7, storage.sumInvocations(104000, 0));
+  }
+
+  @Test
+  public void sumAfterIdlePeriodLongerThanMemory() {
+    storage.add(100000, 1, 10, true);
+    storage.add(200000, 2, 20, true);
+    assertEquals(2, storage.sumInvocations(200000, 0));
+    assertEquals(20, storage.sumTimeSpent(200000, 0));
+    assertEquals(0, storage.sumInvocations(300000, 0));
+  }
+
+  @Test
+  public void batchSumUsesSameTotals() {
+    for (int i = 0; i < 10; i++) {
+      storage.add(100000 + i * 1000, 1, i, true);
+    }
+    long[] invocations = new long[3];
+    long[] timeSpent = new long[3];
+    storage.sum(109000, new long[]{108000, 104000, 0}, invocations, timeSpent);
+    assertArrayEquals(new long[]{1, 5, 10}, invocations);
+    assertArrayEquals(new long[]{9, 5 + 6 + 7 + 8 + 9, 45}, timeSpent);
+  }
+
+  @Test
+  public void histogramIsResetOnRollover() {
+    RingSlotStorage histogramStorage = new RingSlotStorage(10000, 1000, new SlotHistograms(1000, 3));
+    assertEquals(0, histogramStorage.histogram(100000, 90000).getCount());
+    histogramStorage.add(100000, 1, 10, true);
+    histogramStorage.add(100000, 1, 0, false);
+    assertEquals(1, histogramStorage.histogram(100000, 90000).getCount());
+    histogramStorage.add(112000, 2, 50, true);
+    Histogram histogram = histogramStorage.histogram(112000, 90000);
+    assertEquals(2, histogram.getCount());
+    assertEquals(25, histogram.getMax());
+  }
+
+  @Test
+  public void histogramNotEnabled() {
+    assertNull(storage.histogram(100000, 90000));
+  }
+
+  @Test
+  public void rolloverRollsUpIntoNextTier() {
+    RingSlotStorage tiered = new RingSlotStorage(10000, 1000, null, new RingSlotStorage(60000, 5000, null));
+    assertEquals(60000, tiered.getTotalMemory());
+    tiered.add(100000, 1, 10, true);
+    tiered.add(101000, 2, 20, true);
+    tiered.add(112000, 4, 40, true);
+    assertEquals(7, tiered.sumInvocations(112000, 90000));
+    assertEquals(70, tiered.sumTimeSpent(112000, 90000));
+    //the slot of 100000 is rolled up into the slot of the next tier starting at 100000
+    assertEquals(6, tiered.sumInvocations(112000, 100000));
+    tiered.add(113000, 8, 80, true);
+    assertEquals(15, tiered.sumInvocations(113000, 90000));
+    assertEquals(12, tiered.sumInvocations(113000, 100000));
+  }
+
+  @Test
+  public void tiersExpireFromTotalMemory() {
+    RingSlotStorage tiered = new RingSlotStorage(10000, 1000, null, new RingSlotStorage(60000, 5000, null));
+    tiered.add(100000, 1, 10, true);
+    tiered.add(120000, 2, 20, true);
+    assertEquals(3, tiered.sumInvocations(150000, 0));
+    assertEquals(2, tiered.sumInvocations(166000, 0));
+    assertEquals(0, tiered.sumInvocations(186000, 0));
+  }
+
+  @Test
+  public void histogramIsRolledUpIntoNextTier() {
+    SlotHistograms histograms = new SlotHistograms(1000, 3);
+    RingSlotStorage tiered = new RingSlotStorage(10000, 1000, histograms, new RingSlotStorage(60000, 5000, histograms));
+    tiered.add(100000, 1, 10, true);
+    tiered.add(112000, 1, 20, true);
+    Histogram histogram = tiered.histogram(112000, 90000);
+    assertEquals(2, histogram.getCount());
+    assertEquals(10, histogram.getMin());
+    assertEquals(20, histogram.getMax());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void nextTierResolutionMustBeMultiple() {
+    new RingSlotStorage(10000, 1000, null, new RingSlotStorage(60000, 1500, null));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void nextTierMemoryMustBeGreater() {
+    new RingSlotStorage(10000, 1000, null, new RingSlotStorage(10000, 5000, null));
+  }
+
+  @Test
+  public void concurrentWritersAcrossRollover() throws InterruptedException {
+    int threads = 8;
+    int invocations = 100000;
+    CountDownLatch start = new CountDownLatch(1);
+    List<Thread> workers = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      Thread worker = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+        for (int i = 0; i < invocations; i++) {
+          //advance the timeslot every 10000 invocations, staying within memory
+          storage.add(100000 + (i / 10000) * 1000, 1, 2, true);
+        }
+      });
+      worker.start();
+      workers.add(worker);
+    }
+    start.countDown();
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    assertEquals(threads * invocations, storage.sumInvocations(109000, 0));
+    assertEquals(threads * invocations * 2, storage.sumTimeSpent(109000, 0));
+  }
+
+  @Test(timeout = 10000)
+  public void writersAndReadersDoNotWaitForRollover() throws Exception {
+    CountDownLatch rolling = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicBoolean block = new AtomicBoolean();
+    SlotHistograms histograms = new SlotHistograms(1000, 2) {
+      @Override
+      Histogram create() {
+        if (block.get()) {
+          rolling.countDown();
+          awaitUninterruptibly(release);
+        }
+        return super.create();
+      }
+    };
+    RingSlotStorage tiers = new RingSlotStorage(10000, 1000, histograms, new RingSlotStorage(60000, 5000, histograms));
+    tiers.add(100000, 1, 10, true);
+    block.set(true);
+    //rolling the reused slot over rolls its histogram up into the next tier, which blocks allocating its histogram
+    Thread roller = new Thread(() -> tiers.add(112000, 4, 40, true));
+    roller.start();
+    rolling.await();
+
+    tiers.add(112000, 2, 20, true);
+    assertEquals(3, tiers.sumInvocations(112000, 90000));
+    //the current slot is not opened yet
+    assertEquals(0, tiers.sumInvocations(112000, 111000));
+
+    release.countDown();
+    roller.join();
+    assertEquals(7, tiers.sumInvocations(112000, 90000));
+    assertEquals(6, tiers.sumInvocations(112000, 111000));
+  }
+
+  private static void awaitUninterruptibly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package no.mnemonic.commons.metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StatsdMetricsSinkTest {
+
+  private DatagramSocket server;
+
+  @Before
+  public void setup() throws Exception {
+    server = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+    server.setSoTimeout(5000);
+  }
+
+  @After
+  public void cleanup() {
+    server.close();
+  }
+
+  @Test
+  public void sendValuesAsGauges() throws Exception {
+    try (StatsdMetricsSink sink = sink(StatsdMetricsSink.DEFAULT_MAX_PACKET_SIZE)) {
+      sink.report(0, new MetricsGroup().addSubMetrics("service", new MetricsData()
+              .addData("requests", 10L)
+              .addData("bad:name|x", 0.5)
+              .addData("nan", Double.NaN)));
+    }
+    List<String> lines = List.of(receive().split("\n"));
+    assertEquals(2, lines.size());
+    assertTrue(lines.contains("myapp.service.requests:10|g"));
+    assertTrue(lines.contains("myapp.service.bad_name_x:0.5|g"));
+  }
+
+  @Test
+  public void resetGaugeBeforeNegativeValues() throws Exception {
+    try (StatsdMetricsSink sink = sink(StatsdMetricsSink.DEFAULT_MAX_PACKET_SIZE)) {
+      sink.report(0, PrimitiveMetricsData.builder(3)
+              .addData("heapMax", -1L)
+              .addData("delta", -2.5)
+              .addData("zero", -0.0)
+              .build());
+    }
+    assertEquals(List.of(
+            "myapp.heapMax:0|g",
+            "myapp.heapMax:-1|g",
+            "myapp.delta:0|g",
+            "myapp.delta:-2.5|g",
+            "myapp.zero:0.0|g"
+    ), List.of(receive().split("\n")));
+  }
+
+  @Test
+  public void splitValuesIntoPackets() throws Exception {
+    MetricsData data = new MetricsData();
+    for (int i = 0; i < 20; i++) {
+      data.addData("value" + i, (long) i);
+    }
+    try (StatsdMetricsSink sink = sink(100)) {
+      sink.report(0, data);
+    }
+    List<String> lines = new ArrayList<>();
+    while (lines.size() < 20) {
+      String packet = receive();
+      assertTrue(packet.length() <= 100);
+      lines.addAll(List.of(packet.split("\n")));
+    }
+    assertEquals(20, lines.size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidPort() {
+    StatsdMetricsSink.builder().setPort(0).build();
+  }
+
+  private StatsdMetricsSink sink(int maxPacketSize) {
+    return StatsdMetricsSink.builder()
+            .setHost(InetAddress.getLoopbackAddress().getHostAddress())
+            .setPort(server.getLocalPort())
+            .setPrefix("myapp")
+            .setMaxPacketSize(maxPacketSize)
+            .build();
+  }
+
+  private String receive() throws Exception {
+    DatagramPacket packet = new DatagramPacket(new byte[2048], 2048);
+    server.receive(packet);
+    return new String(packet.getData(), 0, packet.getLength(), StandardCharsets.US_ASCII);
+  }
+}
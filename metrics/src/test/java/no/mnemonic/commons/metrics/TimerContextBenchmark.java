@@ -0,0 +1,92 @@
+package no.mnemonic.commons.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+
+/**
+ * Benchmark comparing the cost of timing a code block with the different timer APIs,
+ * measuring throughput and bytes allocated per timed block on a single thread.
+ *
+ * This is not run as part of the test suite. Run the main method manually, optionally with
+ * the number of timed blocks per round as the first argument.
+ */
+public class TimerContextBenchmark {
+
+  private static final com.sun.management.ThreadMXBean THREAD_BEAN = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  public static void main(String[] args) {
+    int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+    LongAdder metric = new LongAdder();
+    ReusableTimer reusableTimer = ReusableTimer.ofNanos(metric::add);
+    LongConsumer add = metric::add;
+    TimerSampler randomSampler = TimerSampler.random(100);
+    TimerSampler nthSampler = TimerSampler.everyNth(100);
+
+    Runnable boxed = () -> {
+      try (TimerContext ignored = TimerContext.timerNanos(metric::add)) {
+        metric.increment();
+      }
+    };
+    Runnable primitive = () -> {
+      try (TimerContext ignored = TimerContext.ofNanos(metric::add)) {
+        metric.increment();
+      }
+    };
+    Runnable named = () -> {
+      try (TimerContext ignored = TimerContext.ofNanos("benchmark", metric::add)) {
+        metric.increment();
+      }
+    };
+    Runnable reusable = () -> {
+      try (ReusableTimer.Timing ignored = reusableTimer.start()) {
+        metric.increment();
+      }
+    };
+    Runnable randomSampled = () -> {
+      try (TimerContext ignored = randomSampler.ofNanos(add)) {
+        metric.increment();
+      }
+    };
+    Runnable nthSampled = () -> {
+      try (TimerContext ignored = nthSampler.ofNanos(add)) {
+        metric.increment();
+      }
+    };
+    Runnable untimed = metric::increment;
+
+    //warm up all variants before measuring
+    for (int i = 0; i < 3; i++) {
+      run(boxed, iterations);
+      run(primitive, iterations);
+      run(named, iterations);
+      run(reusable, iterations);
+      run(randomSampled, iterations);
+      run(nthSampled, iterations);
+      run(untimed, iterations);
+    }
+    System.out.printf("%-32s %16s %16s%n", "variant", "ns/op", "bytes/op");
+    report("TimerContext.timerNanos(Consumer)", boxed, iterations);
+    report("TimerContext.ofNanos(LongConsumer)", primitive, iterations);
+    report("TimerContext.ofNanos(name, ...)", named, iterations);
+    report("ReusableTimer.start()", reusable, iterations);
+    report("TimerSampler.random(100)", randomSampled, iterations);
+    report("TimerSampler.everyNth(100)", nthSampled, iterations);
+    report("untimed", untimed, iterations);
+  }
+
+  private static void report(String name, Runnable block, int iterations) {
+    long allocatedBefore = THREAD_BEAN.getCurrentThreadAllocatedBytes();
+    long elapsed = run(block, iterations);
+    long allocated = THREAD_BEAN.getCurrentThreadAllocatedBytes() - allocatedBefore;
+    System.out.printf("%-32s %16.1f %16.1f%n", name, elapsed / (double) iterations, allocated / (double) iterations);
+  }
+
+  private static long run(Runnable block, int iterations) {
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      block.run();
+    }
+    return System.nanoTime() - start;
+  }
+}
@@ -1,47 +1,35 @@
 package no.mnemonic.commons.metrics;
 
-import org.junit.AfterClass;
+import org.junit.After;
 import org.junit.Before;
-import org.junit.BeforeClass;
 import org.junit.Test;
-import org.mockito.Mockito;
 
-import java.time.Clock;
-import java.time.Instant;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.function.Consumer;
 
 import static org.junit.Assert.assertEquals;
-import static org.mockito.Mockito.when;
+import static org.junit.Assert.assertTrue;
 
 public class TimerContextTest {
 
-  static Clock clock;
-  private Instant instant;
-
-  @BeforeClass
-  public static void beforeAll() {
-    clock = Mockito.mock(Clock.class);
-    TimerContext.setClock(clock);
-  }
-
-  @AfterClass
-  public static void afterAll() {
-    TimerContext.setClock(Clock.systemUTC());
-  }
+  private final AtomicLong nanoTime = new AtomicLong();
 
   @Before
   public void setup() {
-    instant = Instant.ofEpochMilli(10000);
-    when(clock.millis()).thenAnswer(i -> instant.toEpochMilli());
-    when(clock.instant()).thenAnswer(i -> instant);
+    nanoTime.set(TimeUnit.MILLISECONDS.toNanos(10000));
+    TimerContext.setTicker(nanoTime::get);
+  }
+
+  @After
+  public void cleanup() {
+    TimerContext.setTicker(System::nanoTime);
   }
 
   @Test
   public void testTimerContextReportsMillis() throws InterruptedException {
     AtomicLong metric = new AtomicLong();
     try (TimerContext ignored = TimerContext.timerMillis(metric::addAndGet)) {
-      instant = Instant.ofEpochMilli(11000);
+      nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
     }
     assertEquals(metric.get(), 1000);
   }
@@ -50,7 +38,7 @@ public class TimerContextTest {
   public void testTimerContextReportsSeconds() throws InterruptedException {
     AtomicLong metric = new AtomicLong();
     try (TimerContext ignored = TimerContext.timerSeconds(metric::addAndGet)) {
-      instant = Instant.ofEpochMilli(12000);
+      nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(2000));
     }
     assertEquals(metric.get(), 2);
   }
@@ -59,16 +47,72 @@ public class TimerContextTest {
   public void testTimerContextReportsNanos() throws InterruptedException {
     AtomicLong metric = new AtomicLong();
     try (TimerContext ignored = TimerContext.timerNanos(metric::addAndGet)) {
-      instant = Instant.ofEpochMilli(10001);
+      nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
     }
     assertEquals(metric.get(), 1000000);
   }
 
+  @Test
+  public void testTimerContextReportsSubMillisecondNanos() {
+    AtomicLong metric = new AtomicLong();
+    try (TimerContext ignored = TimerContext.timerNanos(metric::addAndGet)) {
+      nanoTime.addAndGet(1234);
+    }
+    assertEquals(1234, metric.get());
+  }
+
+  @Test
+  public void testTimerContextReportsMicros() {
+    AtomicLong metric = new AtomicLong();
+    try (TimerContext ignored = TimerContext.timerMicros(metric::addAndGet)) {
+      nanoTime.addAndGet(5678);
+    }
+    assertEquals(5, metric.get());
+  }
+
+  @Test
+  public void testTimerContextUsesMonotonicTicker() throws InterruptedException {
+    TimerContext.setTicker(System::nanoTime);
+    AtomicLong metric = new AtomicLong();
+    try (TimerContext ignored = TimerContext.timerNanos(metric::addAndGet)) {
+      Thread.sleep(1);
+    }
+    assertTrue(metric.get() >= TimeUnit.MILLISECONDS.toNanos(1));
+  }
+
+  @Test
+  public void testTimerContextReportsToLongConsumer() {
+    AtomicLong millis = new AtomicLong();
+    AtomicLong micros = new AtomicLong();
+    AtomicLong nanos = new AtomicLong();
+    AtomicLong seconds = new AtomicLong();
+    try (TimerContext ignored1 = TimerContext.ofMillis(millis::set);
+         TimerContext ignored2 = TimerContext.ofMicros(micros::set);
+         TimerContext ignored3 = TimerContext.ofNanos(nanos::set);
+         TimerContext ignored4 = TimerContext.ofSeconds(seconds::set)) {
+      nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(3500));
+    }
+    assertEquals(3500, millis.get());
+    assertEquals(3500000, micros.get());
+    assertEquals(3500000000L, nanos.get());
+    assertEquals(3, seconds.get());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void longConsumerTimerContextThrowsIllegalArgumentIfConsumerIsNull() {
+    TimerContext.ofMillis(null);
+  }
+
   @Test(expected = IllegalArgumentException.class)
   public void millisTimerContextThrowsIllegalArgumentIfConsumerIsNull() {
     TimerContext.timerMillis(null);
   }
 
+  @Test(expected = IllegalArgumentException.class)
+  public void microTimerContextThrowsIllegalArgumentIfConsumerIsNull() {
+    TimerContext.timerMicros(null);
+  }
+
   @Test(expected = IllegalArgumentException.class)
   public void nanoTimerContextThrowsIllegalArgumentIfConsumerIsNull() {
     TimerContext.timerNanos(null);
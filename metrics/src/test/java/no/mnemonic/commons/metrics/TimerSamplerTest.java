@@ -0,0 +1,110 @@
+package no.mnemonic.commons.metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimerSamplerTest {
+
+  private final AtomicLong nanoTime = new AtomicLong();
+
+  @Before
+  public void setup() {
+    nanoTime.set(TimeUnit.MILLISECONDS.toNanos(10000));
+    TimerContext.setTicker(nanoTime::get);
+  }
+
+  @After
+  public void cleanup() {
+    TimerContext.setTicker(System::nanoTime);
+    PerformanceMonitor.setClock(Clock.systemUTC());
+  }
+
+  @Test
+  public void everyNthSamplesOneOfEachRateCalls() {
+    TimerSampler sampler = TimerSampler.everyNth(10);
+    int sampled = 0;
+    for (int i = 0; i < 1000; i++) {
+      if (sampler.sample()) sampled++;
+    }
+    assertEquals(100, sampled);
+  }
+
+  @Test
+  public void randomSamplesAboutOneOfEachRateCalls() {
+    TimerSampler sampler = TimerSampler.random(10);
+    int sampled = 0;
+    for (int i = 0; i < 100000; i++) {
+      if (sampler.sample()) sampled++;
+    }
+    assertTrue(sampled > 9000 && sampled < 11000);
+  }
+
+  @Test
+  public void rateOneSamplesAllCalls() {
+    TimerSampler sampler = TimerSampler.random(1);
+    for (int i = 0; i < 100; i++) {
+      assertTrue(sampler.sample());
+    }
+  }
+
+  @Test
+  public void sampledTimeIsScaledByRate() {
+    AtomicLong metric = new AtomicLong();
+    TimerSampler sampler = TimerSampler.everyNth(10);
+    for (int i = 0; i < 100; i++) {
+      try (TimerContext ignored = sampler.ofMicros(metric::addAndGet)) {
+        nanoTime.addAndGet(TimeUnit.MICROSECONDS.toNanos(5));
+      }
+    }
+    //10 sampled calls of 5 micros, each representing 10 calls
+    assertEquals(500, metric.get());
+  }
+
+  @Test
+  public void callsNotSampledUseNoopTimer() {
+    AtomicLong metric = new AtomicLong();
+    TimerSampler sampler = TimerSampler.everyNth(1000);
+    int noop = 0;
+    for (int i = 0; i < 1000; i++) {
+      TimerContext timer = sampler.ofMillis(metric::addAndGet);
+      if (timer == TimerContext.NOOP) noop++;
+      timer.close();
+    }
+    assertEquals(999, noop);
+    assertEquals(0, metric.get());
+  }
+
+  @Test
+  public void monitorRegistersScaledInvocations() {
+    PerformanceMonitor.setClock(Clock.fixed(Instant.ofEpochMilli(100000), ZoneOffset.UTC));
+    PerformanceMonitor monitor = new PerformanceMonitor(TimeUnit.SECONDS, 60, 1);
+    TimerSampler sampler = TimerSampler.everyNth(10);
+    for (int i = 0; i < 100; i++) {
+      try (TimerContext ignored = sampler.monitor(monitor)) {
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(2));
+      }
+    }
+    assertEquals(100, monitor.getTotalInvocations());
+    assertEquals(200, monitor.getTotalTimeSpent());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidRate() {
+    TimerSampler.random(0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void metricNotSet() {
+    TimerSampler.random(1).ofMillis(null);
+  }
+}
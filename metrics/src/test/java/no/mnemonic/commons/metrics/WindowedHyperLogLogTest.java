@@ -0,0 +1,92 @@
+package no.mnemonic.commons.metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class WindowedHyperLogLogTest {
+
+  private final Clock clock = mock(Clock.class);
+  private long now = 1000000;
+
+  @Before
+  public void setup() {
+    when(clock.millis()).thenAnswer(i -> now);
+    WindowedHyperLogLog.setClock(clock);
+  }
+
+  @After
+  public void cleanup() {
+    WindowedHyperLogLog.setClock(Clock.systemUTC());
+  }
+
+  @Test
+  public void countDistinctValuesWithinTimeframe() {
+    WindowedHyperLogLog sketch = create();
+    for (int second = 0; second < 10; second++) {
+      //each second adds 10 new values, and repeats 10 values of the previous second
+      for (int i = 0; i < 20; i++) {
+        sketch.add(second * 10 + i - 10);
+      }
+      now += 1000;
+    }
+    now -= 1000;
+    assertEquals(20, sketch.getCardinalityLast(TimeUnit.SECONDS, 1), 1);
+    assertEquals(30, sketch.getCardinalityLast(TimeUnit.SECONDS, 2), 1);
+    assertEquals(110, sketch.getCardinalityLast(TimeUnit.SECONDS, 10), 3);
+  }
+
+  @Test
+  public void expireSlotsOutsideMemory() {
+    WindowedHyperLogLog sketch = create();
+    sketch.add("old");
+    now += 61000;
+    sketch.add("new");
+    assertEquals(1, sketch.getCardinalityLast(TimeUnit.SECONDS, 60));
+  }
+
+  @Test
+  public void reuseRolledOverSlots() {
+    WindowedHyperLogLog sketch = create();
+    for (int round = 0; round < 5; round++) {
+      sketch.add("round" + round);
+      now += 62000;
+    }
+    now -= 62000;
+    assertEquals(1, sketch.getCardinalityLast(TimeUnit.SECONDS, 60));
+  }
+
+  @Test
+  public void mergeWindowSketches() {
+    WindowedHyperLogLog a = create();
+    WindowedHyperLogLog b = create();
+    a.add("x");
+    a.add("y");
+    b.add("y");
+    b.add("z");
+    HyperLogLog merged = a.getSketchLast(TimeUnit.SECONDS, 60);
+    merged.merge(b.getSketchLast(TimeUnit.SECONDS, 60));
+    assertEquals(3, merged.getCardinality());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void memoryMustBeGreaterThanResolution() {
+    WindowedHyperLogLog.builder().setTimeUnit(TimeUnit.SECONDS).setMemory(1).setResolution(1).build();
+  }
+
+  private static WindowedHyperLogLog create() {
+    return WindowedHyperLogLog.builder()
+            .setTimeUnit(TimeUnit.SECONDS)
+            .setMemory(60)
+            .setResolution(1)
+            .setPrecision(10)
+            .build();
+  }
+}